@@ -0,0 +1,14 @@
+package com.calculator.core;
+
+/**
+ * How a compiled expression is executed.
+ */
+public enum Backend {
+    /** The stack machine loop over the decoded postfix program. */
+    INTERPRETER,
+    /**
+     * A generated hidden class HotSpot can inline. Falls back to the
+     * interpreter for programs too large for one method.
+     */
+    BYTECODE
+}
@@ -0,0 +1,241 @@
+package com.calculator;
+
+import com.calculator.core.EvaluationOptions;
+import com.calculator.core.ExpressionEvaluator;
+import com.calculator.core.ParseCache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams expressions, one per line, through the evaluator in parallel and
+ * writes one result line per input line, in input order.
+ *
+ * Lines are grouped into chunks that are evaluated on a fixed pool. Pending
+ * chunks sit in a bounded queue, so reading blocks once the writer falls
+ * behind instead of buffering the whole input in memory, and stops as soon
+ * as the writer fails. Batch lines are mostly one-offs, so they bypass the
+ * shared parse cache rather than evicting everything in it.
+ */
+public final class BatchEvaluator {
+
+    public enum Format { CSV, JSONL }
+
+    private static final int CHUNK_SIZE = 1024;
+    // How often a reader blocked on a full queue checks that the writer is still running
+    private static final long WRITER_CHECK_MILLIS = 100;
+    private static final EvaluationOptions OPTIONS =
+        EvaluationOptions.defaults().withParseCache(ParseCache.none());
+
+    private final int threads;
+    private final Format format;
+
+    public BatchEvaluator(int threads, Format format) {
+        if (threads <= 0) throw new IllegalArgumentException(
+            "threads must be positive: " + threads);
+        this.threads = threads;
+        this.format = format;
+    }
+
+    public static class Summary {
+        private final long lines;
+        private final long errors;
+        private final long elapsedNanos;
+
+        Summary(long lines, long errors, long elapsedNanos) {
+            this.lines = lines;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getLines() { return lines; }
+        public long getErrors() { return errors; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : lines * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Evaluated %d expressions (%d errors) in %.1f ms, %.0f expr/s",
+                lines, errors, elapsedNanos / 1e6, getThroughput());
+        }
+    }
+
+    private static final class Chunk {
+        final long firstLine;
+        final String[] expressions;
+        final double[] results;
+        final String[] errors;
+        int errorCount;
+
+        Chunk(long firstLine, List<String> lines) {
+            this.firstLine = firstLine;
+            this.expressions = lines.toArray(new String[0]);
+            this.results = new double[expressions.length];
+            this.errors = new String[expressions.length];
+        }
+
+        Chunk evaluate() {
+            for (int i = 0; i < expressions.length; i++) {
+                try {
+                    results[i] = ExpressionEvaluator.evaluate(expressions[i], OPTIONS).getResult();
+                } catch (Throwable e) {
+                    // Anything a line throws, even a StackOverflowError, is that line's error
+                    errors[i] = e.getMessage() == null ? e.toString() : e.getMessage();
+                    errorCount++;
+                }
+            }
+            return this;
+        }
+    }
+
+    public Summary run(BufferedReader in, Writer out) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "batch-evaluator");
+            t.setDaemon(true);
+            return t;
+        });
+        BlockingQueue<Future<Chunk>> pending = new ArrayBlockingQueue<>(threads * 4);
+
+        // Results are written by a separate thread so reading never waits on output
+        Writer target = out;
+        long[] totals = new long[2];
+        IOException[] writeFailure = new IOException[1];
+        Future<Chunk> endOfInput = pool.submit(() -> null);
+        Thread writer = new Thread(() -> {
+            try {
+                if (format == Format.CSV) target.write("line,result,error\n");
+                while (true) {
+                    Future<Chunk> next = pending.take();
+                    if (next == endOfInput) break;
+                    Chunk chunk = next.get();
+                    write(chunk, target);
+                    totals[0] += chunk.expressions.length;
+                    totals[1] += chunk.errorCount;
+                }
+                target.flush();
+            } catch (IOException e) {
+                writeFailure[0] = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                writeFailure[0] = new IOException(e.getCause());
+            } catch (RuntimeException | Error e) {
+                writeFailure[0] = new IOException("Writing results failed", e);
+            }
+        }, "batch-writer");
+        writer.start();
+
+        boolean writing = true;
+        boolean finished = false;
+        try {
+            long lineNumber = 1;
+            List<String> lines = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            while (writing && (line = in.readLine()) != null) {
+                lines.add(line);
+                if (lines.size() == CHUNK_SIZE) {
+                    writing = submit(pool, pending, new Chunk(lineNumber, lines), writer);
+                    lineNumber += lines.size();
+                    lines.clear();
+                }
+            }
+            if (writing && !lines.isEmpty()) {
+                writing = submit(pool, pending, new Chunk(lineNumber, lines), writer);
+            }
+            if (writing) {
+                enqueue(pending, endOfInput, writer);
+            }
+            writer.join();
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while evaluating batch", e);
+        } finally {
+            // Reading failed or was interrupted: the writer would wait for input forever
+            if (!finished) stop(writer);
+            pool.shutdownNow();
+        }
+
+        if (writeFailure[0] != null) {
+            throw writeFailure[0];
+        }
+        if (!writing) {
+            throw new IOException("Result writer stopped before the end of input");
+        }
+        return new Summary(totals[0], totals[1], System.nanoTime() - start);
+    }
+
+    // False if the writer has stopped, so there is no point reading on
+    private static boolean submit(ExecutorService pool, BlockingQueue<Future<Chunk>> pending,
+                                  Chunk chunk, Thread writer) throws InterruptedException {
+        return enqueue(pending, pool.submit(chunk::evaluate), writer);
+    }
+
+    private static boolean enqueue(BlockingQueue<Future<Chunk>> pending, Future<Chunk> chunk,
+                                   Thread writer) throws InterruptedException {
+        // Waits while the queue is full: this is the backpressure on the reader.
+        // A writer that died would never make room, so keep checking on it
+        while (!pending.offer(chunk, WRITER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (!writer.isAlive()) return false;
+        }
+        return writer.isAlive();
+    }
+
+    // Interrupts the writer and waits for it, so it never outlives run()
+    private static void stop(Thread writer) {
+        boolean interrupted = false;
+        writer.interrupt();
+        while (true) {
+            try {
+                writer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void write(Chunk chunk, Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder(chunk.expressions.length * 24);
+        for (int i = 0; i < chunk.expressions.length; i++) {
+            long line = chunk.firstLine + i;
+            String error = chunk.errors[i];
+            if (format == Format.CSV) {
+                sb.append(line).append(',');
+                if (error == null) {
+                    sb.append(chunk.results[i]).append(",\n");
+                } else {
+                    sb.append(',').append(csvQuote(error)).append('\n');
+                }
+            } else {
+                sb.append("{\"line\":").append(line);
+                if (error == null) {
+                    sb.append(",\"result\":").append(Json.number(chunk.results[i]));
+                } else {
+                    sb.append(",\"error\":").append(Json.string(error));
+                }
+                sb.append("}\n");
+            }
+        }
+        out.append(sb);
+    }
+
+    private static String csvQuote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
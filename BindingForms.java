@@ -0,0 +1,124 @@
+package com.calculator.core;
+
+import com.calculator.numerics.Integrator;
+import com.calculator.numerics.RootFinder;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Functions that bind a variable in their first argument:
+ * {@code integrate(body, x, a, b)} and {@code solve(body, x, lo, hi)}, and
+ * the range reductions {@code sum}, {@code prod}, {@code min} and
+ * {@code max}, written {@code sum(i, a, b, body)}.
+ *
+ * The lexer compiles the body once as a function of x, and the form is
+ * then an ordinary call on the remaining arguments. Variables of the
+ * surrounding expression that the body uses are passed in as extra
+ * arguments, written where the body was: {@code integrate(x^k, x, 0, 1)}
+ * becomes a call on (k, 0, 1) and {@code sum(i, 1, n, a*i)} one on
+ * (1, n, a). Since sum, min and max are also ordinary functions, they are
+ * only reductions when given four arguments.
+ */
+final class BindingForms {
+
+    private BindingForms() {
+    }
+
+    static boolean isForm(String name) {
+        return name.equals("integrate") || name.equals("solve");
+    }
+
+    static boolean isReduction(String name) {
+        return name.equals("sum") || name.equals("prod") || name.equals("min") || name.equals("max");
+    }
+
+    /** A compiled body and the surrounding expression's variables it uses. */
+    static final class Body {
+        final CompiledExpression compiled;
+        // In order of first use, after the bound variable in the compiled body's variables
+        final String[] outer;
+        // Where each of them is first used, in the enclosing source
+        final int[] outerStarts;
+
+        Body(CompiledExpression compiled, String[] outer, int[] outerStarts) {
+            this.compiled = compiled;
+            this.outer = outer;
+            this.outerStarts = outerStarts;
+        }
+    }
+
+    /**
+     * Compiles a body found at {@code offset}, resolving functions against
+     * {@code registry} and reporting errors at their place in the source.
+     */
+    static Body compileBody(String body, String variable, int offset, FunctionRegistry registry) {
+        try {
+            TokenBuffer tokens = Lexer.lex(body, registry);
+            Map<String, Integer> outer = new LinkedHashMap<>();
+            for (int i = 0; i < tokens.size; i++) {
+                if (tokens.types[i] == TokenBuffer.IDENTIFIER && !tokens.text(i).equals(variable)) {
+                    outer.putIfAbsent(tokens.text(i), offset + tokens.starts[i]);
+                }
+            }
+            String[] names = new String[outer.size() + 1];
+            int[] starts = new int[outer.size()];
+            names[0] = variable;
+            int k = 0;
+            for (Map.Entry<String, Integer> entry : outer.entrySet()) {
+                names[k + 1] = entry.getKey();
+                starts[k++] = entry.getValue();
+            }
+            CompiledExpression compiled = ExpressionEvaluator.parse(tokens, names,
+                new long[PipelineStage.values().length]);
+            return new Body(compiled, Arrays.copyOfRange(names, 1, names.length), starts);
+        } catch (ExpressionSyntaxException e) {
+            throw new ExpressionSyntaxException(e.getReason(), offset + e.getOffset());
+        } catch (IllegalArgumentException e) {
+            throw new ExpressionSyntaxException(
+                body.trim().isEmpty() ? "Missing argument" : e.getMessage(), offset);
+        }
+    }
+
+    /**
+     * The call a form becomes: on (outer..., a, b) for integrate and solve,
+     * whose body comes first, and on (a, b, outer...) for the reductions.
+     */
+    static RegisteredFunction bind(String name, Body body) {
+        int outer = body.outer.length;
+        if (isReduction(name)) {
+            RangeReduction.Kind kind = RangeReduction.Kind.of(name);
+            PostfixProgram program = body.compiled.getProgram();
+            return RegisteredFunction.nary(name, 2 + outer, arguments -> RangeReduction.reduce(kind,
+                program, arguments[0], arguments[1], Arrays.copyOfRange(arguments, 2, 2 + outer)), true);
+        }
+        ExpressionFunction function = body.compiled.asFunction(Backend.BYTECODE);
+        switch (name) {
+            case "integrate":
+                return RegisteredFunction.nary(name, 2 + outer, arguments -> {
+                    DoubleUnaryOperator f = bodyAt(function, arguments, outer);
+                    return Integrator.integrate(f, arguments[outer], arguments[outer + 1]).getValue();
+                }, true);
+            case "solve":
+                return RegisteredFunction.nary(name, 2 + outer, arguments ->
+                    RootFinder.solve(bodyAt(function, arguments, outer), arguments[outer],
+                        arguments[outer + 1]), true);
+            default:
+                throw new IllegalArgumentException("Not a binding form: " + name);
+        }
+    }
+
+    // The body as a function of its variable, with the outer variables from the first
+    // arguments. The integrator and root finder call it from several threads at once
+    private static DoubleUnaryOperator bodyAt(ExpressionFunction function, double[] arguments,
+                                              int outer) {
+        return x -> {
+            double[] values = new double[outer + 1];
+            values[0] = x;
+            System.arraycopy(arguments, 0, values, 1, outer);
+            return function.applyAsDouble(values);
+        };
+    }
+}
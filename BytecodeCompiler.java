@@ -0,0 +1,342 @@
+package com.calculator.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles a {@link PostfixProgram} into a hidden class implementing
+ * {@link ExpressionFunction}, so HotSpot sees straight-line arithmetic it
+ * can inline instead of an interpreter loop.
+ *
+ * Built-in functions become direct {@code invokestatic} calls on
+ * {@link Math}; registered functions are called through the same
+ * {@link RegisteredFunction} the interpreter uses. Shared subexpression
+ * temps live in local variables, followed by scratch locals used to gather
+ * the arguments of functions taking more than two. The generated code has
+ * no branches, so a version 52 class file without stack map frames is
+ * enough.
+ */
+final class BytecodeCompiler {
+
+    private static final String CLASS_NAME = "com/calculator/core/GeneratedExpression";
+    private static final String SELF = "com/calculator/core/BytecodeCompiler";
+
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * Returns a bytecode-backed function for the program, or null if the
+     * program is too large for a single method.
+     */
+    static ExpressionFunction compile(PostfixProgram program) {
+        byte[] bytes = generate(program);
+        if (bytes == null) {
+            return null;
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (ExpressionFunction) lookup
+                .findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Object[].class))
+                .invoke((Object[]) program.functions);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to define generated expression class", e);
+        }
+    }
+
+    // Called from generated code for division, keeping the interpreter's check
+    static double divide(double a, double b) {
+        if (b == 0) throw new ArithmeticException("Division by zero");
+        return a / b;
+    }
+
+    // Called from generated code for functions that have no Math equivalent
+    static double call(double arg, Object[] functions, int index) {
+        return ((RegisteredFunction) functions[index]).apply(arg);
+    }
+
+    static double call(double a, double b, Object[] functions, int index) {
+        return ((RegisteredFunction) functions[index]).apply(a, b);
+    }
+
+    static double call(double[] args, Object[] functions, int index) {
+        return ((RegisteredFunction) functions[index]).apply(args, 0);
+    }
+
+    private static byte[] generate(PostfixProgram program) {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int iface = pool.classRef("com/calculator/core/ExpressionFunction");
+        int functionsField = pool.fieldRef(CLASS_NAME, "functions", "[Ljava/lang/Object;");
+        int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+        int divide = pool.methodRef(SELF, "divide", "(DD)D");
+        int call = pool.methodRef(SELF, "call", "(D[Ljava/lang/Object;I)D");
+        int call2 = pool.methodRef(SELF, "call", "(DD[Ljava/lang/Object;I)D");
+        int callN = pool.methodRef(SELF, "call", "([D[Ljava/lang/Object;I)D");
+        int pow = pool.methodRef("java/lang/Math", "pow", "(DD)D");
+
+        // Constructor: this.functions = functions
+        Code init = new Code();
+        init.op(0x2A);                      // aload_0
+        init.op(0xB7).u2(objectInit);       // invokespecial Object.<init>
+        init.op(0x2A);                      // aload_0
+        init.op(0x2B);                      // aload_1
+        init.op(0xB5).u2(functionsField);   // putfield functions
+        init.op(0xB1);                      // return
+
+        int scratch = 2 + 2 * program.tempCount;
+        int maxArity = 0;
+        for (RegisteredFunction function : program.functions) {
+            maxArity = Math.max(maxArity, function.arity);
+        }
+
+        Code apply = new Code();
+        for (int i = 0; i < program.code.length; i++) {
+            int instruction = program.code[i];
+            int operand = PostfixProgram.operand(instruction);
+
+            switch (PostfixProgram.opcode(instruction)) {
+                case PostfixProgram.CONST:
+                    apply.op(0x14).u2(pool.doubleConstant(program.constants[operand])); // ldc2_w
+                    break;
+                case PostfixProgram.LOAD:
+                    apply.op(0x2B);         // aload_1
+                    apply.pushInt(operand, pool);
+                    apply.op(0x31);         // daload
+                    break;
+                case PostfixProgram.ADD: apply.op(0x63); break; // dadd
+                case PostfixProgram.SUB: apply.op(0x67); break; // dsub
+                case PostfixProgram.MUL: apply.op(0x6B); break; // dmul
+                case PostfixProgram.MOD: apply.op(0x73); break; // drem
+                case PostfixProgram.DUP: apply.op(0x5C); break; // dup2
+                case PostfixProgram.STORE:
+                    apply.op(0x5C);         // dup2
+                    apply.local(0x39, 2 + 2 * operand); // dstore
+                    break;
+                case PostfixProgram.RELOAD:
+                    apply.local(0x18, 2 + 2 * operand); // dload
+                    break;
+                case PostfixProgram.DIV: apply.op(0xB8).u2(divide); break;
+                case PostfixProgram.POW: apply.op(0xB8).u2(pow); break;
+                case PostfixProgram.CALL: {
+                    RegisteredFunction function = program.functions[operand];
+                    if (function.isBuiltIn()) {
+                        String descriptor = function.arity == 1 ? "(D)D" : "(DD)D";
+                        apply.op(0xB8).u2(pool.methodRef("java/lang/Math", function.mathMethod,
+                            descriptor));
+                        break;
+                    }
+                    if (function.arity > 2) {
+                        // Spill the arguments, last one first, then gather them into a double[]
+                        for (int k = function.arity - 1; k >= 0; k--) {
+                            apply.local(0x39, scratch + 2 * k); // dstore
+                        }
+                        apply.pushInt(function.arity, pool);
+                        apply.op(0xBC).bytes.write(7);      // newarray double
+                        for (int k = 0; k < function.arity; k++) {
+                            apply.op(0x59);                 // dup
+                            apply.pushInt(k, pool);
+                            apply.local(0x18, scratch + 2 * k); // dload
+                            apply.op(0x52);                 // dastore
+                        }
+                    }
+                    apply.op(0x2A);     // aload_0
+                    apply.op(0xB4).u2(functionsField);
+                    apply.pushInt(operand, pool);
+                    apply.op(0xB8).u2(function.arity == 1 ? call : function.arity == 2 ? call2 : callN);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException(
+                        "Unknown opcode: " + PostfixProgram.opcode(instruction));
+            }
+            if (apply.size() > MAX_CODE_LENGTH - 1) {
+                return null;
+            }
+        }
+        apply.op(0xAF);                     // dreturn
+
+        // Everything the pool needs must be added before it is written
+        int codeAttribute = pool.utf8("Code");
+        int fieldName = pool.utf8("functions");
+        int fieldDescriptor = pool.utf8("[Ljava/lang/Object;");
+        int initName = pool.utf8("<init>");
+        int initDescriptor = pool.utf8("([Ljava/lang/Object;)V");
+        int applyName = pool.utf8("applyAsDouble");
+        int applyDescriptor = pool.utf8("([D)D");
+        if (pool.size() > 0xFFFF) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);              // minor
+            out.writeShort(52);             // major: Java 8, no stack maps needed
+            pool.write(out);
+            out.writeShort(0x0010 | 0x0020); // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(iface);
+
+            out.writeShort(1);              // fields
+            out.writeShort(0x0010 | 0x0002); // ACC_PRIVATE | ACC_FINAL
+            out.writeShort(fieldName);
+            out.writeShort(fieldDescriptor);
+            out.writeShort(0);
+
+            out.writeShort(2);              // methods
+            writeMethod(out, 0x0001, initName, initDescriptor,
+                codeAttribute, init, 2, 2);
+            // Each double takes two stack slots; the extra six cover the
+            // array references, index and value pushed for a load or user call
+            writeMethod(out, 0x0001, applyName, applyDescriptor,
+                codeAttribute, apply, program.maxStack * 2 + 6,
+                scratch + 2 * (maxArity > 2 ? maxArity : 0));
+
+            out.writeShort(0);              // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int access, int name, int descriptor,
+                                    int codeAttribute, Code code, int maxStack, int maxLocals)
+            throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.bytes.writeTo(out);
+        out.writeShort(0);                  // exception table
+        out.writeShort(0);                  // attributes
+    }
+
+    private static final class Code {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Code op(int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        Code u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        void pushInt(int value, ConstantPool pool) {
+            if (value <= 5) {
+                op(0x03 + value);           // iconst_<n>
+            } else if (value <= Byte.MAX_VALUE) {
+                op(0x10).bytes.write(value); // bipush
+            } else if (value <= Short.MAX_VALUE) {
+                op(0x11).u2(value);         // sipush
+            } else {
+                op(0x13).u2(pool.intConstant(value)); // ldc_w
+            }
+        }
+
+        void local(int opcode, int index) {
+            if (index <= 0xFF) {
+                op(opcode).bytes.write(index);
+            } else {
+                op(0xC4).op(opcode).u2(index); // wide
+            }
+        }
+
+        int size() {
+            return bytes.size();
+        }
+    }
+
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int next = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, 1, () -> { out.writeByte(1); out.writeUTF(value); });
+        }
+
+        int classRef(String name) {
+            int utf8 = utf8(name);
+            return entry("C" + name, 1, () -> { out.writeByte(7); out.writeShort(utf8); });
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(9, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(10, owner, name, descriptor);
+        }
+
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            // Doubles occupy two pool slots
+            return entry("D" + bits, 2, () -> { out.writeByte(6); out.writeLong(bits); });
+        }
+
+        int intConstant(int value) {
+            return entry("I" + value, 1, () -> { out.writeByte(3); out.writeInt(value); });
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerRef = classRef(owner);
+            int nameUtf8 = utf8(name);
+            int descriptorUtf8 = utf8(descriptor);
+            int nameAndType = entry("N" + name + ":" + descriptor, 1,
+                () -> { out.writeByte(12); out.writeShort(nameUtf8); out.writeShort(descriptorUtf8); });
+            return entry(tag + owner + "." + name + ":" + descriptor, 1,
+                () -> { out.writeByte(tag); out.writeShort(ownerRef); out.writeShort(nameAndType); });
+        }
+
+        private int entry(String key, int slots, Writer writer) {
+            Integer existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            int index = next;
+            next += slots;
+            entries.put(key, index);
+            return index;
+        }
+
+        int size() {
+            return next;
+        }
+
+        void write(DataOutputStream target) throws IOException {
+            target.writeShort(next);
+            bytes.writeTo(target);
+        }
+
+        private interface Writer {
+            void write() throws IOException;
+        }
+    }
+}
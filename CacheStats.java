@@ -0,0 +1,39 @@
+package com.calculator.core;
+
+/**
+ * Immutable snapshot of cache counters.
+ */
+public final class CacheStats {
+    
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final int size;
+    private final long estimatedBytes;
+    
+    public CacheStats(long hitCount, long missCount, long evictionCount,
+                      int size, long estimatedBytes) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+        this.estimatedBytes = estimatedBytes;
+    }
+    
+    public long getHitCount() { return hitCount; }
+    public long getMissCount() { return missCount; }
+    public long getEvictionCount() { return evictionCount; }
+    public int getSize() { return size; }
+    public long getEstimatedBytes() { return estimatedBytes; }
+    
+    public double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("CacheStats[hits=%d, misses=%d, evictions=%d, size=%d, bytes=%d]",
+            hitCount, missCount, evictionCount, size, estimatedBytes);
+    }
+}
@@ -1,33 +1,83 @@
 package com.calculator;
 
-import com.calculator.gui.CalculatorGUI;
+import com.calculator.core.EvaluationOptions;
+import com.calculator.core.ExpressionEvaluator;
+import com.calculator.core.TraceLevel;
+import com.calculator.numerics.Integrator;
+import com.calculator.numerics.RootFinder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
  * Main application entry point
  */
 public class CalculatorApp {
     
+    private static final String GUI_CLASS = "com.calculator.gui.CalculatorGUI";
+    
     public static void main(String[] args) {
         if (args.length == 0) {
-            // Launch GUI
-            CalculatorGUI.launch(CalculatorGUI.class, args);
+            System.exit(launchGui(args));
+        } else if (args[0].equals("--batch")) {
+            System.exit(runBatch(args));
+        } else if (args[0].equals("--serve")) {
+            runServer(args);
+        } else if (args[0].equals("--integrate") || args[0].equals("--solve")) {
+            System.exit(runNumeric(args));
+        } else if (args[0].equals("--table")) {
+            System.exit(runTable(args));
         } else {
             // Command line mode
             runCommandLine(args);
         }
     }
     
+    /**
+     * Starts the JavaFX GUI from the calculator-gui module. It is looked up
+     * by name so command-line runs never load JavaFX, and the core works
+     * where JavaFX is not installed.
+     */
+    private static int launchGui(String[] args) {
+        Method main;
+        try {
+            main = Class.forName(GUI_CLASS).getMethod("main", String[].class);
+        } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+            System.err.println("GUI not available: put calculator-gui and JavaFX on the class path, " +
+                "or pass an expression to evaluate it on the command line");
+            return 2;
+        }
+        try {
+            main.invoke(null, (Object) args);
+            return 0;
+        } catch (InvocationTargetException e) {
+            System.err.println("Error: " + e.getCause());
+            return 1;
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
     private static void runCommandLine(String[] args) {
         try {
             String expression = String.join(" ", args);
             System.out.println("Evaluating: " + expression);
             
-            var result = com.calculator.core.ExpressionEvaluator.evaluate(expression);
+            var result = ExpressionEvaluator.evaluate(expression,
+                EvaluationOptions.defaults().withTraceLevel(TraceLevel.FULL));
             
             System.out.println("\n=== RESULT ===");
             System.out.printf("Value: %.6f\n", result.getResult());
             System.out.println("Postfix: " + result.getPostfix());
-            System.out.printf("Time: %d ms\n", result.getTimeMs());
+            System.out.printf("Time: %.3f ms\n", result.getTimeNanos() / 1e6);
             
             System.out.println("\n=== STEPS ===");
             for (String step : result.getSteps()) {
@@ -38,4 +88,176 @@ public class CalculatorApp {
             System.err.println("Error: " + e.getMessage());
         }
     }
+    
+    /**
+     * Usage: --batch [file] [--format csv|jsonl] [--threads n]
+     *
+     * Reads one expression per line from the file, or stdin when no file or
+     * "-" is given, and writes one result per line to stdout in input order.
+     * The summary goes to stderr so it never mixes with the results.
+     */
+    private static int runBatch(String[] args) {
+        String file = null;
+        BatchEvaluator.Format format = BatchEvaluator.Format.CSV;
+        int threads = Runtime.getRuntime().availableProcessors();
+        
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format":
+                        format = BatchEvaluator.Format.valueOf(value(args, ++i).toUpperCase());
+                        break;
+                    case "--threads":
+                        threads = positive(args, ++i);
+                        break;
+                    default:
+                        if (file != null) throw new IllegalArgumentException(
+                            "Unexpected argument: " + args[i]);
+                        file = args[i];
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: --batch [file] [--format csv|jsonl] [--threads n]");
+            return 2;
+        }
+        
+        try (BufferedReader in = file == null || file.equals("-")
+                 ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                 : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8);
+             BufferedWriter out = new BufferedWriter(
+                 Channels.newWriter(Channels.newChannel(System.out), StandardCharsets.UTF_8.newEncoder(), -1),
+                 1 << 16)) {
+            BatchEvaluator.Summary summary = new BatchEvaluator(threads, format).run(in, out);
+            System.err.println(summary);
+            return summary.getErrors() == 0 ? 0 : 1;
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 2;
+        }
+    }
+    
+    /**
+     * Usage: --table expression variables [file]
+     *
+     * Variables are comma-separated, e.g. "x,y". Each input line holds one
+     * comma-separated value per variable; results are written like --batch
+     * csv output.
+     */
+    private static int runTable(String[] args) {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println("Usage: --table expression variables [file]");
+            return 2;
+        }
+        
+        TableEvaluator table;
+        try {
+            table = new TableEvaluator(args[1], args[2].split(","));
+        } catch (RuntimeException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 2;
+        }
+        
+        String file = args.length == 4 ? args[3] : null;
+        try (BufferedReader in = file == null || file.equals("-")
+                 ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                 : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8);
+             BufferedWriter out = new BufferedWriter(
+                 Channels.newWriter(Channels.newChannel(System.out), StandardCharsets.UTF_8.newEncoder(), -1),
+                 1 << 16)) {
+            BatchEvaluator.Summary summary = table.run(in, out);
+            System.err.println(summary);
+            return summary.getErrors() == 0 ? 0 : 1;
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 2;
+        }
+    }
+    
+    /**
+     * Usage: --serve port [--threads n] [--queue n]
+     *
+     * Serves /evaluate and /stats on localhost until the process is stopped.
+     */
+    private static void runServer(String[] args) {
+        int port;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queue = 1024;
+        
+        try {
+            port = Integer.parseInt(value(args, 1));
+            for (int i = 2; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = positive(args, ++i);
+                        break;
+                    case "--queue":
+                        queue = positive(args, ++i);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: --serve port [--threads n] [--queue n]");
+            System.exit(2);
+            return;
+        }
+        
+        try {
+            EvaluationServer server = new EvaluationServer(port, threads, queue);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            server.start();
+            System.out.println("Listening on http://localhost:" + server.getPort());
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+    
+    /**
+     * Usage: --integrate expression variable from to
+     *        --solve expression variable lo hi
+     *
+     * The expression is compiled once as a function of the variable.
+     */
+    private static int runNumeric(String[] args) {
+        boolean integrate = args[0].equals("--integrate");
+        if (args.length != 5) {
+            System.err.println("Usage: " + args[0] + " expression variable " +
+                (integrate ? "from to" : "lo hi"));
+            return 2;
+        }
+        
+        try {
+            double from = Double.parseDouble(args[3]);
+            double to = Double.parseDouble(args[4]);
+            if (integrate) {
+                Integrator.Result result = Integrator.integrate(args[1], args[2], from, to);
+                System.out.println(result.getValue());
+                System.err.printf("Error estimate: %.3g, %d intervals%s\n", result.getErrorEstimate(),
+                    result.getIntervals(), result.isConverged() ? "" : " (did not converge)");
+            } else {
+                System.out.println(RootFinder.solve(args[1], args[2], from, to));
+            }
+            return 0;
+        } catch (RuntimeException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        }
+    }
+    
+    private static String value(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException(
+            "Missing value for " + args[i - 1]);
+        return args[i];
+    }
+    
+    private static int positive(String[] args, int i) {
+        int value = Integer.parseInt(value(args, i));
+        if (value <= 0) throw new IllegalArgumentException(
+            args[i - 1] + " must be positive: " + value);
+        return value;
+    }
 }
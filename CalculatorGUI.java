@@ -1,6 +1,10 @@
 package com.calculator.gui;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.geometry.*;
 import javafx.scene.*;
 import javafx.scene.chart.*;
@@ -8,16 +12,39 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+import com.calculator.core.CompiledExpression;
+import com.calculator.core.EvaluationOptions;
 import com.calculator.core.ExpressionEvaluator;
+import com.calculator.core.FunctionSampler;
+import com.calculator.core.IncrementalEvaluator;
+import com.calculator.core.TraceLevel;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class CalculatorGUI extends Application {
     
     private TextField inputField;
     private TextArea outputArea;
-    private TextArea stepsArea;
+    private ListView<String> stepsList;
     private LineChart<Number, Number> chart;
+    private TextField plotFromField;
+    private TextField plotToField;
+    private TextField plotSamplesField;
+    private Task<double[][]> plotTask;
+    
+    // Live evaluation: typing restarts the delay, and only the latest task's result is shown
+    private final PauseTransition liveDelay = new PauseTransition(Duration.millis(150));
+    private final IncrementalEvaluator liveEvaluator = new IncrementalEvaluator();
+    // A single thread, since the incremental evaluator must not be shared
+    private final ExecutorService evaluationExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "evaluation-worker");
+        t.setDaemon(true);
+        return t;
+    });
+    private Task<ExpressionEvaluator.EvaluationResult> evaluationTask;
     
     @Override
     public void start(Stage primaryStage) {
@@ -57,6 +84,8 @@ public class CalculatorGUI extends Application {
         inputField.setPromptText("Enter expression (e.g., sin(45) + 2^3 * sqrt(9))");
         inputField.setStyle("-fx-font-size: 16px; -fx-padding: 10px;");
         inputField.setOnAction(e -> evaluateExpression());
+        inputField.textProperty().addListener((observable, old, text) -> liveDelay.playFromStart());
+        liveDelay.setOnFinished(e -> evaluateExpression());
         
         HBox buttonRow = new HBox(10);
         Button evaluateBtn = new Button("Evaluate");
@@ -93,7 +122,7 @@ public class CalculatorGUI extends Application {
         outputArea.setPrefHeight(200);
         outputArea.setStyle("-fx-font-family: 'Monospace'; -fx-font-size: 14px;");
         
-        resultBox.getChildren().add(new Label("Result:"), outputArea);
+        resultBox.getChildren().addAll(new Label("Result:"), outputArea);
         resultTab.setContent(resultBox);
         
         // Steps Tab
@@ -103,13 +132,12 @@ public class CalculatorGUI extends Application {
         VBox stepsBox = new VBox(10);
         stepsBox.setPadding(new Insets(15));
         
-        stepsArea = new TextArea();
-        stepsArea.setEditable(false);
-        stepsArea.setWrapText(true);
-        stepsArea.setPrefHeight(300);
-        stepsArea.setStyle("-fx-font-family: 'Monospace'; -fx-font-size: 12px;");
+        // Virtualized, so only the visible steps of a long trace are laid out
+        stepsList = new ListView<>();
+        stepsList.setPrefHeight(300);
+        stepsList.setStyle("-fx-font-family: 'Monospace'; -fx-font-size: 12px;");
         
-        stepsBox.getChildren().add(new Label("Step-by-step:"), stepsArea);
+        stepsBox.getChildren().addAll(new Label("Step-by-step:"), stepsList);
         stepsTab.setContent(stepsBox);
         
         // Graph Tab
@@ -122,8 +150,24 @@ public class CalculatorGUI extends Application {
         chart = new LineChart<>(new NumberAxis(), new NumberAxis());
         chart.setTitle("Function Plot");
         chart.setPrefHeight(400);
-        
-        graphBox.getChildren().add(chart);
+        chart.setCreateSymbols(false);
+        chart.setAnimated(false);
+        
+        plotFromField = new TextField("-10");
+        plotToField = new TextField("10");
+        plotSamplesField = new TextField("400");
+        plotFromField.setPrefColumnCount(6);
+        plotToField.setPrefColumnCount(6);
+        plotSamplesField.setPrefColumnCount(6);
+        
+        HBox rangeRow = new HBox(8);
+        rangeRow.setAlignment(Pos.CENTER_LEFT);
+        rangeRow.getChildren().addAll(
+            new Label("x from"), plotFromField,
+            new Label("to"), plotToField,
+            new Label("samples"), plotSamplesField);
+        
+        graphBox.getChildren().addAll(rangeRow, chart);
         graphTab.setContent(graphBox);
         
         tabPane.getTabs().addAll(resultTab, stepsTab, graphTab);
@@ -207,28 +251,51 @@ public class CalculatorGUI extends Application {
     }
     
     private void evaluateExpression() {
+        liveDelay.stop();
+        if (evaluationTask != null) {
+            evaluationTask.cancel();
+        }
+        
         String expression = inputField.getText().trim();
-        if (expression.isEmpty()) return;
+        if (expression.isEmpty()) {
+            evaluationTask = null;
+            outputArea.clear();
+            stepsList.getItems().clear();
+            return;
+        }
         
-        try {
-            ExpressionEvaluator.EvaluationResult result = 
-                ExpressionEvaluator.evaluate(expression);
-            
+        Task<ExpressionEvaluator.EvaluationResult> task = new Task<>() {
+            @Override
+            protected ExpressionEvaluator.EvaluationResult call() {
+                ExpressionEvaluator.EvaluationResult result = liveEvaluator.evaluate(
+                    expression, EvaluationOptions.defaults().withTraceLevel(TraceLevel.FULL));
+                // Render the steps here rather than on the FX thread
+                result.getSteps();
+                return result;
+            }
+        };
+        
+        task.setOnSucceeded(e -> {
+            if (task != evaluationTask) return;
+            ExpressionEvaluator.EvaluationResult result = task.getValue();
             outputArea.setText(String.format(
                 "Expression: %s\n" +
                 "Result: %.8f\n" +
                 "Postfix: %s\n" +
-                "Time: %d ms\n" +
+                "Time: %.3f ms\n" +
                 "Status: ✓ Success",
-                expression, result.getResult(), result.getPostfix(), result.getTimeMs()
+                expression, result.getResult(), result.getPostfix(), result.getTimeNanos() / 1e6
             ));
-            
-            stepsArea.setText(String.join("\n", result.getSteps()));
-            
-        } catch (Exception e) {
-            outputArea.setText("Error: " + e.getMessage());
-            stepsArea.setText("");
-        }
+            stepsList.getItems().setAll(result.getSteps());
+        });
+        task.setOnFailed(e -> {
+            if (task != evaluationTask) return;
+            outputArea.setText("Error: " + task.getException().getMessage());
+            stepsList.getItems().clear();
+        });
+        
+        evaluationTask = task;
+        evaluationExecutor.execute(task);
     }
     
     private void plotFunction() {
@@ -238,28 +305,70 @@ public class CalculatorGUI extends Application {
             return;
         }
         
+        double from;
+        double to;
+        int samples;
         try {
-            chart.getData().clear();
-            XYChart.Series<Number, Number> series = new XYChart.Series<>();
-            series.setName("f(x) = " + expression);
-            
-            for (double x = -10; x <= 10; x += 0.5) {
-                String expr = expression.replace("x", String.valueOf(x));
-                double y = ExpressionEvaluator.evaluate(expr).getResult();
-                series.getData().add(new XYChart.Data<>(x, y));
+            from = Double.parseDouble(plotFromField.getText().trim());
+            to = Double.parseDouble(plotToField.getText().trim());
+            samples = Integer.parseInt(plotSamplesField.getText().trim());
+        } catch (NumberFormatException e) {
+            outputArea.setText("Plot error: invalid range or sample count");
+            return;
+        }
+        
+        // Only the latest plot matters; an older one still running is dropped
+        if (plotTask != null) {
+            plotTask.cancel();
+        }
+        int width = Math.max((int) chart.getWidth(), 400);
+        
+        Task<double[][]> task = new Task<>() {
+            @Override
+            protected double[][] call() {
+                CompiledExpression compiled = ExpressionEvaluator.compile(expression, "x");
+                double[][] points = FunctionSampler.sample(compiled, from, to, samples, this::isCancelled);
+                return FunctionSampler.downsample(points[0], points[1], width);
+            }
+        };
+        
+        task.setOnSucceeded(e -> {
+            if (task != plotTask) return;
+            double[][] points = task.getValue();
+            ObservableList<XYChart.Data<Number, Number>> data =
+                FXCollections.observableArrayList();
+            for (int i = 0; i < points[0].length; i++) {
+                data.add(new XYChart.Data<>(points[0][i], points[1][i]));
             }
             
-            chart.getData().add(series);
-            
-        } catch (Exception e) {
-            outputArea.setText("Plot error: " + e.getMessage());
-        }
+            XYChart.Series<Number, Number> series = new XYChart.Series<>(data);
+            series.setName("f(x) = " + expression);
+            chart.getData().setAll(List.of(series));
+        });
+        task.setOnFailed(e -> {
+            if (task != plotTask) return;
+            outputArea.setText("Plot error: " + task.getException().getMessage());
+        });
+        
+        plotTask = task;
+        Thread worker = new Thread(task, "plot-worker");
+        worker.setDaemon(true);
+        worker.start();
     }
     
     private void clearAll() {
+        if (plotTask != null) {
+            plotTask.cancel();
+            plotTask = null;
+        }
+        if (evaluationTask != null) {
+            evaluationTask.cancel();
+            evaluationTask = null;
+        }
         inputField.clear();
+        liveDelay.stop();
         outputArea.clear();
-        stepsArea.clear();
+        stepsList.getItems().clear();
         chart.getData().clear();
     }
     
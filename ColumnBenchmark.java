@@ -0,0 +1,90 @@
+package com.calculator.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH comparison of column evaluation with the scalar loops and with the
+ * Vector API kernels, against plain per-row evaluation.
+ *
+ * Run with {@code java -jar target/benchmarks.jar ColumnBenchmark}. The
+ * forked JVMs add the incubator module; when a JVM lacks it the vector
+ * case silently measures the scalar loops, which shows in the results as
+ * two equal rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ColumnBenchmark {
+
+    @Param({"arithmetic", "builtIns", "mixed"})
+    public String corpus;
+
+    @Param({"4096", "1048576"})
+    public int rows;
+
+    private CompiledExpression compiled;
+    private double[][] columns;
+    private double[] out;
+    private final double[] row = new double[2];
+
+    @Setup
+    public void setUp() {
+        compiled = ExpressionEvaluator.compile(expression(corpus), "x", "y");
+        SplittableRandom random = new SplittableRandom(42);
+        columns = new double[2][rows];
+        for (int i = 0; i < rows; i++) {
+            columns[0][i] = random.nextDouble(-10, 10);
+            columns[1][i] = random.nextDouble(0.1, 5);
+        }
+        out = new double[rows];
+    }
+
+    @TearDown
+    public void tearDown() {
+        VectorSupport.setEnabled(false);
+    }
+
+    static String expression(String corpus) {
+        switch (corpus) {
+            case "arithmetic":
+                return "x * y + x / (y + 2) - x * x";
+            case "builtIns":
+                return "abs(x) * sqrt(y) + max(x, y) - min(x, y)";
+            case "mixed":
+                // % and sin have no exact vector kernel and stay scalar
+                return "sqrt(y) * x + sin(x) - x % 3";
+            default:
+                throw new IllegalArgumentException("Unknown corpus: " + corpus);
+        }
+    }
+
+    @Benchmark
+    public double[] scalar() {
+        VectorSupport.setEnabled(false);
+        compiled.evaluate(columns, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] vector() {
+        VectorSupport.setEnabled(true);
+        compiled.evaluate(columns, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] perRow() {
+        for (int i = 0; i < rows; i++) {
+            row[0] = columns[0][i];
+            row[1] = columns[1][i];
+            out[i] = compiled.evaluate(row);
+        }
+        return out;
+    }
+}
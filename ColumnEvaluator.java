@@ -0,0 +1,242 @@
+package com.calculator.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a postfix program over many rows at once, column-at-a-time.
+ *
+ * Rows are processed in blocks: each stack slot holds a block of values
+ * rather than one, and each instruction is one tight loop over the block,
+ * so the opcode is decoded once per block instead of once per row and the
+ * arithmetic loops are simple enough for the JIT to vectorize. Blocks are
+ * small enough that the whole stack stays in L1 cache.
+ *
+ * Large inputs are split across the common fork/join pool. Scratch space
+ * is kept per thread, so steady-state evaluation allocates nothing.
+ * Results are bit-identical to {@link StackMachine}.
+ *
+ * When {@link VectorSupport} is enabled, the four arithmetic operators and
+ * the abs, sqrt, max and min built-ins use the SIMD {@link VectorKernels}
+ * instead of the scalar loops; the kernel class is only linked on that path.
+ */
+final class ColumnEvaluator {
+
+    static final int BLOCK = 256;
+    // Rows evaluated by one fork/join task; smaller inputs stay on the caller's thread
+    static final int LEAF_ROWS = 1 << 13;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private ColumnEvaluator() {
+    }
+
+    static void evaluate(PostfixProgram program, double[][] columns, double[] out,
+                         int from, int to) {
+        if (to - from > LEAF_ROWS) {
+            ForkJoinPool.commonPool().invoke(new Split(program, columns, out, from, to));
+        } else {
+            evaluateRange(program, columns, out, from, to);
+        }
+    }
+
+    private static void evaluateRange(PostfixProgram program, double[][] columns, double[] out,
+                                      int from, int to) {
+        Scratch scratch = SCRATCH.get();
+        if (scratch.busy) {
+            // A function called from a block evaluating columns itself
+            scratch = new Scratch();
+        }
+        scratch.busy = true;
+        try {
+            scratch.ensure(program);
+            boolean vector = VectorSupport.enabled;
+            for (int start = from; start < to; start += BLOCK) {
+                evaluateBlock(program, columns, out, start, Math.min(BLOCK, to - start), scratch,
+                    vector);
+            }
+        } finally {
+            scratch.busy = false;
+        }
+    }
+
+    private static void evaluateBlock(PostfixProgram program, double[][] columns, double[] out,
+                                      int start, int n, Scratch scratch, boolean vector) {
+        double[][] s = scratch.stack;
+        double[][] t = scratch.temps;
+        int[] code = program.code;
+        int top = 0;
+
+        for (int instruction : code) {
+            int operand = PostfixProgram.operand(instruction);
+
+            switch (PostfixProgram.opcode(instruction)) {
+                case PostfixProgram.CONST:
+                    Arrays.fill(s[top++], 0, n, program.constants[operand]);
+                    break;
+                case PostfixProgram.LOAD:
+                    System.arraycopy(columns[operand], start, s[top++], 0, n);
+                    break;
+                case PostfixProgram.CALL: {
+                    RegisteredFunction function = program.functions[operand];
+                    if (vector && callVectorized(function, s, top, n)) {
+                        top -= function.arity - 1;
+                    } else if (function.arity == 1) {
+                        double[] a = s[top - 1];
+                        for (int i = 0; i < n; i++) a[i] = function.apply(a[i]);
+                    } else if (function.arity == 2) {
+                        top--;
+                        double[] a = s[top - 1];
+                        double[] b = s[top];
+                        for (int i = 0; i < n; i++) a[i] = function.apply(a[i], b[i]);
+                    } else {
+                        top -= function.arity - 1;
+                        double[] arguments = scratch.arguments;
+                        for (int i = 0; i < n; i++) {
+                            for (int k = 0; k < function.arity; k++) {
+                                arguments[k] = s[top - 1 + k][i];
+                            }
+                            s[top - 1][i] = function.apply(arguments, 0);
+                        }
+                    }
+                    break;
+                }
+                case PostfixProgram.DUP:
+                    System.arraycopy(s[top - 1], 0, s[top], 0, n);
+                    top++;
+                    break;
+                case PostfixProgram.STORE:
+                    System.arraycopy(s[top - 1], 0, t[operand], 0, n);
+                    break;
+                case PostfixProgram.RELOAD:
+                    System.arraycopy(t[operand], 0, s[top++], 0, n);
+                    break;
+                case PostfixProgram.ADD: {
+                    top--;
+                    double[] a = s[top - 1];
+                    double[] b = s[top];
+                    if (vector) VectorKernels.add(a, b, n);
+                    else for (int i = 0; i < n; i++) a[i] += b[i];
+                    break;
+                }
+                case PostfixProgram.SUB: {
+                    top--;
+                    double[] a = s[top - 1];
+                    double[] b = s[top];
+                    if (vector) VectorKernels.sub(a, b, n);
+                    else for (int i = 0; i < n; i++) a[i] -= b[i];
+                    break;
+                }
+                case PostfixProgram.MUL: {
+                    top--;
+                    double[] a = s[top - 1];
+                    double[] b = s[top];
+                    if (vector) VectorKernels.mul(a, b, n);
+                    else for (int i = 0; i < n; i++) a[i] *= b[i];
+                    break;
+                }
+                case PostfixProgram.DIV: {
+                    top--;
+                    double[] a = s[top - 1];
+                    double[] b = s[top];
+                    if (vector) {
+                        VectorKernels.div(a, b, n);
+                        break;
+                    }
+                    // Checked in its own loop so the division loop stays branch-free
+                    for (int i = 0; i < n; i++) {
+                        if (b[i] == 0) throw new ArithmeticException("Division by zero");
+                    }
+                    for (int i = 0; i < n; i++) a[i] /= b[i];
+                    break;
+                }
+                case PostfixProgram.POW: {
+                    top--;
+                    double[] a = s[top - 1];
+                    double[] b = s[top];
+                    for (int i = 0; i < n; i++) a[i] = Math.pow(a[i], b[i]);
+                    break;
+                }
+                case PostfixProgram.MOD: {
+                    top--;
+                    double[] a = s[top - 1];
+                    double[] b = s[top];
+                    for (int i = 0; i < n; i++) a[i] %= b[i];
+                    break;
+                }
+                default:
+                    throw new IllegalStateException(
+                        "Unknown opcode: " + PostfixProgram.opcode(instruction));
+            }
+        }
+
+        System.arraycopy(s[0], 0, out, start, n);
+    }
+
+    // Built-ins with an exact SIMD kernel; anything else runs the scalar loop
+    private static boolean callVectorized(RegisteredFunction function, double[][] s, int top, int n) {
+        if (!function.isBuiltIn() || EvaluationMetrics.isEnabled()) {
+            // Function latencies are recorded per call, which only the scalar loop does
+            return false;
+        }
+        switch (function.mathMethod) {
+            case "abs": VectorKernels.abs(s[top - 1], n); return true;
+            case "sqrt": VectorKernels.sqrt(s[top - 1], n); return true;
+            case "max": VectorKernels.max(s[top - 2], s[top - 1], n); return true;
+            case "min": VectorKernels.min(s[top - 2], s[top - 1], n); return true;
+            default: return false;
+        }
+    }
+
+    private static final class Scratch {
+        double[][] stack = new double[0][];
+        double[][] temps = new double[0][];
+        double[] arguments = new double[0];
+        boolean busy;
+
+        void ensure(PostfixProgram program) {
+            if (stack.length < program.maxStack) stack = grow(stack, program.maxStack);
+            if (temps.length < program.tempCount) temps = grow(temps, program.tempCount);
+            for (RegisteredFunction function : program.functions) {
+                if (arguments.length < function.arity) arguments = new double[function.arity];
+            }
+        }
+
+        private static double[][] grow(double[][] blocks, int size) {
+            double[][] grown = Arrays.copyOf(blocks, size);
+            for (int i = blocks.length; i < size; i++) {
+                grown[i] = new double[BLOCK];
+            }
+            return grown;
+        }
+    }
+
+    private static final class Split extends RecursiveAction {
+        private final PostfixProgram program;
+        private final double[][] columns;
+        private final double[] out;
+        private final int from;
+        private final int to;
+
+        Split(PostfixProgram program, double[][] columns, double[] out, int from, int to) {
+            this.program = program;
+            this.columns = columns;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_ROWS) {
+                evaluateRange(program, columns, out, from, to);
+                return;
+            }
+            // Split on a block boundary so no block straddles two tasks
+            int mid = from + ((to - from) / 2 / BLOCK) * BLOCK;
+            invokeAll(new Split(program, columns, out, from, mid),
+                new Split(program, columns, out, mid, to));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.calculator.numerics;
+
+/**
+ * Running sum with Neumaier compensation: the low-order bits lost by each
+ * addition are collected separately and added back at the end, so the
+ * error does not grow with the number of terms.
+ */
+public final class CompensatedSum {
+
+    private double sum;
+    private double compensation;
+
+    public void add(double value) {
+        double t = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - t) + value;
+        } else {
+            compensation += (value - t) + sum;
+        }
+        sum = t;
+    }
+
+    public void add(CompensatedSum other) {
+        add(other.sum);
+        add(other.compensation);
+    }
+
+    public double sum() {
+        return sum + compensation;
+    }
+
+    public static double sum(double... values) {
+        CompensatedSum total = new CompensatedSum();
+        for (double value : values) {
+            total.add(value);
+        }
+        return total.sum();
+    }
+}
@@ -0,0 +1,200 @@
+package com.calculator.core;
+
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An expression that has been validated, tokenized and converted to postfix
+ * once, and can then be evaluated any number of times with different
+ * variable values. Instances are immutable and thread-safe.
+ */
+public final class CompiledExpression {
+
+    private final String expression;
+    private final String[] variableNames;
+    private final PostfixProgram program;
+    private final int functionVersion;
+    private final List<String> rewrites;
+
+    // Infix token offsets; token and postfix strings are built on demand
+    private final int[] tokenStarts;
+    private final int[] tokenEnds;
+    private volatile List<String> tokens;
+    private volatile String postfix;
+    private volatile ExpressionFunction bytecode;
+    private volatile PrecisionEvaluator.Prepared precise;
+
+    CompiledExpression(String expression, TokenBuffer tokens, PostfixProgram program,
+                       List<String> rewrites, String[] variableNames, int functionVersion) {
+        this(expression, Arrays.copyOf(tokens.starts, tokens.size),
+            Arrays.copyOf(tokens.ends, tokens.size), program, rewrites, variableNames,
+            functionVersion);
+    }
+
+    CompiledExpression(String expression, int[] tokenStarts, int[] tokenEnds, PostfixProgram program,
+                       List<String> rewrites, String[] variableNames, int functionVersion) {
+        this.rewrites = List.copyOf(rewrites);
+        this.expression = expression;
+        this.tokenStarts = tokenStarts;
+        this.tokenEnds = tokenEnds;
+        this.program = program;
+        this.variableNames = variableNames.clone();
+        this.functionVersion = functionVersion;
+    }
+
+    /**
+     * Evaluates the expression. Values are bound to the variable names
+     * given at compile time, in the same order.
+     */
+    public double evaluate(double... values) {
+        if (values.length != variableNames.length) {
+            throw new IllegalArgumentException("Expected " + variableNames.length +
+                " variable values but got " + values.length);
+        }
+        if (!EvaluationMetrics.isEnabled()) {
+            return StackMachine.run(program, values);
+        }
+        long start = System.nanoTime();
+        try {
+            return StackMachine.run(program, values);
+        } finally {
+            EvaluationMetrics.stage(PipelineStage.EXECUTE).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Evaluates the expression once per row, writing
+     * {@code f(columns[0][i], columns[1][i], ...)} to {@code out[i]} for
+     * every index of {@code out}. Columns follow the variable order given at
+     * compile time and must be at least as long as {@code out}.
+     *
+     * Rows are evaluated a block at a time, one operator across the whole
+     * block, and large inputs are split across cores. Nothing is allocated
+     * per call beyond the fork/join tasks. Results are identical to calling
+     * {@link #evaluate(double...)} row by row.
+     *
+     * @throws ArithmeticException if any row divides by zero; rows after
+     *         the failing block may not have been written
+     */
+    public void evaluate(double[][] columns, double[] out) {
+        if (columns.length != variableNames.length) {
+            throw new IllegalArgumentException("Expected " + variableNames.length +
+                " columns but got " + columns.length);
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].length < out.length) {
+                throw new IllegalArgumentException("Column " + variableNames[i] + " has " +
+                    columns[i].length + " rows but " + out.length + " are needed");
+            }
+        }
+        if (!EvaluationMetrics.isEnabled()) {
+            ColumnEvaluator.evaluate(program, columns, out, 0, out.length);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            ColumnEvaluator.evaluate(program, columns, out, 0, out.length);
+        } finally {
+            EvaluationMetrics.stage(PipelineStage.EXECUTE).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns this expression as a function on the given backend. The
+     * bytecode version is generated on first request and then reused.
+     */
+    public ExpressionFunction asFunction(Backend backend) {
+        if (backend == Backend.BYTECODE) {
+            ExpressionFunction function = bytecode;
+            if (function == null) {
+                function = BytecodeCompiler.compile(program);
+                if (function == null) {
+                    // Too large for one generated method
+                    function = interpreted();
+                }
+                bytecode = function;
+            }
+            return function;
+        }
+        return interpreted();
+    }
+
+    /**
+     * Evaluates to {@code context}'s precision, re-evaluating in
+     * {@code BigDecimal} when the {@code double} error bound is too wide.
+     * The unoptimized program this needs is built on first use.
+     */
+    PrecisionEvaluator.Outcome evaluate(MathContext context, double[] values) {
+        PrecisionEvaluator.Prepared prepared = precise;
+        if (prepared == null) {
+            prepared = PrecisionEvaluator.prepare(expression, variableNames);
+            precise = prepared;
+        }
+        return PrecisionEvaluator.evaluate(prepared, values, context);
+    }
+
+    private ExpressionFunction interpreted() {
+        return values -> StackMachine.run(program, values);
+    }
+
+    /**
+     * Number of expression tree nodes removed by sharing structurally
+     * identical subexpressions, each of which is now computed once.
+     */
+    public int getDeduplicatedNodeCount() { return program.deduplicatedNodes; }
+
+    public String getExpression() { return expression; }
+    public String[] getVariableNames() { return variableNames.clone(); }
+
+    public String getPostfix() {
+        String result = postfix;
+        if (result == null) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < program.code.length; i++) {
+                if (i > 0) sb.append(' ');
+                sb.append(program.token(i));
+            }
+            result = sb.toString();
+            postfix = result;
+        }
+        return result;
+    }
+
+    List<String> getTokens() {
+        List<String> result = tokens;
+        if (result == null) {
+            List<String> texts = new ArrayList<>(tokenStarts.length);
+            for (int i = 0; i < tokenStarts.length; i++) {
+                texts.add(expression.substring(tokenStarts[i], tokenEnds[i]));
+            }
+            result = Collections.unmodifiableList(texts);
+            tokens = result;
+        }
+        return result;
+    }
+
+    /** Optimizer rewrites applied to this expression, in order. */
+    List<String> getRewrites() { return rewrites; }
+
+    int getTokenCount() { return tokenStarts.length; }
+    int getTokenStart(int i) { return tokenStarts[i]; }
+    int getTokenEnd(int i) { return tokenEnds[i]; }
+    PostfixProgram getProgram() { return program; }
+
+    /**
+     * True when a function has been registered since this expression was
+     * compiled, so names in it may now resolve differently.
+     */
+    boolean isStale() {
+        return functionVersion != ExpressionEvaluator.functionVersion();
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledExpression[" + expression + " | vars=" +
+            Arrays.toString(variableNames) + "]";
+    }
+}
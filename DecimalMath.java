@@ -0,0 +1,300 @@
+package com.calculator.core;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * {@code BigDecimal} versions of the built-in functions, for the decimal
+ * path of {@link PrecisionEvaluator}. Results are within a unit or two of
+ * the last digit of the requested precision, so callers ask for guard
+ * digits beyond what they keep.
+ *
+ * Series converge quickly because arguments are reduced first: exp halves
+ * its argument below 1/2 and squares back, ln splits off a power of ten
+ * and refines the double estimate by Newton's method, and the
+ * trigonometric functions reduce modulo π/2 with π to enough digits that
+ * the remainder keeps its relative precision even next to a multiple of π.
+ */
+final class DecimalMath {
+
+    // Digits carried inside each function beyond the precision asked for
+    private static final int GUARD = 5;
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final BigInteger FOUR = BigInteger.valueOf(4);
+    // e^x beyond this has a decimal exponent BigDecimal cannot hold
+    private static final BigDecimal EXP_LIMIT = BigDecimal.valueOf(1_000_000_000L);
+    private static final BigDecimal ROOT_TEN = new BigDecimal("3.1622776601683793");
+    // Each step triples the digits, so this covers any precision
+    private static final int MAX_NEWTON_STEPS = 32;
+
+    // Most precise values computed so far, rounded down for smaller requests
+    private static volatile BigDecimal pi = new BigDecimal("3.14159265358979323846264338327950288");
+    private static volatile BigDecimal ln10 = new BigDecimal("2.30258509299404568401799145468436421");
+
+    private DecimalMath() {
+    }
+
+    /**
+     * {@code function} of the arguments starting at {@code from}, or null if
+     * it has no decimal implementation, as for registered functions.
+     */
+    static BigDecimal apply(RegisteredFunction function, BigDecimal[] arguments, int from,
+                            MathContext context) {
+        if (!function.isBuiltIn()) return null;
+        BigDecimal a = arguments[from];
+        BigDecimal b = function.arity > 1 ? arguments[from + 1] : null;
+        MathContext work = extend(context, GUARD);
+        switch (function.mathMethod) {
+            case "sqrt":
+                if (a.signum() < 0) throw new ArithmeticException("Result is not a finite number: NaN");
+                return a.sqrt(context);
+            case "exp": return exp(a, context);
+            case "log": return ln(a, context);
+            case "log10":
+                // Exact for powers of ten, as Math.log10 is
+                if (a.signum() > 0 && a.unscaledValue().abs().equals(BigInteger.ONE)) {
+                    return BigDecimal.valueOf(digits(a));
+                }
+                return ln(a, work).divide(ln10(work), context);
+            case "abs": return a.abs();
+            case "ceil": return a.setScale(0, RoundingMode.CEILING);
+            case "floor": return a.setScale(0, RoundingMode.FLOOR);
+            case "max": return a.max(b);
+            case "min": return a.min(b);
+            case "hypot": return a.multiply(a).add(b.multiply(b)).sqrt(context);
+            case "sin": return sin(a, context);
+            case "cos": return cos(a, context);
+            case "tan": return sin(a, work).divide(cos(a, work), context);
+            case "toRadians": return a.multiply(pi(work)).divide(BigDecimal.valueOf(180), context);
+            case "toDegrees": return a.multiply(BigDecimal.valueOf(180)).divide(pi(work), context);
+            case "atan2": return atan2(a, b, context);
+            default: return null;
+        }
+    }
+
+    /** {@code a^b} for any exponent; integer exponents are better served by {@link BigDecimal#pow}. */
+    static BigDecimal pow(BigDecimal a, BigDecimal b, MathContext context) {
+        if (a.signum() == 0) {
+            if (b.signum() < 0) throw new ArithmeticException("Result is not a finite number: Infinity");
+            return b.signum() == 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+        }
+        boolean negative = false;
+        if (a.signum() < 0) {
+            if (!isInteger(b)) throw new ArithmeticException("Result is not a finite number: NaN");
+            negative = b.toBigIntegerExact().testBit(0);
+            a = a.negate();
+        }
+        // The exponent's integer digits scale the logarithm's error up
+        MathContext work = extend(context, GUARD + Math.max(0, digits(b)) + 3);
+        BigDecimal result = exp(b.multiply(ln(a, work), work), context);
+        return negative ? result.negate() : result;
+    }
+
+    static BigDecimal exp(BigDecimal x, MathContext context) {
+        if (x.signum() == 0) return BigDecimal.ONE;
+        if (x.abs().compareTo(EXP_LIMIT) > 0) {
+            throw new ArithmeticException("Result is not a finite number: exp(" + x + ")");
+        }
+        if (x.signum() < 0) {
+            MathContext work = extend(context, GUARD);
+            return BigDecimal.ONE.divide(exp(x.negate(), work), context);
+        }
+        // e^x = (e^(x / 2^k))^(2^k); every squaring doubles the relative error
+        double magnitude = x.doubleValue();
+        int k = magnitude > 0.5 ? Math.getExponent(magnitude) + 2 : 0;
+        MathContext work = extend(context, GUARD + k * 3 / 10 + 1);
+        BigDecimal r = k == 0 ? x : x.divide(TWO.pow(k), work);
+
+        BigDecimal sum = BigDecimal.ONE;
+        BigDecimal term = BigDecimal.ONE;
+        BigDecimal tolerance = BigDecimal.ONE.movePointLeft(work.getPrecision() + 1);
+        for (int n = 1; term.compareTo(tolerance) > 0; n++) {
+            term = term.multiply(r).divide(BigDecimal.valueOf(n), work);
+            sum = sum.add(term, work);
+        }
+        for (int i = 0; i < k; i++) {
+            sum = sum.multiply(sum, work);
+        }
+        return sum.round(context);
+    }
+
+    static BigDecimal ln(BigDecimal x, MathContext context) {
+        if (x.signum() <= 0) {
+            throw new ArithmeticException("Result is not a finite number: ln(" + x + ")");
+        }
+        // x = m × 10^n with m within a factor √10 of 1, so adding n ln 10 cancels nothing
+        int n = x.precision() - x.scale() - 1;
+        BigDecimal m = x.movePointLeft(n);
+        if (m.compareTo(ROOT_TEN) > 0) {
+            m = m.movePointLeft(1);
+            n++;
+        }
+        if (m.compareTo(BigDecimal.ONE) == 0) {
+            return n == 0 ? BigDecimal.ZERO : ln10(extend(context, GUARD))
+                .multiply(BigDecimal.valueOf(n), context);
+        }
+        // ln m is about m - 1 near 1, whose leading zeros must be computed as well
+        MathContext work = extend(context, GUARD + Math.max(0, -digits(m.subtract(BigDecimal.ONE))));
+        // e^y is itself only good to the last digit or so, so stop a digit short of that
+        BigDecimal tolerance = BigDecimal.ONE.movePointLeft(work.getPrecision() - 1);
+        // y += 2 (m - e^y) / (m + e^y), cubically convergent, from the double estimate
+        BigDecimal y = new BigDecimal(Math.log(m.doubleValue()));
+        for (int i = 0; i < MAX_NEWTON_STEPS; i++) {
+            BigDecimal e = exp(y, work);
+            BigDecimal step = TWO.multiply(m.subtract(e)).divide(m.add(e), work);
+            y = y.add(step, work);
+            if (step.abs().compareTo(tolerance) <= 0) break;
+        }
+        if (n != 0) {
+            y = y.add(ln10(work).multiply(BigDecimal.valueOf(n)), work);
+        }
+        return y.round(context);
+    }
+
+    static BigDecimal sin(BigDecimal x, MathContext context) {
+        BigDecimal[] reduced = reduce(x, context);
+        switch (reduced[0].intValue()) {
+            case 0: return sinSeries(reduced[1], context);
+            case 1: return cosSeries(reduced[1], context);
+            case 2: return sinSeries(reduced[1], context).negate();
+            default: return cosSeries(reduced[1], context).negate();
+        }
+    }
+
+    static BigDecimal cos(BigDecimal x, MathContext context) {
+        BigDecimal[] reduced = reduce(x, context);
+        switch (reduced[0].intValue()) {
+            case 0: return cosSeries(reduced[1], context);
+            case 1: return sinSeries(reduced[1], context).negate();
+            case 2: return cosSeries(reduced[1], context).negate();
+            default: return sinSeries(reduced[1], context);
+        }
+    }
+
+    /**
+     * {x mod 4, r} with {@code x = q π/2 + r} and |r| at most π/4. π is
+     * taken to the digits of q plus however many leading digits cancel in r.
+     */
+    private static BigDecimal[] reduce(BigDecimal x, MathContext context) {
+        int magnitude = Math.max(0, digits(x)) + 2;
+        int lost = 0;
+        while (true) {
+            MathContext work = extend(context, GUARD + magnitude + lost);
+            BigDecimal halfPi = pi(work).divide(TWO, work);
+            BigDecimal q = x.divide(halfPi, 0, RoundingMode.HALF_EVEN);
+            BigDecimal r = x.subtract(q.multiply(halfPi), work);
+            int cancelled = Math.max(0, -digits(r));
+            if (r.signum() == 0 || cancelled <= lost) {
+                return new BigDecimal[] {new BigDecimal(q.toBigInteger().mod(FOUR)), r};
+            }
+            lost = cancelled;
+        }
+    }
+
+    private static BigDecimal sinSeries(BigDecimal r, MathContext context) {
+        MathContext work = extend(context, GUARD);
+        BigDecimal square = r.multiply(r, work);
+        BigDecimal term = r;
+        BigDecimal sum = r;
+        for (int n = 1; term.signum() != 0 && term.abs().compareTo(
+                sum.abs().movePointLeft(work.getPrecision() + 1)) > 0; n++) {
+            term = term.multiply(square).divide(BigDecimal.valueOf((2L * n) * (2L * n + 1)), work).negate();
+            sum = sum.add(term, work);
+        }
+        return sum.round(context);
+    }
+
+    private static BigDecimal cosSeries(BigDecimal r, MathContext context) {
+        MathContext work = extend(context, GUARD);
+        BigDecimal square = r.multiply(r, work);
+        BigDecimal term = BigDecimal.ONE;
+        BigDecimal sum = BigDecimal.ONE;
+        BigDecimal tolerance = BigDecimal.ONE.movePointLeft(work.getPrecision() + 1);
+        for (int n = 1; term.abs().compareTo(tolerance) > 0; n++) {
+            term = term.multiply(square).divide(BigDecimal.valueOf((2L * n - 1) * (2L * n)), work).negate();
+            sum = sum.add(term, work);
+        }
+        return sum.round(context);
+    }
+
+    // Same quadrants as Math.atan2; the sign of a zero is lost in BigDecimal
+    static BigDecimal atan2(BigDecimal y, BigDecimal x, MathContext context) {
+        MathContext work = extend(context, GUARD);
+        if (x.signum() == 0) {
+            if (y.signum() == 0) return BigDecimal.ZERO;
+            BigDecimal halfPi = pi(work).divide(TWO, context);
+            return y.signum() > 0 ? halfPi : halfPi.negate();
+        }
+        BigDecimal angle = atan(y.divide(x, work), work);
+        if (x.signum() > 0) return angle.round(context);
+        return y.signum() >= 0 ? angle.add(pi(work), context) : angle.subtract(pi(work), context);
+    }
+
+    private static BigDecimal atan(BigDecimal z, MathContext context) {
+        MathContext work = extend(context, GUARD);
+        if (z.abs().compareTo(BigDecimal.ONE) > 0) {
+            // atan z = ±π/2 - atan(1/z)
+            BigDecimal halfPi = pi(work).divide(TWO, work);
+            BigDecimal rest = atan(BigDecimal.ONE.divide(z, work), work);
+            return (z.signum() > 0 ? halfPi : halfPi.negate()).subtract(rest, context);
+        }
+        // Halve the angle twice, atan z = 2 atan(z / (1 + √(1 + z²))), so the series converges fast
+        for (int i = 0; i < 2; i++) {
+            z = z.divide(BigDecimal.ONE.add(BigDecimal.ONE.add(z.multiply(z)).sqrt(work)), work);
+        }
+        return atanSeries(z, work).multiply(BigDecimal.valueOf(4), context);
+    }
+
+    // z - z³/3 + z⁵/5 - ..., for small |z|
+    private static BigDecimal atanSeries(BigDecimal z, MathContext work) {
+        BigDecimal square = z.multiply(z, work);
+        BigDecimal power = z;
+        BigDecimal sum = z;
+        for (int n = 1; power.signum() != 0; n++) {
+            power = power.multiply(square, work).negate();
+            BigDecimal term = power.divide(BigDecimal.valueOf(2L * n + 1), work);
+            if (term.abs().compareTo(sum.abs().movePointLeft(work.getPrecision() + 1)) <= 0) break;
+            sum = sum.add(term, work);
+        }
+        return sum;
+    }
+
+    static BigDecimal pi(MathContext context) {
+        BigDecimal known = pi;
+        if (known.precision() >= context.getPrecision() + 2) return known.round(context);
+        // Machin: π = 16 atan(1/5) - 4 atan(1/239)
+        MathContext work = extend(context, GUARD);
+        BigDecimal value = atanSeries(BigDecimal.ONE.divide(BigDecimal.valueOf(5), work), work)
+            .multiply(BigDecimal.valueOf(16))
+            .subtract(atanSeries(BigDecimal.ONE.divide(BigDecimal.valueOf(239), work), work)
+                .multiply(BigDecimal.valueOf(4)), work);
+        pi = value;
+        return value.round(context);
+    }
+
+    private static BigDecimal ln10(MathContext context) {
+        BigDecimal known = ln10;
+        if (known.precision() >= context.getPrecision() + 2) return known.round(context);
+        // ln 10 = 3 ln 2 + ln 1.25, both near enough to 1 for Newton's start
+        MathContext work = extend(context, GUARD);
+        BigDecimal value = ln(TWO, work).multiply(BigDecimal.valueOf(3))
+            .add(ln(new BigDecimal("1.25"), work), work);
+        ln10 = value;
+        return value.round(context);
+    }
+
+    // Decimal exponent of the leading digit: 2 for 123.4, -3 for 0.00123
+    private static int digits(BigDecimal value) {
+        return value.signum() == 0 ? 0 : value.precision() - value.scale() - 1;
+    }
+
+    private static boolean isInteger(BigDecimal value) {
+        return value.signum() == 0 || value.stripTrailingZeros().scale() <= 0;
+    }
+
+    private static MathContext extend(MathContext context, int digits) {
+        return new MathContext(context.getPrecision() + digits, context.getRoundingMode());
+    }
+}
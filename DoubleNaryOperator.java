@@ -0,0 +1,12 @@
+package com.calculator.core;
+
+/**
+ * A function of a fixed number of {@code double} arguments, for functions
+ * that take more than two. The argument array is reused between calls, so
+ * it must not be kept or changed.
+ */
+@FunctionalInterface
+public interface DoubleNaryOperator {
+    
+    double applyAsDouble(double[] arguments);
+}
@@ -0,0 +1,197 @@
+package com.calculator.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.management.ObjectName;
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Process-wide evaluation metrics: a latency histogram per pipeline stage
+ * and per function, plus evaluation and error counters.
+ *
+ * Collection is off by default and costs one volatile read per evaluation
+ * (and per function call) while off. Turn it on with
+ * {@link #setEnabled(boolean)} or {@code -Dcalculator.metrics=true}; the
+ * first time it is enabled the metrics are also registered with JMX.
+ *
+ * Flight Recorder {@link StageEvent}s are independent of this switch and
+ * are emitted whenever a recording has them enabled.
+ */
+public final class EvaluationMetrics {
+
+    private static volatile boolean enabled;
+    private static boolean registered;
+
+    private static final Map<PipelineStage, LatencyHistogram> STAGES = new EnumMap<>(PipelineStage.class);
+    private static final ConcurrentHashMap<String, LatencyHistogram> FUNCTIONS = new ConcurrentHashMap<>();
+    private static final LongAdder EVALUATIONS = new LongAdder();
+    private static final LongAdder ERRORS = new LongAdder();
+    private static final LongAdder BOUNDED = new LongAdder();
+    private static final LongAdder DECIMAL_FALLBACKS = new LongAdder();
+    private static final PipelineStage[] STAGE_VALUES = PipelineStage.values();
+
+    static {
+        for (PipelineStage stage : STAGE_VALUES) {
+            STAGES.put(stage, new LatencyHistogram());
+        }
+        if (Boolean.getBoolean("calculator.metrics")) {
+            setEnabled(true);
+        }
+    }
+
+    private EvaluationMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static synchronized void setEnabled(boolean on) {
+        enabled = on;
+        if (on && !registered) {
+            registered = true;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(),
+                    new ObjectName("com.calculator:type=EvaluationMetrics"));
+            } catch (Exception | LinkageError e) {
+                // No JMX in this runtime; the Java API still works
+            }
+        }
+    }
+
+    public static LatencyHistogram stage(PipelineStage stage) {
+        return STAGES.get(stage);
+    }
+
+    /** Call latencies of every function called while enabled, by name. */
+    public static Map<String, LatencyHistogram> functions() {
+        return Collections.unmodifiableMap(FUNCTIONS);
+    }
+
+    public static long getEvaluationCount() {
+        return EVALUATIONS.sum();
+    }
+
+    public static long getErrorCount() {
+        return ERRORS.sum();
+    }
+
+    /** Precision-mode evaluations whose {@code double} error bound was tight enough. */
+    public static long getBoundedCount() {
+        return BOUNDED.sum();
+    }
+
+    /** Precision-mode evaluations that fell back to {@code BigDecimal}. */
+    public static long getDecimalFallbackCount() {
+        return DECIMAL_FALLBACKS.sum();
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : STAGES.values()) histogram.reset();
+        for (LatencyHistogram histogram : FUNCTIONS.values()) histogram.reset();
+        EVALUATIONS.reset();
+        ERRORS.reset();
+        BOUNDED.reset();
+        DECIMAL_FALLBACKS.reset();
+    }
+
+    /** Histogram for calls to {@code name}; looked up once per registered function. */
+    static LatencyHistogram function(String name) {
+        return FUNCTIONS.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    static void recordEvaluation(boolean failed) {
+        if (enabled) {
+            EVALUATIONS.increment();
+            if (failed) ERRORS.increment();
+        }
+    }
+
+    static void recordPrecisionPath(PrecisionPath path) {
+        if (enabled) {
+            (path == PrecisionPath.DOUBLE_BOUNDED ? BOUNDED : DECIMAL_FALLBACKS).increment();
+        }
+    }
+
+    /**
+     * Records stage timings indexed by stage ordinal. Stages that did not
+     * run are zero and are skipped.
+     */
+    static void recordStages(long[] stageNanos, String expression) {
+        if (enabled) {
+            for (int i = 0; i < stageNanos.length; i++) {
+                if (stageNanos[i] > 0) STAGES.get(STAGE_VALUES[i]).record(stageNanos[i]);
+            }
+        }
+
+        // Creating the first event initializes JFR, which costs a short CLI run
+        // most of its startup; no event can be enabled before a recording starts
+        if (FlightRecorder.isInitialized() && new StageEvent().isEnabled()) {
+            for (int i = 0; i < stageNanos.length; i++) {
+                if (stageNanos[i] == 0) continue;
+                StageEvent event = new StageEvent();
+                event.stage = STAGE_VALUES[i].name();
+                event.stageDuration = stageNanos[i];
+                event.expression = expression;
+                event.commit();
+            }
+        }
+    }
+
+    private static final class Bean implements EvaluationMetricsMXBean {
+
+        @Override public boolean isEnabled() { return EvaluationMetrics.isEnabled(); }
+        @Override public void setEnabled(boolean on) { EvaluationMetrics.setEnabled(on); }
+        @Override public long getEvaluationCount() { return EvaluationMetrics.getEvaluationCount(); }
+        @Override public long getErrorCount() { return EvaluationMetrics.getErrorCount(); }
+        @Override public long getBoundedCount() { return EvaluationMetrics.getBoundedCount(); }
+        @Override public long getDecimalFallbackCount() { return EvaluationMetrics.getDecimalFallbackCount(); }
+        @Override public void reset() { EvaluationMetrics.reset(); }
+
+        @Override
+        public Map<String, Long> getStageCounts() {
+            return stages(LatencyHistogram::getCount);
+        }
+
+        @Override
+        public Map<String, Long> getStageP50Nanos() {
+            return stages(h -> h.percentile(50));
+        }
+
+        @Override
+        public Map<String, Long> getStageP99Nanos() {
+            return stages(h -> h.percentile(99));
+        }
+
+        @Override
+        public Map<String, Long> getFunctionCallCounts() {
+            return functions(LatencyHistogram::getCount);
+        }
+
+        @Override
+        public Map<String, Long> getFunctionP99Nanos() {
+            return functions(h -> h.percentile(99));
+        }
+
+        private static Map<String, Long> stages(ToLongFunction<LatencyHistogram> value) {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (PipelineStage stage : STAGE_VALUES) {
+                map.put(stage.name(), value.applyAsLong(STAGES.get(stage)));
+            }
+            return map;
+        }
+
+        private static Map<String, Long> functions(ToLongFunction<LatencyHistogram> value) {
+            Map<String, Long> map = new TreeMap<>();
+            FUNCTIONS.forEach((name, histogram) -> map.put(name, value.applyAsLong(histogram)));
+            return map;
+        }
+    }
+}
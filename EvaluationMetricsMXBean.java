@@ -0,0 +1,35 @@
+package com.calculator.core;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link EvaluationMetrics}, registered as
+ * {@code com.calculator:type=EvaluationMetrics}. Durations are in
+ * nanoseconds; maps are keyed by stage or function name.
+ */
+public interface EvaluationMetricsMXBean {
+    
+    boolean isEnabled();
+    
+    void setEnabled(boolean enabled);
+    
+    long getEvaluationCount();
+    
+    long getErrorCount();
+    
+    long getBoundedCount();
+    
+    long getDecimalFallbackCount();
+    
+    Map<String, Long> getStageCounts();
+    
+    Map<String, Long> getStageP50Nanos();
+    
+    Map<String, Long> getStageP99Nanos();
+    
+    Map<String, Long> getFunctionCallCounts();
+    
+    Map<String, Long> getFunctionP99Nanos();
+    
+    void reset();
+}
@@ -0,0 +1,77 @@
+package com.calculator.core;
+
+import java.math.MathContext;
+import java.util.Objects;
+
+/**
+ * Per-call settings for {@link ExpressionEvaluator#evaluate(String, EvaluationOptions)}.
+ * Instances are immutable; the {@code with} methods return modified copies.
+ */
+public final class EvaluationOptions {
+    
+    private static final EvaluationOptions DEFAULTS =
+        new EvaluationOptions(TraceLevel.NONE, Backend.INTERPRETER, null, null);
+    
+    private final TraceLevel traceLevel;
+    private final Backend backend;
+    private final MathContext mathContext;
+    private final ParseCache parseCache;
+    
+    private EvaluationOptions(TraceLevel traceLevel, Backend backend, MathContext mathContext,
+                              ParseCache parseCache) {
+        this.traceLevel = traceLevel;
+        this.backend = backend;
+        this.mathContext = mathContext;
+        this.parseCache = parseCache;
+    }
+    
+    /** No tracing, interpreted. */
+    public static EvaluationOptions defaults() {
+        return DEFAULTS;
+    }
+    
+    public EvaluationOptions withTraceLevel(TraceLevel traceLevel) {
+        return new EvaluationOptions(Objects.requireNonNull(traceLevel, "traceLevel"), backend,
+            mathContext, parseCache);
+    }
+    
+    /**
+     * Selects the execution backend. A {@link TraceLevel#FULL} trace always
+     * runs on the interpreter, since it records every stack operation.
+     */
+    public EvaluationOptions withBackend(Backend backend) {
+        return new EvaluationOptions(traceLevel, Objects.requireNonNull(backend, "backend"),
+            mathContext, parseCache);
+    }
+    
+    /**
+     * Requests a result correct to {@code mathContext}'s precision and
+     * rounding. The expression runs in {@code double} with an error bound
+     * and is re-evaluated in {@code BigDecimal} only when the bound cannot
+     * guarantee the digits; {@code null} turns this off. The chosen path is
+     * reported by {@link ExpressionEvaluator.EvaluationResult#getPrecisionPath()}.
+     * Precision {@code 0} (unlimited) is rejected, since most decimal
+     * quotients do not terminate.
+     */
+    public EvaluationOptions withMathContext(MathContext mathContext) {
+        if (mathContext != null && mathContext.getPrecision() == 0) {
+            throw new IllegalArgumentException("MathContext precision must be positive");
+        }
+        return new EvaluationOptions(traceLevel, backend, mathContext, parseCache);
+    }
+    
+    /**
+     * Compiles through {@code parseCache} instead of the shared one set by
+     * {@link ExpressionEvaluator#setParseCache}, e.g. {@link ParseCache#none()}
+     * for a stream of one-off expressions that would only evict everyone
+     * else's entries; {@code null} goes back to the shared cache.
+     */
+    public EvaluationOptions withParseCache(ParseCache parseCache) {
+        return new EvaluationOptions(traceLevel, backend, mathContext, parseCache);
+    }
+    
+    public TraceLevel getTraceLevel() { return traceLevel; }
+    public Backend getBackend() { return backend; }
+    public MathContext getMathContext() { return mathContext; }
+    public ParseCache getParseCache() { return parseCache; }
+}
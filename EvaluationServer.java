@@ -0,0 +1,310 @@
+package com.calculator;
+
+import com.calculator.core.Backend;
+import com.calculator.core.CompiledExpression;
+import com.calculator.core.ExpressionEvaluator;
+import com.calculator.core.ExpressionFunction;
+import com.calculator.core.LatencyHistogram;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local HTTP server for evaluating expressions, bound to the loopback
+ * interface.
+ *
+ * <pre>
+ * POST /evaluate {"expression": "2 + 3"}
+ *   → {"result":5.0}
+ * POST /evaluate {"expression": "x * y", "variables": ["x", "y"], "bindings": [[1, 2], [3, 4]]}
+ *   → {"results":[2.0,12.0]}
+ * POST /evaluate {"expressions": ["1 + 1", "2 *"]}
+ *   → {"results":[2.0,{"error":"..."}]}
+ * GET  /stats
+ *   → {"requests":..,"errors":..,"rejected":..,"queueDepth":..,"activeWorkers":..,
+ *      "latencyMicros":{"p50":..,"p90":..,"p99":..,"p999":..}}
+ * </pre>
+ *
+ * The HTTP threads only read and parse requests. Evaluation is handed to a
+ * fixed worker pool with a bounded queue, and the worker that evaluates a
+ * request also sends its response, so HTTP threads never wait on
+ * evaluation; when the queue is full the request is answered with 503
+ * rather than waiting. {@code /stats} has a thread of its own and answers
+ * however busy the workers are. Expressions are compiled through the
+ * evaluator's parse cache, so the same expression sent again is not parsed
+ * again.
+ */
+public final class EvaluationServer {
+
+    private static final int MAX_BODY_BYTES = 1 << 20;
+
+    private final HttpServer server;
+    private final ExecutorService io;
+    private final ExecutorService stats;
+    private final ThreadPoolExecutor workers;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public EvaluationServer(int port, int threads, int queueCapacity) throws IOException {
+        if (threads <= 0) throw new IllegalArgumentException(
+            "threads must be positive: " + threads);
+        if (queueCapacity <= 0) throw new IllegalArgumentException(
+            "queueCapacity must be positive: " + queueCapacity);
+
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), daemon("evaluation-worker"));
+        this.io = Executors.newFixedThreadPool(Math.max(2, threads), daemon("http"));
+        this.stats = Executors.newSingleThreadExecutor(daemon("http-stats"));
+        this.server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(io);
+        server.createContext("/evaluate", this::handleEvaluate);
+        server.createContext("/stats", exchange -> stats.execute(() -> handleStats(exchange)));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+        stats.shutdownNow();
+        io.shutdownNow();
+    }
+
+    /** The bound port, useful when the server was created with port 0. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    private void handleEvaluate(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        requests.increment();
+        boolean handedOff = false;
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, error("Use POST"));
+                return;
+            }
+
+            Object request;
+            try {
+                request = Json.parse(readBody(exchange));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            if (!(request instanceof Map)) {
+                respond(exchange, 400, error("Request must be a JSON object"));
+                return;
+            }
+
+            try {
+                workers.execute(() -> complete(exchange, (Map<?, ?>) request, start));
+                handedOff = true;
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                respond(exchange, 503, error("Server busy"));
+            }
+        } finally {
+            // Once handed off, the worker answers and closes the exchange
+            if (!handedOff) {
+                latency.record(System.nanoTime() - start);
+                exchange.close();
+            }
+        }
+    }
+
+    /** Runs on a worker thread: evaluates, then answers and closes the exchange. */
+    private void complete(HttpExchange exchange, Map<?, ?> request, long start) {
+        try {
+            String body;
+            int status = 200;
+            try {
+                body = evaluate(request);
+            } catch (RuntimeException e) {
+                status = 400;
+                body = error(e.getMessage() == null ? e.toString() : e.getMessage());
+            }
+            respond(exchange, status, body);
+        } catch (IOException e) {
+            // The client went away; there is nobody left to tell
+        } finally {
+            latency.record(System.nanoTime() - start);
+            exchange.close();
+        }
+    }
+
+    /** Runs on the stats thread. */
+    private void handleStats(HttpExchange exchange) {
+        try {
+            StringBuilder sb = new StringBuilder("{");
+            sb.append("\"requests\":").append(requests.sum());
+            sb.append(",\"errors\":").append(errors.sum());
+            sb.append(",\"rejected\":").append(rejected.sum());
+            sb.append(",\"queueDepth\":").append(getQueueDepth());
+            sb.append(",\"activeWorkers\":").append(workers.getActiveCount());
+            sb.append(",\"latencyMicros\":{");
+            sb.append("\"p50\":").append(latency.percentile(50) / 1000);
+            sb.append(",\"p90\":").append(latency.percentile(90) / 1000);
+            sb.append(",\"p99\":").append(latency.percentile(99) / 1000);
+            sb.append(",\"p999\":").append(latency.percentile(99.9) / 1000);
+            sb.append("}}");
+            respond(exchange, 200, sb.toString());
+        } catch (IOException e) {
+            // The client went away
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Runs on a worker thread. Bad requests throw IllegalArgumentException. */
+    private String evaluate(Map<?, ?> request) {
+        Object expressions = request.get("expressions");
+        if (expressions != null) {
+            if (!(expressions instanceof List)) throw new IllegalArgumentException(
+                "\"expressions\" must be an array");
+            StringBuilder sb = new StringBuilder("{\"results\":[");
+            List<?> list = (List<?>) expressions;
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) sb.append(',');
+                try {
+                    if (!(list.get(i) instanceof String)) throw new IllegalArgumentException(
+                        "Expression must be a string");
+                    sb.append(Json.number(ExpressionEvaluator.evaluate((String) list.get(i)).getResult()));
+                } catch (RuntimeException e) {
+                    errors.increment();
+                    sb.append("{\"error\":").append(Json.string(String.valueOf(e.getMessage()))).append('}');
+                }
+            }
+            return sb.append("]}").toString();
+        }
+
+        Object expression = request.get("expression");
+        if (!(expression instanceof String)) throw new IllegalArgumentException(
+            "Request needs \"expression\" or \"expressions\"");
+
+        Object bindings = request.get("bindings");
+        if (bindings == null) {
+            try {
+                double value = ExpressionEvaluator.evaluate((String) expression).getResult();
+                return "{\"result\":" + Json.number(value) + "}";
+            } catch (RuntimeException e) {
+                errors.increment();
+                throw e;
+            }
+        }
+
+        String[] variables = strings(request.get("variables"));
+        if (!(bindings instanceof List)) throw new IllegalArgumentException(
+            "\"bindings\" must be an array of arrays");
+        CompiledExpression compiled;
+        try {
+            compiled = ExpressionEvaluator.compile((String) expression, variables);
+        } catch (RuntimeException e) {
+            errors.increment();
+            throw e;
+        }
+        ExpressionFunction function = compiled.asFunction(Backend.BYTECODE);
+
+        StringBuilder sb = new StringBuilder("{\"results\":[");
+        double[] values = new double[variables.length];
+        List<?> rows = (List<?>) bindings;
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) sb.append(',');
+            try {
+                bind(rows.get(i), values);
+                sb.append(Json.number(function.applyAsDouble(values)));
+            } catch (RuntimeException e) {
+                errors.increment();
+                sb.append("{\"error\":").append(Json.string(String.valueOf(e.getMessage()))).append('}');
+            }
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static String[] strings(Object value) {
+        if (value == null) return new String[0];
+        if (!(value instanceof List)) throw new IllegalArgumentException(
+            "\"variables\" must be an array of names");
+        List<?> list = (List<?>) value;
+        String[] names = new String[list.size()];
+        for (int i = 0; i < names.length; i++) {
+            if (!(list.get(i) instanceof String)) throw new IllegalArgumentException(
+                "\"variables\" must be an array of names");
+            names[i] = (String) list.get(i);
+        }
+        return names;
+    }
+
+    private static void bind(Object row, double[] values) {
+        if (!(row instanceof List) || ((List<?>) row).size() != values.length) {
+            throw new IllegalArgumentException("Expected " + values.length + " values");
+        }
+        List<?> list = (List<?>) row;
+        for (int i = 0; i < values.length; i++) {
+            if (!(list.get(i) instanceof Double)) throw new IllegalArgumentException(
+                "Values must be numbers");
+            values[i] = (Double) list.get(i);
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body too large");
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Json.string(String.valueOf(message)) + "}";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.calculator.core;
 
+import java.math.BigDecimal;
 import java.util.*;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 
 /**
@@ -8,109 +11,333 @@ import java.util.function.Function;
  */
 public class ExpressionEvaluator {
     
-    private static final Map<String, Function<Double, Double>> FUNCTIONS = 
-        new HashMap<>();
-    
     private static final Map<String, Integer> PRECEDENCE = Map.of(
         "+", 1, "-", 1, "*", 2, "/", 2, "^", 3, "%", 2
     );
     
-    static {
-        // Basic math functions
-        FUNCTIONS.put("sin", Math::sin);
-        FUNCTIONS.put("cos", Math::cos);
-        FUNCTIONS.put("tan", Math::tan);
-        FUNCTIONS.put("log", Math::log10);
-        FUNCTIONS.put("ln", Math::log);
-        FUNCTIONS.put("sqrt", Math::sqrt);
-        FUNCTIONS.put("abs", Math::abs);
-        FUNCTIONS.put("exp", Math::exp);
-        FUNCTIONS.put("ceil", Math::ceil);
-        FUNCTIONS.put("floor", Math::floor);
-        FUNCTIONS.put("rad", Math::toRadians);
-        FUNCTIONS.put("deg", Math::toDegrees);
-    }
+    private static final String[] NO_VARIABLES = new String[0];
+    private static final double[] NO_VALUES = new double[0];
+    private static final int STAGE_COUNT = PipelineStage.values().length;
+    
+    private static volatile ParseCache parseCache = new LruParseCache(1024, 16L << 20);
+    
+    // Matrix expressions compiled by evaluateMatrix, least recently used first
+    private static final int MATRIX_CACHE_SIZE = 256;
+    private static final Map<String, MatrixExpression> MATRIX_CACHE =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MatrixExpression> eldest) {
+                return size() > MATRIX_CACHE_SIZE;
+            }
+        };
     
     public static class EvaluationResult {
         private final double result;
         private final String postfix;
-        private final List<String> steps;
-        private final long timeMs;
+        private final long timeNanos;
+        private final long[] stageNanos;
+        private final StepTrace trace;
+        private final BigDecimal decimalResult;
+        private final PrecisionPath precisionPath;
+        private volatile List<String> steps;
         
         public EvaluationResult(double result, String postfix, 
                                List<String> steps, long timeMs) {
             this.result = result;
             this.postfix = postfix;
             this.steps = steps;
-            this.timeMs = timeMs;
+            this.timeNanos = timeMs * 1_000_000;
+            this.stageNanos = new long[STAGE_COUNT];
+            this.trace = null;
+            this.decimalResult = null;
+            this.precisionPath = PrecisionPath.DOUBLE;
+        }
+        
+        EvaluationResult(double result, String postfix, StepTrace trace,
+                         long timeNanos, long[] stageNanos,
+                         BigDecimal decimalResult, PrecisionPath precisionPath) {
+            this.result = result;
+            this.postfix = postfix;
+            this.trace = trace;
+            this.timeNanos = timeNanos;
+            this.stageNanos = stageNanos;
+            this.decimalResult = decimalResult;
+            this.precisionPath = precisionPath;
         }
         
         public double getResult() { return result; }
         public String getPostfix() { return postfix; }
-        public List<String> getSteps() { return steps; }
-        public long getTimeMs() { return timeMs; }
+        public long getTimeMs() { return timeNanos / 1_000_000; }
+        public long getTimeNanos() { return timeNanos; }
+        
+        /**
+         * The result rounded to the requested {@link java.math.MathContext},
+         * or null when no precision was requested.
+         */
+        public BigDecimal getDecimalResult() { return decimalResult; }
+        public PrecisionPath getPrecisionPath() { return precisionPath; }
+        
+        /**
+         * Nanoseconds spent in one stage. Parsing stages are zero when the
+         * expression came from the parse cache.
+         */
+        public long getStageNanos(PipelineStage stage) {
+            return stageNanos[stage.ordinal()];
+        }
+        
+        /** Steps recorded at the requested {@link TraceLevel}, rendered on first call. */
+        public List<String> getSteps() {
+            List<String> rendered = steps;
+            if (rendered == null) {
+                rendered = trace.render();
+                steps = rendered;
+            }
+            return rendered;
+        }
     }
     
     public static EvaluationResult evaluate(String expression) {
-        long startTime = System.currentTimeMillis();
-        List<String> steps = new ArrayList<>();
+        return evaluate(expression, EvaluationOptions.defaults());
+    }
+    
+    public static EvaluationResult evaluate(String expression, EvaluationOptions options) {
+        return evaluate(expression, options, null);
+    }
+    
+    /**
+     * Evaluates, lexing into {@code previous} incrementally when it is not
+     * null. See {@link IncrementalEvaluator}.
+     */
+    static EvaluationResult evaluate(String expression, EvaluationOptions options,
+                                     TokenBuffer previous) {
+        long startTime = System.nanoTime();
+        long[] stageNanos = new long[STAGE_COUNT];
+        boolean failed = true;
         
         try {
-            // Step 1: Validate
-            ValidationEngine.validate(expression);
-            steps.add("✓ Expression validated");
-            
-            // Step 2: Tokenize
-            List<String> tokens = tokenize(expression);
-            steps.add("✓ Tokenized: " + tokens);
-            
-            // Step 3: Convert to postfix
-            String postfix = InfixToPostfixConverter.convert(tokens);
-            steps.add("✓ Postfix notation: " + postfix);
+            // Steps 1-3: Validate, tokenize and convert (cached by source text)
+            ParseCache cache = options.getParseCache() == null ? parseCache : options.getParseCache();
+            CompiledExpression compiled = compileCached(cache, expression, NO_VARIABLES, stageNanos,
+                previous);
             
             // Step 4: Evaluate
-            double result = evaluatePostfix(postfix, steps);
-            steps.add("✓ Result: " + result);
+            long executeStart = System.nanoTime();
+            TraceLevel level = options.getTraceLevel();
+            double[] trace = null;
+            double result;
+            if (level == TraceLevel.FULL) {
+                trace = new double[compiled.getProgram().code.length];
+                result = StackMachine.run(compiled.getProgram(), NO_VALUES, trace);
+            } else if (options.getMathContext() == null) {
+                result = compiled.asFunction(options.getBackend()).applyAsDouble(NO_VALUES);
+            } else {
+                result = Double.NaN;
+            }
             
-            long endTime = System.currentTimeMillis();
-            return new EvaluationResult(result, postfix, steps, endTime - startTime);
+            BigDecimal decimal = null;
+            PrecisionPath path = PrecisionPath.DOUBLE;
+            if (options.getMathContext() != null) {
+                PrecisionEvaluator.Outcome outcome = compiled.evaluate(options.getMathContext(), NO_VALUES);
+                decimal = outcome.value;
+                path = outcome.path;
+                result = decimal.doubleValue();
+                EvaluationMetrics.recordPrecisionPath(path);
+            }
+            
+            long endTime = System.nanoTime();
+            stageNanos[PipelineStage.EXECUTE.ordinal()] = endTime - executeStart;
+            failed = false;
+            return new EvaluationResult(result, compiled.getPostfix(),
+                new StepTrace(level, compiled, trace, result), endTime - startTime, stageNanos,
+                decimal, path);
             
         } catch (Exception e) {
             throw new CalculationException("Evaluation failed: " + e.getMessage(), e);
+        } finally {
+            EvaluationMetrics.recordStages(stageNanos, expression);
+            EvaluationMetrics.recordEvaluation(failed);
         }
     }
     
-    private static List<String> tokenize(String expression) {
-        List<String> tokens = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        
-        for (int i = 0; i < expression.length(); i++) {
-            char c = expression.charAt(i);
+    /**
+     * Parses an expression once so it can be evaluated repeatedly with
+     * different variable values. The returned expression is immutable and
+     * safe to share between threads.
+     */
+    public static CompiledExpression compile(String expression, String... variableNames) {
+        long[] stageNanos = new long[STAGE_COUNT];
+        try {
+            return compileCached(parseCache, expression, variableNames, stageNanos, null);
             
-            if (Character.isWhitespace(c)) {
-                if (current.length() > 0) {
-                    tokens.add(current.toString());
-                    current.setLength(0);
-                }
-            } else if (isOperator(c) || c == '(' || c == ')' || c == ',') {
-                if (current.length() > 0) {
-                    tokens.add(current.toString());
-                    current.setLength(0);
-                }
-                tokens.add(String.valueOf(c));
-            } else {
-                current.append(c);
+        } catch (Exception e) {
+            throw new CalculationException("Compilation failed: " + e.getMessage(), e);
+        } finally {
+            EvaluationMetrics.recordStages(stageNanos, expression);
+        }
+    }
+    
+    /**
+     * Compiles an expression over matrices, such as {@code transpose(a) * [1; 2]}.
+     * See {@link MatrixExpression} for what the operators and functions do
+     * with matrix operands.
+     */
+    public static MatrixExpression compileMatrix(String expression, String... variableNames) {
+        try {
+            return MatrixExpression.compile(expression, variableNames);
+            
+        } catch (Exception e) {
+            throw new CalculationException("Compilation failed: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Evaluates an expression over matrices once, with variables bound by
+     * name. The compiled expression is cached, so evaluating the same
+     * expression again only runs it.
+     */
+    public static Matrix evaluateMatrix(String expression, Map<String, Matrix> variables) {
+        String[] names = variables.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        MatrixExpression compiled = compileMatrixCached(expression, names);
+        Matrix[] values = new Matrix[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = variables.get(names[i]);
+        }
+        try {
+            return compiled.evaluate(values);
+            
+        } catch (Exception e) {
+            throw new CalculationException("Evaluation failed: " + e.getMessage(), e);
+        }
+    }
+    
+    private static MatrixExpression compileMatrixCached(String expression, String[] variableNames) {
+        String key = expression + '\0' + String.join("\0", variableNames);
+        MatrixExpression compiled;
+        synchronized (MATRIX_CACHE) {
+            compiled = MATRIX_CACHE.get(key);
+        }
+        if (compiled == null || compiled.isStale()) {
+            compiled = compileMatrix(expression, variableNames);
+            synchronized (MATRIX_CACHE) {
+                MATRIX_CACHE.put(key, compiled);
             }
         }
+        return compiled;
+    }
+    
+    private static CompiledExpression compileCached(ParseCache cache, String expression,
+                                                    String[] variableNames, long[] stageNanos,
+                                                    TokenBuffer previous) {
+        if (expression == null) {
+            throw new IllegalArgumentException("Expression cannot be empty");
+        }
         
-        if (current.length() > 0) {
-            tokens.add(current.toString());
+        String key = variableNames.length == 0 ? expression
+            : expression + '\0' + String.join("\0", variableNames);
+        return cache.get(key, k -> parse(expression, variableNames, stageNanos, previous));
+    }
+    
+    static CompiledExpression parse(String expression, String[] variableNames) {
+        return parse(expression, variableNames, new long[STAGE_COUNT], null);
+    }
+    
+    /**
+     * Parses and records the time of each stage into {@code stageNanos}, by
+     * ordinal. When {@code previous} is given the expression is lexed into it
+     * incrementally instead of into the thread's buffer.
+     */
+    static CompiledExpression parse(String expression, String[] variableNames, long[] stageNanos,
+                                    TokenBuffer previous) {
+        long t0 = System.nanoTime();
+        TokenBuffer tokens;
+        if (previous == null) {
+            tokens = Lexer.lex(expression);
+        } else {
+            Lexer.relex(expression, previous);
+            tokens = previous;
         }
+        stageNanos[PipelineStage.LEX.ordinal()] = System.nanoTime() - t0;
+        return parse(tokens, variableNames, stageNanos);
+    }
+    
+    /** Converts, builds and optimizes an expression already lexed into {@code tokens}. */
+    static CompiledExpression parse(TokenBuffer tokens, String[] variableNames, long[] stageNanos) {
+        // Names were resolved against this registry snapshot
+        int version = tokens.registry.version();
+        long t1 = System.nanoTime();
+        
+        int[] postfix = new int[tokens.size];
+        int count = InfixToPostfixConverter.convert(tokens, postfix);
+        long t2 = System.nanoTime();
+        stageNanos[PipelineStage.CONVERT.ordinal()] = t2 - t1;
         
-        return tokens;
+        PostfixProgram program = PostfixProgram.fromTokens(tokens, postfix, count, variableNames);
+        long t3 = System.nanoTime();
+        stageNanos[PipelineStage.BUILD.ordinal()] = t3 - t2;
+        
+        List<String> rewrites = new ArrayList<>();
+        program = Optimizer.optimize(program, rewrites);
+        stageNanos[PipelineStage.OPTIMIZE.ordinal()] = System.nanoTime() - t3;
+        return new CompiledExpression(tokens.source, tokens, program, rewrites, variableNames, version);
+    }
+    
+    /**
+     * Replaces the cache used by {@link #evaluate} and {@link #compile}.
+     * Pass {@link ParseCache#none()} to disable caching.
+     */
+    public static void setParseCache(ParseCache cache) {
+        parseCache = Objects.requireNonNull(cache, "cache");
+    }
+    
+    public static ParseCache getParseCache() {
+        return parseCache;
+    }
+    
+    static int functionVersion() {
+        return FunctionRegistry.current().version();
+    }
+    
+    static List<String> tokenize(String expression) {
+        return Lexer.lex(expression).texts();
     }
     
-    private static double evaluatePostfix(String postfix, List<String> steps) {
+    /**
+     * Evaluates {@code expression} on the original path: tokenized, converted
+     * to a postfix string and interpreted over a boxed stack, with no
+     * compilation, caching or optimization. Slow; kept so the default path
+     * can be checked against it bit for bit.
+     */
+    public static double evaluateReference(String expression) {
+        return evaluateReference(expression, new String[0]);
+    }
+
+    /** {@link #evaluateReference(String)} with {@code values} bound to {@code variableNames}. */
+    public static double evaluateReference(String expression, String[] variableNames,
+                                           double... values) {
+        if (variableNames.length != values.length) {
+            throw new IllegalArgumentException("Expected " + variableNames.length +
+                " values, got " + values.length);
+        }
+        Map<String, Double> variables = new HashMap<>();
+        for (int i = 0; i < variableNames.length; i++) {
+            variables.put(variableNames[i], values[i]);
+        }
+        String postfix = InfixToPostfixConverter.convert(tokenize(expression));
+        return evaluatePostfix(postfix, variables, new ArrayList<>());
+    }
+
+    /**
+     * Reference interpreter working directly on the postfix string. The
+     * default path uses {@link StackMachine}; this is kept to check that
+     * both produce identical results.
+     */
+    static double evaluatePostfix(String postfix, List<String> steps) {
+        return evaluatePostfix(postfix, Map.of(), steps);
+    }
+
+    private static double evaluatePostfix(String postfix, Map<String, Double> variables,
+                                          List<String> steps) {
         Stack<Double> stack = new Stack<>();
         String[] tokens = postfix.split("\\s+");
         
@@ -118,14 +345,23 @@ public class ExpressionEvaluator {
             if (isNumeric(token)) {
                 stack.push(Double.parseDouble(token));
                 steps.add("  Push " + token + " → Stack: " + stack);
-            } else if (FUNCTIONS.containsKey(token)) {
-                if (stack.isEmpty()) throw new IllegalArgumentException(
+            } else if (variables.containsKey(token)) {
+                stack.push(variables.get(token));
+                steps.add("  Push " + token + " → Stack: " + stack);
+            } else if (isFunction(token)) {
+                RegisteredFunction function = getFunction(token);
+                if (stack.size() < function.arity) throw new IllegalArgumentException(
                     "Missing argument for function: " + token);
                 
-                double arg = stack.pop();
-                double result = FUNCTIONS.get(token).apply(arg);
+                double[] args = new double[function.arity];
+                for (int i = args.length - 1; i >= 0; i--) {
+                    args[i] = stack.pop();
+                }
+                double result = function.apply(args, 0);
                 stack.push(result);
-                steps.add("  Apply " + token + "(" + arg + ") = " + result);
+                String shown = Arrays.toString(args);
+                steps.add("  Apply " + token + "(" + shown.substring(1, shown.length() - 1) +
+                    ") = " + result);
             } else if (isOperator(token)) {
                 if (stack.size() < 2) throw new IllegalArgumentException(
                     "Insufficient operands for: " + token);
@@ -145,15 +381,19 @@ public class ExpressionEvaluator {
         return stack.pop();
     }
     
-    private static boolean isOperator(char c) {
-        return "+-*/^%".indexOf(c) != -1;
+    static boolean isOperator(String str) {
+        return PRECEDENCE.containsKey(str);
     }
     
-    private static boolean isOperator(String str) {
-        return PRECEDENCE.containsKey(str);
+    static boolean isFunction(String str) {
+        return FunctionRegistry.current().lookup(str) != null;
     }
     
-    private static boolean isNumeric(String str) {
+    static RegisteredFunction getFunction(String name) {
+        return FunctionRegistry.current().lookup(name);
+    }
+    
+    static boolean isNumeric(String str) {
         try {
             Double.parseDouble(str);
             return true;
@@ -162,7 +402,7 @@ public class ExpressionEvaluator {
         }
     }
     
-    private static double applyOperator(double a, double b, String op) {
+    static double applyOperator(double a, double b, String op) {
         switch (op) {
             case "+": return a + b;
             case "-": return a - b;
@@ -177,7 +417,68 @@ public class ExpressionEvaluator {
     }
     
     public static void registerFunction(String name, Function<Double, Double> function) {
-        FUNCTIONS.put(name, function);
+        registerFunction(name, function, false);
+    }
+    
+    /**
+     * Registers a function. A pure function always returns the same result
+     * for the same argument and has no side effects, which lets repeated
+     * calls with the same argument expression be computed once.
+     *
+     * This boxes on every call; prefer {@link #registerUnaryFunction}.
+     */
+    public static void registerFunction(String name, Function<Double, Double> function,
+                                        boolean pure) {
+        Objects.requireNonNull(function, "function");
+        registerUnaryFunction(name, function::apply, pure);
+    }
+    
+    /**
+     * Registers a one-argument function. Registration is safe while other
+     * threads evaluate: they keep using the functions they resolved until
+     * their expressions are compiled again.
+     */
+    public static void registerUnaryFunction(String name, DoubleUnaryOperator function,
+                                             boolean pure) {
+        FunctionRegistry.register(RegisteredFunction.unary(
+            name, Objects.requireNonNull(function, "function"), pure));
+    }
+    
+    /** Registers a two-argument function, called as {@code name(a, b)}. */
+    public static void registerBinaryFunction(String name, DoubleBinaryOperator function,
+                                              boolean pure) {
+        FunctionRegistry.register(RegisteredFunction.binary(
+            name, Objects.requireNonNull(function, "function"), pure));
+    }
+    
+    /**
+     * Registers a pure one-argument function whose results are memoized in
+     * {@code cache}. Memoized functions are always pure; register impure
+     * ones without a cache. Each cache serves a single function, and
+     * re-registering the name needs a new cache.
+     */
+    public static void registerUnaryFunction(String name, DoubleUnaryOperator function,
+                                             FunctionCache cache) {
+        Objects.requireNonNull(function, "function");
+        cache.attach(name);
+        FunctionRegistry.register(RegisteredFunction.unary(
+            name, x -> cache.get(x, function), true));
+    }
+    
+    /** Registers a pure two-argument function memoized in {@code cache}. */
+    public static void registerBinaryFunction(String name, DoubleBinaryOperator function,
+                                              FunctionCache cache) {
+        Objects.requireNonNull(function, "function");
+        cache.attach(name);
+        FunctionRegistry.register(RegisteredFunction.binary(
+            name, (a, b) -> cache.get(a, b, function), true));
+    }
+    
+    /** Registers a function of exactly {@code arity} arguments. */
+    public static void registerFunction(String name, int arity, DoubleNaryOperator function,
+                                        boolean pure) {
+        FunctionRegistry.register(RegisteredFunction.nary(
+            name, arity, Objects.requireNonNull(function, "function"), pure));
     }
 }
 
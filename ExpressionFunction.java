@@ -0,0 +1,11 @@
+package com.calculator.core;
+
+/**
+ * A compiled expression as a plain function of its variables, in the order
+ * given to {@link ExpressionEvaluator#compile}.
+ */
+@FunctionalInterface
+public interface ExpressionFunction {
+    
+    double applyAsDouble(double[] variables);
+}
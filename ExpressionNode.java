@@ -0,0 +1,200 @@
+package com.calculator.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Expression tree node rebuilt from a {@link PostfixProgram}, used by the
+ * optimizer. {@code kind} is a {@link PostfixProgram} opcode, or
+ * {@link #POWER} for a power reduced to multiplications. Operators use
+ * {@code left} and {@code right}; calls keep their arguments in
+ * {@code arguments}.
+ *
+ * Nodes taken from the program keep their source token offsets; nodes the
+ * optimizer creates have {@code start == -1}.
+ */
+final class ExpressionNode {
+    
+    static final int POWER = 100;
+    
+    final int kind;
+    final double value;
+    final int slot;
+    final int exponent;
+    final RegisteredFunction function;
+    final ExpressionNode left;
+    final ExpressionNode right;
+    final ExpressionNode[] arguments;
+    final String text;
+    final int start;
+    final int end;
+    
+    private ExpressionNode(int kind, double value, int slot, int exponent,
+                           RegisteredFunction function,
+                           ExpressionNode left, ExpressionNode right, ExpressionNode[] arguments,
+                           String text, int start, int end) {
+        this.kind = kind;
+        this.value = value;
+        this.slot = slot;
+        this.exponent = exponent;
+        this.function = function;
+        this.left = left;
+        this.right = right;
+        this.arguments = arguments;
+        this.text = text;
+        this.start = start;
+        this.end = end;
+    }
+    
+    static ExpressionNode constant(double value) {
+        return new ExpressionNode(PostfixProgram.CONST, value, 0, 0, null, null, null, null,
+            null, -1, -1);
+    }
+    
+    static ExpressionNode power(ExpressionNode base, int exponent) {
+        return new ExpressionNode(POWER, 0, 0, exponent, null, base, null, null, "^", -1, -1);
+    }
+    
+    ExpressionNode withChildren(ExpressionNode left, ExpressionNode right) {
+        return new ExpressionNode(kind, value, slot, exponent, function, left, right, null,
+            text, start, end);
+    }
+    
+    ExpressionNode withArguments(ExpressionNode[] arguments) {
+        return new ExpressionNode(kind, value, slot, exponent, function, null, null, arguments,
+            text, start, end);
+    }
+    
+    boolean isConstant() {
+        return kind == PostfixProgram.CONST;
+    }
+    
+    /** Constant with exactly this value; distinguishes 0.0 from -0.0. */
+    boolean isConstant(double expected) {
+        return isConstant() &&
+            Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(expected);
+    }
+    
+    /**
+     * Rebuilds the tree from a postfix program. The program's stack depth
+     * has already been checked, so this cannot underflow.
+     */
+    static ExpressionNode fromProgram(PostfixProgram program) {
+        ExpressionNode[] stack = new ExpressionNode[Math.max(1, program.maxStack)];
+        int top = 0;
+        
+        for (int i = 0; i < program.code.length; i++) {
+            int instruction = program.code[i];
+            int opcode = PostfixProgram.opcode(instruction);
+            int operand = PostfixProgram.operand(instruction);
+            String text = program.token(i);
+            int start = program.tokenStart(i);
+            int end = program.tokenEnd(i);
+            
+            switch (opcode) {
+                case PostfixProgram.CONST:
+                    stack[top++] = new ExpressionNode(opcode, program.constants[operand], 0, 0,
+                        null, null, null, null, text, start, end);
+                    break;
+                case PostfixProgram.LOAD:
+                    stack[top++] = new ExpressionNode(opcode, 0, operand, 0,
+                        null, null, null, null, text, start, end);
+                    break;
+                case PostfixProgram.CALL: {
+                    RegisteredFunction function = program.functions[operand];
+                    ExpressionNode[] arguments = Arrays.copyOfRange(stack, top - function.arity, top);
+                    top -= function.arity - 1;
+                    stack[top - 1] = new ExpressionNode(opcode, 0, 0, 0,
+                        function, null, null, arguments, text, start, end);
+                    break;
+                }
+                case PostfixProgram.DUP:
+                    throw new IllegalArgumentException("Program is already optimized");
+                default:
+                    ExpressionNode b = stack[--top];
+                    stack[top - 1] = new ExpressionNode(opcode, 0, 0, 0,
+                        null, stack[top - 1], b, null, text, start, end);
+            }
+        }
+        return stack[0];
+    }
+    
+    /**
+     * Every node below and including {@code root}, children before their
+     * parent and left to right. Walks with an explicit stack, so long
+     * chains such as {@code 1 + 1 + ... + 1} cannot overflow the call
+     * stack. A node reachable along several paths is listed once per path.
+     */
+    static ExpressionNode[] postOrder(ExpressionNode root) {
+        ArrayList<ExpressionNode> order = new ArrayList<>();
+        ArrayDeque<ExpressionNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        // Parent, then right to left, reversed at the end
+        while (!stack.isEmpty()) {
+            ExpressionNode node = stack.pop();
+            order.add(node);
+            if (node.arguments != null) {
+                for (ExpressionNode argument : node.arguments) stack.push(argument);
+            } else {
+                if (node.left != null) stack.push(node.left);
+                if (node.right != null) stack.push(node.right);
+            }
+        }
+        Collections.reverse(order);
+        return order.toArray(new ExpressionNode[0]);
+    }
+    
+    /** Infix rendering for trace messages. */
+    String describe() {
+        // Pending nodes and literal text, in the order they are written
+        StringBuilder sb = new StringBuilder();
+        ArrayDeque<Object> work = new ArrayDeque<>();
+        work.push(this);
+        while (!work.isEmpty()) {
+            Object item = work.pop();
+            if (item instanceof String) {
+                sb.append((String) item);
+                continue;
+            }
+            ExpressionNode node = (ExpressionNode) item;
+            switch (node.kind) {
+                case PostfixProgram.CONST:
+                    sb.append(node.start >= 0 ? node.text : Double.toString(node.value));
+                    break;
+                case PostfixProgram.LOAD:
+                    sb.append(node.text);
+                    break;
+                case PostfixProgram.CALL:
+                    sb.append(node.text).append('(');
+                    work.push(")");
+                    for (int i = node.arguments.length - 1; i >= 0; i--) {
+                        work.push(node.arguments[i]);
+                        if (i > 0) work.push(", ");
+                    }
+                    break;
+                case POWER:
+                    for (int i = 0; i < node.exponent; i++) {
+                        if (i > 0) work.push(" * ");
+                        pushOperand(work, node.left);
+                    }
+                    break;
+                default:
+                    pushOperand(work, node.right);
+                    work.push(" " + PostfixProgram.operatorSymbol(node.kind) + " ");
+                    pushOperand(work, node.left);
+            }
+        }
+        return sb.toString();
+    }
+    
+    // Operators and powers are parenthesized when they appear as operands
+    private static void pushOperand(ArrayDeque<Object> work, ExpressionNode node) {
+        boolean binary = node.kind != PostfixProgram.CONST && node.kind != PostfixProgram.LOAD &&
+            node.kind != PostfixProgram.CALL;
+        if (binary) work.push(")");
+        work.push(node);
+        if (binary) work.push("(");
+    }
+}
@@ -0,0 +1,368 @@
+package com.calculator.core;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Saves compiled expressions to a compact binary file and loads them back
+ * without lexing, validating or converting anything again.
+ *
+ * A file holds a header (magic, format version and a checksum of the
+ * function registry it was written with) followed by one record per
+ * expression: the source text, variable names, token offsets, optimizer
+ * rewrites and the postfix program itself, with functions referenced by
+ * name. Integers are stored as varints.
+ *
+ * Loading maps the file read-only and resolves each function name against
+ * the current registry; a name that is no longer registered, or now has a
+ * different arity, fails the load. Calls to pure functions folded into
+ * constants at compile time are not re-checked. Expressions that use
+ * integrate, solve or a range reduction are stored as source and compiled
+ * again on load.
+ */
+public final class ExpressionStore {
+
+    private static final int MAGIC = 0x43585052; // "CXPR"
+    static final int FORMAT_VERSION = 1;
+
+    private static final byte COMPILED = 0;
+    private static final byte SOURCE_ONLY = 1;
+
+    private ExpressionStore() {
+    }
+
+    /** Writes the expressions to {@code file}, replacing it. */
+    public static void write(Path file, Collection<CompiledExpression> expressions) throws IOException {
+        Output out = new Output();
+        out.buffer.putInt(MAGIC);
+        out.buffer.putShort((short) FORMAT_VERSION);
+        out.buffer.putLong(FunctionRegistry.current().checksum());
+        out.putVarint(expressions.size());
+        for (CompiledExpression expression : expressions) {
+            writeRecord(out, expression);
+        }
+
+        ByteBuffer bytes = out.buffer.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    /** Loads every expression in {@code file}, in the order written. */
+    public static List<CompiledExpression> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Records are decoded straight from the mapping; nothing refers to it afterwards
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /** Loads every expression from the remaining bytes of {@code in}. */
+    public static List<CompiledExpression> read(ByteBuffer in) throws IOException {
+        try {
+            if (in.remaining() < 14 || in.getInt() != MAGIC) {
+                throw new IOException("Not a compiled expression file");
+            }
+            int version = in.getShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported format version " + version +
+                    ", expected " + FORMAT_VERSION);
+            }
+            FunctionRegistry registry = FunctionRegistry.current();
+            // Same functions as when written: every name resolves with the same arity
+            boolean sameRegistry = in.getLong() == registry.checksum();
+
+            int count = getCount(in, 2);
+            List<CompiledExpression> expressions = new ArrayList<>(Math.min(count, 1 << 16));
+            for (int i = 0; i < count; i++) {
+                expressions.add(readRecord(in, registry, sameRegistry));
+            }
+            return expressions;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Truncated or corrupt compiled expression file", e);
+        }
+    }
+
+    private static void writeRecord(Output out, CompiledExpression expression) {
+        PostfixProgram program = expression.getProgram();
+        FunctionRegistry registry = FunctionRegistry.current();
+        boolean byName = true;
+        for (RegisteredFunction function : program.functions) {
+            // integrate, solve and the range reductions bind a compiled body, so
+            // their name resolves to something else or nothing at all
+            if (registry.lookup(function.name) != function) byName = false;
+        }
+
+        out.ensure(1);
+        out.buffer.put(byName ? COMPILED : SOURCE_ONLY);
+        out.putString(expression.getExpression());
+        String[] variables = expression.getVariableNames();
+        out.putVarint(variables.length);
+        for (String variable : variables) {
+            out.putString(variable);
+        }
+        if (!byName) return;
+
+        out.putVarint(expression.getTokenCount());
+        for (int i = 0; i < expression.getTokenCount(); i++) {
+            out.putVarint(expression.getTokenStart(i));
+            out.putVarint(expression.getTokenEnd(i) - expression.getTokenStart(i));
+        }
+        List<String> rewrites = expression.getRewrites();
+        out.putVarint(rewrites.size());
+        for (String rewrite : rewrites) {
+            out.putString(rewrite);
+        }
+
+        out.putVarint(program.variableCount);
+        out.putVarint(program.maxStack);
+        out.putVarint(program.tempCount);
+        out.putVarint(program.deduplicatedNodes);
+        out.putVarint(program.constants.length);
+        out.ensure(program.constants.length * Double.BYTES);
+        for (double constant : program.constants) {
+            out.buffer.putDouble(constant);
+        }
+        out.putVarint(program.functions.length);
+        for (RegisteredFunction function : program.functions) {
+            out.putString(function.name);
+            out.putVarint(function.arity);
+        }
+        out.putVarint(program.code.length);
+        for (int i = 0; i < program.code.length; i++) {
+            out.putVarint(program.code[i]);
+            // Offset + 1, so 0 can mark an optimizer-made instruction with its own text
+            int start = program.tokenStart(i);
+            out.putVarint(start + 1);
+            if (start < 0) {
+                out.putString(program.token(i));
+            } else {
+                out.putVarint(program.tokenEnd(i) - start);
+            }
+        }
+    }
+
+    private static CompiledExpression readRecord(ByteBuffer in, FunctionRegistry registry,
+                                                 boolean sameRegistry) throws IOException {
+        byte kind = in.get();
+        String source = getString(in);
+        String[] variables = new String[getCount(in, 1)];
+        for (int i = 0; i < variables.length; i++) {
+            variables[i] = getString(in);
+        }
+        if (kind == SOURCE_ONLY) {
+            return ExpressionEvaluator.compile(source, variables);
+        }
+        if (kind != COMPILED) {
+            throw new IOException("Unknown record kind " + kind);
+        }
+
+        int tokenCount = getCount(in, 2);
+        int[] tokenStarts = new int[tokenCount];
+        int[] tokenEnds = new int[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            tokenStarts[i] = getVarint(in);
+            tokenEnds[i] = tokenStarts[i] + getVarint(in);
+            checkOffsets(source, tokenStarts[i], tokenEnds[i]);
+        }
+        List<String> rewrites = new ArrayList<>();
+        for (int i = getCount(in, 1); i > 0; i--) {
+            rewrites.add(getString(in));
+        }
+
+        int variableCount = getVarint(in);
+        if (variableCount != variables.length) {
+            throw new IOException("Expression '" + source + "' has " + variables.length +
+                " variable names but loads " + variableCount + " variables");
+        }
+        int maxStack = getVarint(in);
+        int tempCount = getVarint(in);
+        int deduplicatedNodes = getVarint(in);
+        double[] constants = new double[getCount(in, Double.BYTES)];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = in.getDouble();
+        }
+        RegisteredFunction[] functions = new RegisteredFunction[getCount(in, 2)];
+        for (int i = 0; i < functions.length; i++) {
+            String name = getString(in);
+            int arity = getVarint(in);
+            RegisteredFunction function = registry.lookup(name);
+            if (function == null || (!sameRegistry && function.arity != arity)) {
+                throw new IOException("Expression '" + source + "' uses function " + name +
+                    (function == null ? ", which is no longer registered"
+                        : " with " + arity + " arguments, but it now takes " + function.arity));
+            }
+            functions[i] = function;
+        }
+
+        // Opcode, token offset and token length or text: three bytes at least
+        int length = getCount(in, 3);
+        int[] code = new int[length];
+        int[] starts = new int[length];
+        int[] ends = new int[length];
+        String[] synthetic = null;
+        for (int i = 0; i < length; i++) {
+            code[i] = getVarint(in);
+            starts[i] = getVarint(in) - 1;
+            if (starts[i] < 0) {
+                if (synthetic == null) synthetic = new String[length];
+                synthetic[i] = getString(in);
+            } else {
+                ends[i] = starts[i] + getVarint(in);
+                checkOffsets(source, starts[i], ends[i]);
+            }
+        }
+        checkOperands(source, code, constants.length, functions.length, variableCount, tempCount);
+        checkStack(source, code, functions, maxStack, tempCount);
+
+        PostfixProgram program = new PostfixProgram(code, constants, functions, variableCount,
+            maxStack, tempCount, deduplicatedNodes, source, starts, ends, synthetic);
+        return new CompiledExpression(source, tokenStarts, tokenEnds, program, rewrites, variables,
+            registry.version());
+    }
+
+    // A corrupt operand would otherwise only fail, or silently misbehave, when evaluated
+    private static void checkOperands(String source, int[] code, int constantCount,
+                                      int functionCount, int variableCount,
+                                      int tempCount) throws IOException {
+        for (int instruction : code) {
+            int operand = PostfixProgram.operand(instruction);
+            int limit;
+            switch (PostfixProgram.opcode(instruction)) {
+                case PostfixProgram.CONST: limit = constantCount; break;
+                case PostfixProgram.LOAD: limit = variableCount; break;
+                case PostfixProgram.CALL: limit = functionCount; break;
+                case PostfixProgram.STORE:
+                case PostfixProgram.RELOAD: limit = tempCount; break;
+                default:
+                    if (PostfixProgram.opcode(instruction) > PostfixProgram.RELOAD) {
+                        throw new IOException("Invalid instruction in '" + source + "'");
+                    }
+                    continue;
+            }
+            if (operand >= limit) {
+                throw new IOException("Invalid operand in '" + source + "'");
+            }
+        }
+    }
+
+    // Token text is cut out of the source by these offsets
+    private static void checkOffsets(String source, int start, int end) throws IOException {
+        if (start < 0 || end < start || end > source.length()) {
+            throw new IOException("Token offsets " + start + ".." + end + " outside '" + source + "'");
+        }
+    }
+
+    // Replays the stack effects: evaluation trusts maxStack to size its stack, and
+    // a temp must be stored before it is reloaded
+    private static void checkStack(String source, int[] code, RegisteredFunction[] functions,
+                                   int maxStack, int tempCount) throws IOException {
+        if (tempCount > code.length) {
+            throw new IOException("Invalid temp count in '" + source + "'");
+        }
+        boolean[] stored = new boolean[tempCount];
+        int depth = 0;
+        int maxDepth = 0;
+        for (int instruction : code) {
+            int operand = PostfixProgram.operand(instruction);
+            int pops;
+            int pushes = 1;
+            switch (PostfixProgram.opcode(instruction)) {
+                case PostfixProgram.CONST:
+                case PostfixProgram.LOAD: pops = 0; break;
+                case PostfixProgram.CALL: pops = functions[operand].arity; break;
+                case PostfixProgram.DUP: pops = 1; pushes = 2; break;
+                case PostfixProgram.STORE:
+                    stored[operand] = true;
+                    pops = 1;
+                    break;
+                case PostfixProgram.RELOAD:
+                    if (!stored[operand]) {
+                        throw new IOException("Temp reloaded before it is stored in '" + source + "'");
+                    }
+                    pops = 0;
+                    break;
+                default: pops = 2; break;
+            }
+            if (depth < pops) {
+                throw new IOException("Stack underflow in '" + source + "'");
+            }
+            depth += pushes - pops;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        if (depth != 1) {
+            throw new IOException("Expression '" + source + "' leaves " + depth +
+                " values on the stack, expected 1");
+        }
+        if (maxDepth != maxStack) {
+            throw new IOException("Expression '" + source + "' needs a stack of " + maxDepth +
+                ", but its header says " + maxStack);
+        }
+    }
+
+    /** Reads a count of items that each take at least {@code minBytes} bytes. */
+    private static int getCount(ByteBuffer in, int minBytes) throws IOException {
+        int count = getVarint(in);
+        if (count < 0 || count > in.remaining() / minBytes) {
+            throw new IOException("Count " + Integer.toUnsignedString(count) + " exceeds the " +
+                in.remaining() + " bytes left in the file");
+        }
+        return count;
+    }
+
+    private static int getVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static String getString(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[getCount(in, 1)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Growable write buffer. */
+    private static final class Output {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+                buffer = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), capacity))
+                    .position(buffer.position());
+            }
+        }
+
+        void putVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarint(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.calculator.core;
+
+/**
+ * Thrown when an expression is malformed, with the character offset at
+ * which the problem was found.
+ */
+public class ExpressionSyntaxException extends IllegalArgumentException {
+    
+    private final String reason;
+    private final int offset;
+    
+    public ExpressionSyntaxException(String message, int offset) {
+        super(message + " at position " + offset);
+        this.reason = message;
+        this.offset = offset;
+    }
+    
+    public int getOffset() { return offset; }
+    
+    /** The message without its position. */
+    String getReason() { return reason; }
+}
@@ -0,0 +1,20 @@
+package com.calculator.numerics;
+
+import com.calculator.core.Backend;
+import com.calculator.core.ExpressionEvaluator;
+import com.calculator.core.ExpressionFunction;
+
+import java.util.function.DoubleUnaryOperator;
+
+final class Expressions {
+
+    private Expressions() {
+    }
+
+    /** Compiles once to bytecode; the result is safe to call from any thread. */
+    static DoubleUnaryOperator compile(String expression, String variable) {
+        ExpressionFunction function = ExpressionEvaluator.compile(expression, variable)
+            .asFunction(Backend.BYTECODE);
+        return x -> function.applyAsDouble(new double[] {x});
+    }
+}
@@ -0,0 +1,226 @@
+package com.calculator.core;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Bounded memoization cache for one pure function of one or two
+ * arguments, attached when the function is registered with
+ * {@link ExpressionEvaluator#registerUnaryFunction(String, DoubleUnaryOperator, FunctionCache)}
+ * or its binary counterpart.
+ *
+ * Keys and values are kept in primitive arrays, so lookups never box.
+ * The cache is set-associative: an argument can only live in one set of
+ * four slots, and when that set is full the {@link Eviction} policy picks
+ * the slot to reuse. Sets are guarded by striped locks; hits read under an
+ * optimistic stamp, and LRU hits then briefly take the write lock to
+ * record their recency, or skip that if it is busy. The function runs
+ * outside any lock, and concurrent misses on the same argument may both
+ * call it.
+ */
+public final class FunctionCache {
+
+    public enum Eviction {
+        /** Replace the least recently read entry of the set. */
+        LRU,
+        /** Replace the oldest entry of the set; hits cost nothing extra. */
+        FIFO
+    }
+
+    private static final int WAYS = 4;
+    private static final int STRIPES = 64;
+    // Two key words, a value and a stamp per slot
+    private static final int BYTES_PER_SLOT = 32;
+
+    private final Eviction eviction;
+    private final int setMask;
+    private final long[] keys;
+    private final long[] secondKeys;
+    private final double[] values;
+    // 0 marks an empty slot; otherwise larger means newer within the set
+    private final long[] stamps;
+    private final StampedLock[] locks = new StampedLock[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder size = new LongAdder();
+    private final AtomicReference<String> owner = new AtomicReference<>();
+
+    /**
+     * @param maxEntries upper bound on cached results, rounded up to a power
+     *                   of two of at least four
+     */
+    public FunctionCache(int maxEntries, Eviction eviction) {
+        if (maxEntries <= 0) throw new IllegalArgumentException(
+            "maxEntries must be positive: " + maxEntries);
+        if (maxEntries > 1 << 26) throw new IllegalArgumentException(
+            "maxEntries too large: " + maxEntries);
+        this.eviction = Objects.requireNonNull(eviction, "eviction");
+
+        int capacity = Math.max(WAYS, Integer.highestOneBit(maxEntries - 1) << 1);
+        this.setMask = capacity / WAYS - 1;
+        this.keys = new long[capacity];
+        this.secondKeys = new long[capacity];
+        this.values = new double[capacity];
+        this.stamps = new long[capacity];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    public FunctionCache(int maxEntries) {
+        this(maxEntries, Eviction.LRU);
+    }
+
+    public int getCapacity() { return keys.length; }
+    public Eviction getEviction() { return eviction; }
+
+    public CacheStats getStats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), (int) size.sum(),
+            (long) keys.length * BYTES_PER_SLOT);
+    }
+
+    /** Drops every entry. Hit, miss and eviction counts are kept. */
+    public void clear() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            long stamp = locks[stripe].writeLock();
+            try {
+                for (int set = stripe; set <= setMask; set += STRIPES) {
+                    for (int slot = set * WAYS; slot < set * WAYS + WAYS; slot++) {
+                        if (stamps[slot] != 0) {
+                            stamps[slot] = 0;
+                            size.decrement();
+                        }
+                    }
+                }
+            } finally {
+                locks[stripe].unlockWrite(stamp);
+            }
+        }
+    }
+
+    /** Ties this cache to one function, so results of two functions never mix. */
+    void attach(String name) {
+        if (!owner.compareAndSet(null, name)) {
+            throw new IllegalArgumentException(
+                "Cache is already used by function " + owner.get());
+        }
+    }
+
+    double get(double x, DoubleUnaryOperator function) {
+        return get(Double.doubleToLongBits(x), 0, x, 0, function, null);
+    }
+
+    double get(double a, double b, DoubleBinaryOperator function) {
+        return get(Double.doubleToLongBits(a), Double.doubleToLongBits(b), a, b, null, function);
+    }
+
+    private double get(long key, long secondKey, double a, double b,
+                       DoubleUnaryOperator unary, DoubleBinaryOperator binary) {
+        int set = (int) mix(key ^ Long.rotateLeft(secondKey, 32)) & setMask;
+        int base = set * WAYS;
+        StampedLock lock = locks[set & (STRIPES - 1)];
+
+        long stamp = lock.tryOptimisticRead();
+        int slot = find(base, key, secondKey);
+        double value = slot >= 0 ? values[slot] : 0;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                slot = find(base, key, secondKey);
+                value = slot >= 0 ? values[slot] : 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        if (slot >= 0) {
+            hits.increment();
+            if (eviction == Eviction.LRU) {
+                touch(lock, base, slot, key, secondKey);
+            }
+            return value;
+        }
+
+        misses.increment();
+        double result = unary != null ? unary.applyAsDouble(a) : binary.applyAsDouble(a, b);
+        store(lock, base, key, secondKey, result);
+        return result;
+    }
+
+    // Whole doubles differ only in a few high bits, so every bit must reach the low ones
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private int find(int base, long key, long secondKey) {
+        for (int slot = base; slot < base + WAYS; slot++) {
+            if (stamps[slot] != 0 && keys[slot] == key && secondKeys[slot] == secondKey) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void store(StampedLock lock, int base, long key, long secondKey, double value) {
+        long stamp = lock.writeLock();
+        try {
+            if (find(base, key, secondKey) >= 0) {
+                // Another thread computed the same result meanwhile
+                return;
+            }
+            int victim = base;
+            for (int slot = base; slot < base + WAYS; slot++) {
+                if (stamps[slot] < stamps[victim]) victim = slot;
+            }
+            if (stamps[victim] == 0) {
+                size.increment();
+            } else {
+                evictions.increment();
+            }
+            keys[victim] = key;
+            secondKeys[victim] = secondKey;
+            values[victim] = value;
+            stamps[victim] = newest(base) + 1;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Marks a hit slot as the newest of its set, if it still holds the key:
+     * clear or store may have reused it since it was read. Skipped when the
+     * set's lock is busy, since recency only steers eviction.
+     */
+    private void touch(StampedLock lock, int base, int slot, long key, long secondKey) {
+        long stamp = lock.tryWriteLock();
+        if (stamp == 0) return;
+        try {
+            if (stamps[slot] != 0 && keys[slot] == key && secondKeys[slot] == secondKey) {
+                stamps[slot] = newest(base) + 1;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private long newest(int base) {
+        long newest = 0;
+        for (int slot = base; slot < base + WAYS; slot++) {
+            newest = Math.max(newest, stamps[slot]);
+        }
+        return newest;
+    }
+
+    @Override
+    public String toString() {
+        return "FunctionCache[" + eviction + ", capacity=" + keys.length + ", " + getStats() + "]";
+    }
+}
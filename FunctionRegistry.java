@@ -0,0 +1,113 @@
+package com.calculator.core;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable set of named functions. The current registry is swapped
+ * atomically on every registration, so readers never lock and always see a
+ * complete snapshot; its version tells compiled expressions whether names
+ * may now resolve differently.
+ */
+final class FunctionRegistry {
+
+    private static final AtomicReference<FunctionRegistry> CURRENT =
+        new AtomicReference<>(builtIns());
+
+    private final Map<String, RegisteredFunction> functions;
+    private final int version;
+    // Computed on first use; racing threads compute the same value
+    private long checksum;
+
+    private FunctionRegistry(Map<String, RegisteredFunction> functions, int version) {
+        this.functions = functions;
+        this.version = version;
+    }
+
+    private static FunctionRegistry builtIns() {
+        Map<String, RegisteredFunction> functions = new HashMap<>();
+        add(functions, RegisteredFunction.builtIn("sin", "sin", Math::sin));
+        add(functions, RegisteredFunction.builtIn("cos", "cos", Math::cos));
+        add(functions, RegisteredFunction.builtIn("tan", "tan", Math::tan));
+        add(functions, RegisteredFunction.builtIn("log", "log10", Math::log10));
+        add(functions, RegisteredFunction.builtIn("ln", "log", Math::log));
+        add(functions, RegisteredFunction.builtIn("sqrt", "sqrt", Math::sqrt));
+        add(functions, RegisteredFunction.builtIn("abs", "abs", (double v) -> Math.abs(v)));
+        add(functions, RegisteredFunction.builtIn("exp", "exp", Math::exp));
+        add(functions, RegisteredFunction.builtIn("ceil", "ceil", Math::ceil));
+        add(functions, RegisteredFunction.builtIn("floor", "floor", Math::floor));
+        add(functions, RegisteredFunction.builtIn("rad", "toRadians", Math::toRadians));
+        add(functions, RegisteredFunction.builtIn("deg", "toDegrees", Math::toDegrees));
+        add(functions, RegisteredFunction.builtIn("max", "max", (double a, double b) -> Math.max(a, b)));
+        add(functions, RegisteredFunction.builtIn("min", "min", (double a, double b) -> Math.min(a, b)));
+        add(functions, RegisteredFunction.builtIn("atan2", "atan2", Math::atan2));
+        add(functions, RegisteredFunction.builtIn("hypot", "hypot", Math::hypot));
+        return new FunctionRegistry(Map.copyOf(functions), 0);
+    }
+
+    private static void add(Map<String, RegisteredFunction> functions, RegisteredFunction function) {
+        functions.put(function.name, function);
+    }
+
+    static FunctionRegistry current() {
+        return CURRENT.get();
+    }
+
+    /** Adds or replaces a function and publishes a new version. */
+    static void register(RegisteredFunction function) {
+        while (true) {
+            FunctionRegistry registry = CURRENT.get();
+            Map<String, RegisteredFunction> functions = new HashMap<>(registry.functions);
+            functions.put(function.name, function);
+            FunctionRegistry next = new FunctionRegistry(Map.copyOf(functions), registry.version + 1);
+            if (CURRENT.compareAndSet(registry, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * This registry with {@code extra} added, replacing functions of the
+     * same name, for compiling a language with names of its own. It keeps
+     * this registry's version, so it goes stale along with it.
+     */
+    FunctionRegistry with(List<RegisteredFunction> extra) {
+        Map<String, RegisteredFunction> merged = new HashMap<>(functions);
+        for (RegisteredFunction function : extra) {
+            add(merged, function);
+        }
+        return new FunctionRegistry(Map.copyOf(merged), version);
+    }
+
+    /** The function registered under {@code name}, or null. */
+    RegisteredFunction lookup(String name) {
+        return functions.get(name);
+    }
+
+    int version() {
+        return version;
+    }
+
+    /**
+     * Hash of every function's name and arity. Unlike {@link #version} it
+     * is the same in every process that registers the same functions.
+     */
+    long checksum() {
+        long hash = checksum;
+        if (hash == 0) {
+            // FNV-1a over the names in sorted order
+            hash = 0xCBF29CE484222325L;
+            for (RegisteredFunction function : new TreeMap<>(functions).values()) {
+                for (int i = 0; i < function.name.length(); i++) {
+                    hash = (hash ^ function.name.charAt(i)) * 0x100000001B3L;
+                }
+                hash = (hash ^ (0x100 | function.arity)) * 0x100000001B3L;
+            }
+            checksum = hash;
+        }
+        return hash;
+    }
+}
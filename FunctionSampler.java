@@ -0,0 +1,226 @@
+package com.calculator.core;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Samples a one-variable function for plotting.
+ *
+ * {@link #sample} starts from an evenly spaced grid and recursively splits
+ * any interval whose midpoint is far from the straight line between its
+ * ends, so curvature and jumps get more points while flat stretches keep
+ * few. {@link #downsample} then reduces the result to roughly one point per
+ * pixel with largest-triangle-three-buckets, which keeps peaks a plain
+ * stride would drop.
+ *
+ * Points where the function is not finite or fails (division by zero) are
+ * left out, which shows up as a straight segment across the gap.
+ */
+public final class FunctionSampler {
+
+    /** Refinement stops once an interval has been halved this many times. */
+    static final int MAX_DEPTH = 12;
+    /** Hard cap on the number of sampled points, refinement included. */
+    static final int MAX_POINTS = 200_000;
+    /** Midpoint error, relative to the sampled y range, that triggers a split. */
+    private static final double TOLERANCE = 1e-3;
+
+    private FunctionSampler() {
+    }
+
+    /**
+     * Samples {@code function} over [from, to] starting from {@code samples}
+     * evenly spaced points. Returns {x[], y[]} sorted by x. Stops early,
+     * returning what it has, once {@code cancelled} reports true.
+     */
+    public static double[][] sample(ExpressionFunction function, double from, double to,
+                                    int samples, BooleanSupplier cancelled) {
+        checkRange(from, to, samples);
+        Sampler sampler = new Sampler(function, cancelled);
+        double step = (to - from) / (samples - 1);
+        double[] gridY = new double[samples];
+        for (int i = 0; i < samples; i++) {
+            gridY[i] = sampler.at(from + i * step);
+        }
+        return refine(sampler, gridY, from, to, step);
+    }
+
+    /**
+     * Same as {@link #sample(ExpressionFunction, double, double, int, BooleanSupplier)}
+     * for a one-variable expression, but evaluates the initial grid in one
+     * column pass; refinement points use the bytecode backend.
+     */
+    public static double[][] sample(CompiledExpression expression, double from, double to,
+                                    int samples, BooleanSupplier cancelled) {
+        checkRange(from, to, samples);
+        Sampler sampler = new Sampler(expression.asFunction(Backend.BYTECODE), cancelled);
+        double step = (to - from) / (samples - 1);
+        double[] gridX = new double[samples];
+        for (int i = 0; i < samples; i++) {
+            gridX[i] = from + i * step;
+        }
+        double[] gridY = new double[samples];
+        try {
+            expression.evaluate(new double[][] {gridX}, gridY);
+            sampler.evaluations += samples;
+        } catch (ArithmeticException e) {
+            // Some point divides by zero; only that one should become a gap
+            for (int i = 0; i < samples; i++) {
+                gridY[i] = sampler.at(gridX[i]);
+            }
+        }
+        return refine(sampler, gridY, from, to, step);
+    }
+
+    private static void checkRange(double from, double to, int samples) {
+        if (!(from < to)) throw new IllegalArgumentException(
+            "Invalid range: [" + from + ", " + to + "]");
+        if (samples < 2) throw new IllegalArgumentException(
+            "At least 2 samples are needed: " + samples);
+    }
+
+    private static double[][] refine(Sampler sampler, double[] gridY, double from, double to,
+                                     double step) {
+        int samples = gridY.length;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double y : gridY) {
+            if (Double.isFinite(y)) {
+                min = Math.min(min, y);
+                max = Math.max(max, y);
+            }
+        }
+        sampler.tolerance = max > min ? (max - min) * TOLERANCE : TOLERANCE;
+
+        for (int i = 0; i < samples - 1 && !sampler.cancelled.getAsBoolean(); i++) {
+            double x0 = from + i * step;
+            sampler.add(x0, gridY[i]);
+            sampler.refine(x0, gridY[i], from + (i + 1) * step, gridY[i + 1], 0);
+        }
+        sampler.add(to, gridY[samples - 1]);
+        return sampler.result();
+    }
+
+    /**
+     * Reduces the points to at most {@code threshold} with the
+     * largest-triangle-three-buckets algorithm. The first and last points
+     * are always kept. Returns the input arrays when they already fit.
+     */
+    public static double[][] downsample(double[] xs, double[] ys, int threshold) {
+        int n = xs.length;
+        if (threshold >= n || threshold < 3) {
+            return new double[][] {xs, ys};
+        }
+
+        double[] outX = new double[threshold];
+        double[] outY = new double[threshold];
+        outX[0] = xs[0];
+        outY[0] = ys[0];
+
+        double bucketSize = (double) (n - 2) / (threshold - 2);
+        int selected = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // Average of the next bucket is the third corner of the triangle
+            int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += xs[i];
+                avgY += ys[i];
+            }
+            int nextCount = nextEnd - nextStart;
+            avgX /= nextCount;
+            avgY /= nextCount;
+
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+            double ax = xs[selected];
+            double ay = ys[selected];
+            double maxArea = -1;
+            int best = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((ax - avgX) * (ys[i] - ay) - (ax - xs[i]) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    best = i;
+                }
+            }
+            outX[bucket + 1] = xs[best];
+            outY[bucket + 1] = ys[best];
+            selected = best;
+        }
+
+        outX[threshold - 1] = xs[n - 1];
+        outY[threshold - 1] = ys[n - 1];
+        return new double[][] {outX, outY};
+    }
+
+    private static final class Sampler {
+        private final ExpressionFunction function;
+        private final BooleanSupplier cancelled;
+        private final double[] argument = new double[1];
+        double tolerance;
+
+        private double[] xs = new double[1024];
+        private double[] ys = new double[1024];
+        private int size;
+        int evaluations;
+
+        Sampler(ExpressionFunction function, BooleanSupplier cancelled) {
+            this.function = function;
+            this.cancelled = cancelled;
+        }
+
+        double at(double x) {
+            evaluations++;
+            argument[0] = x;
+            try {
+                return function.applyAsDouble(argument);
+            } catch (ArithmeticException e) {
+                return Double.NaN;
+            }
+        }
+
+        // Emits the points strictly between x0 and x1, left to right
+        void refine(double x0, double y0, double x1, double y1, int depth) {
+            if (depth >= MAX_DEPTH || evaluations >= MAX_POINTS) return;
+            if ((evaluations & 0xFF) == 0 && cancelled.getAsBoolean()) return;
+
+            double xm = (x0 + x1) / 2;
+            double ym = at(xm);
+            if (!needsSplit(y0, ym, y1)) {
+                add(xm, ym);
+                return;
+            }
+            refine(x0, y0, xm, ym, depth + 1);
+            add(xm, ym);
+            refine(xm, ym, x1, y1, depth + 1);
+        }
+
+        private boolean needsSplit(double y0, double ym, double y1) {
+            boolean f0 = Double.isFinite(y0);
+            boolean fm = Double.isFinite(ym);
+            boolean f1 = Double.isFinite(y1);
+            if (!f0 && !fm && !f1) return false;
+            // Edge of a domain or a pole: home in on where it starts
+            if (f0 != fm || fm != f1) return true;
+            return Math.abs(ym - (y0 + y1) / 2) > tolerance;
+        }
+
+        void add(double x, double y) {
+            if (!Double.isFinite(y)) return;
+            if (size == xs.length) {
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        double[][] result() {
+            return new double[][] {Arrays.copyOf(xs, size), Arrays.copyOf(ys, size)};
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.calculator.core;
+
+/**
+ * Evaluates successive versions of an expression as it is edited, for live
+ * previews. Each instance keeps the token stream of the last expression it
+ * lexed, and a new version only re-lexes from the first changed character.
+ * Versions seen before come straight from the parse cache.
+ *
+ * Not thread-safe: use each instance from one thread at a time.
+ */
+public final class IncrementalEvaluator {
+
+    private final TokenBuffer tokens = new TokenBuffer();
+
+    /** Same as {@link ExpressionEvaluator#evaluate(String, EvaluationOptions)}. */
+    public ExpressionEvaluator.EvaluationResult evaluate(String expression, EvaluationOptions options) {
+        return ExpressionEvaluator.evaluate(expression, options, tokens);
+    }
+
+    /** Tokens reused from the previous expression the last time one was lexed. */
+    public int getReusedTokenCount() {
+        return tokens.reused;
+    }
+}
@@ -7,6 +7,9 @@ import java.util.*;
  */
 public class InfixToPostfixConverter {
     
+    // Rows and columns of a literal are packed into one int of TokenBuffer.shapes
+    static final int MAX_DIMENSION = 0xFFFF;
+    
     private static final Map<String, Integer> PRECEDENCE = Map.of(
         "+", 1, "-", 1, "*", 2, "/", 2, "^", 3, "%", 2
     );
@@ -18,6 +21,11 @@ public class InfixToPostfixConverter {
         for (String token : tokens) {
             if (ExpressionEvaluator.isNumeric(token)) {
                 output.add(token);
+            } else if (ExpressionEvaluator.isFunction(token)) {
+                operators.push(token);
+            } else if (isIdentifier(token)) {
+                // Variables are operands, resolved when the postfix is compiled
+                output.add(token);
             } else if (ExpressionEvaluator.isOperator(token)) {
                 while (!operators.isEmpty() && 
                        !operators.peek().equals("(") &&
@@ -32,6 +40,14 @@ public class InfixToPostfixConverter {
                     output.add(operators.pop());
                 }
                 operators.pop(); // Remove "("
+                
+                if (!operators.isEmpty() && ExpressionEvaluator.isFunction(operators.peek())) {
+                    output.add(operators.pop());
+                }
+            } else if (token.equals(",")) {
+                while (!operators.isEmpty() && !operators.peek().equals("(")) {
+                    output.add(operators.pop());
+                }
             }
         }
         
@@ -42,6 +58,153 @@ public class InfixToPostfixConverter {
         return String.join(" ", output);
     }
     
+    /**
+     * Shunting Yard over a typed token stream. Writes the postfix order as
+     * token indexes into {@code output} and returns how many were written.
+     * Arguments of each call are counted and checked against the function's
+     * arity.
+     *
+     * A matrix literal {@code [a, b; c, d]} is treated like a call: its
+     * elements go to the output, followed by the closing bracket, whose
+     * shape is recorded in {@link TokenBuffer#shapes}.
+     */
+    static int convert(TokenBuffer tokens, int[] output) {
+        int[] operators = new int[tokens.size];
+        // For each "(" on the stack: arguments seen so far, or 0 if it is not a call.
+        // For each "[": elements in the current row
+        int[] arguments = new int[tokens.size];
+        // For each "[": rows finished so far and their length
+        int[] rows = new int[tokens.size];
+        int[] columns = new int[tokens.size];
+        int top = 0;
+        int count = 0;
+        
+        for (int i = 0; i < tokens.size; i++) {
+            switch (tokens.types[i]) {
+                case TokenBuffer.NUMBER:
+                case TokenBuffer.IDENTIFIER:
+                    output[count++] = i;
+                    break;
+                case TokenBuffer.FUNCTION:
+                    boolean call = i + 1 < tokens.size && tokens.types[i + 1] == TokenBuffer.LEFT_PAREN;
+                    if (!call && tokens.functions[i].arity != 1) {
+                        throw arityMismatch(tokens, i, 1);
+                    }
+                    operators[top++] = i;
+                    break;
+                case TokenBuffer.LEFT_PAREN:
+                    arguments[top] = i > 0 && tokens.types[i - 1] == TokenBuffer.FUNCTION ? 1 : 0;
+                    operators[top++] = i;
+                    break;
+                case TokenBuffer.OPERATOR:
+                    while (top > 0 && tokens.types[operators[top - 1]] == TokenBuffer.OPERATOR &&
+                           precedence(tokens.operator(operators[top - 1])) >=
+                           precedence(tokens.operator(i))) {
+                        output[count++] = operators[--top];
+                    }
+                    operators[top++] = i;
+                    break;
+                case TokenBuffer.LEFT_BRACKET:
+                    arguments[top] = 1;
+                    rows[top] = 0;
+                    columns[top] = 0;
+                    operators[top++] = i;
+                    break;
+                case TokenBuffer.RIGHT_PAREN:
+                    while (top > 0 && !isOpen(tokens.types[operators[top - 1]])) {
+                        output[count++] = operators[--top];
+                    }
+                    if (top == 0 || tokens.types[operators[top - 1]] != TokenBuffer.LEFT_PAREN) {
+                        throw new ExpressionSyntaxException("Mismatched parentheses", tokens.starts[i]);
+                    }
+                    top--; // Remove "("
+                    
+                    if (top > 0 && tokens.types[operators[top - 1]] == TokenBuffer.FUNCTION) {
+                        int function = operators[top - 1];
+                        if (arguments[top] != tokens.functions[function].arity) {
+                            throw arityMismatch(tokens, function, arguments[top]);
+                        }
+                        output[count++] = operators[--top];
+                    }
+                    break;
+                case TokenBuffer.COMMA:
+                    while (top > 0 && !isOpen(tokens.types[operators[top - 1]])) {
+                        output[count++] = operators[--top];
+                    }
+                    if (top == 0 || arguments[top - 1] == 0) {
+                        throw new ExpressionSyntaxException("Unexpected ','", tokens.starts[i]);
+                    }
+                    arguments[top - 1]++;
+                    break;
+                case TokenBuffer.ROW_SEPARATOR:
+                case TokenBuffer.RIGHT_BRACKET:
+                    while (top > 0 && !isOpen(tokens.types[operators[top - 1]])) {
+                        output[count++] = operators[--top];
+                    }
+                    boolean close = tokens.types[i] == TokenBuffer.RIGHT_BRACKET;
+                    if (top == 0 || tokens.types[operators[top - 1]] != TokenBuffer.LEFT_BRACKET) {
+                        throw new ExpressionSyntaxException(close ? "Mismatched brackets" : "Unexpected ';'",
+                            tokens.starts[i]);
+                    }
+                    // Every row must be as long as the first
+                    if (rows[top - 1] > 0 && arguments[top - 1] != columns[top - 1]) {
+                        throw new ExpressionSyntaxException("Matrix rows must have the same length: expected " +
+                            columns[top - 1] + " elements but got " + arguments[top - 1], tokens.starts[i]);
+                    }
+                    columns[top - 1] = arguments[top - 1];
+                    rows[top - 1]++;
+                    arguments[top - 1] = 1;
+                    if (close) {
+                        if (rows[top - 1] > MAX_DIMENSION || columns[top - 1] > MAX_DIMENSION) {
+                            throw new ExpressionSyntaxException("Matrix literal too large", tokens.starts[i]);
+                        }
+                        tokens.shapes[i] = rows[top - 1] << 16 | columns[top - 1];
+                        top--; // Remove "["
+                        output[count++] = i;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown token type: " + tokens.types[i]);
+            }
+        }
+        
+        while (top > 0) {
+            output[count++] = operators[--top];
+        }
+        
+        return count;
+    }
+    
+    private static ExpressionSyntaxException arityMismatch(TokenBuffer tokens, int function,
+                                                           int given) {
+        int arity = tokens.functions[function].arity;
+        return new ExpressionSyntaxException("Function " + tokens.text(function) + " expects " +
+            arity + " argument" + (arity == 1 ? "" : "s") + " but got " + given,
+            tokens.starts[function]);
+    }
+    
+    private static boolean isOpen(byte type) {
+        return type == TokenBuffer.LEFT_PAREN || type == TokenBuffer.LEFT_BRACKET;
+    }
+    
+    static int precedence(char op) {
+        switch (op) {
+            case '+': case '-': return 1;
+            case '*': case '/': case '%': return 2;
+            case '^': return 3;
+            default: return 0;
+        }
+    }
+    
+    private static boolean isIdentifier(String token) {
+        if (!Character.isLetter(token.charAt(0))) return false;
+        for (int i = 1; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') return false;
+        }
+        return true;
+    }
+    
     private static boolean hasHigherPrecedence(String op1, String op2) {
         return PRECEDENCE.getOrDefault(op1, 0) >= PRECEDENCE.getOrDefault(op2, 0);
     }
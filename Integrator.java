@@ -0,0 +1,202 @@
+package com.calculator.numerics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Adaptive Gauss–Kronrod quadrature.
+ *
+ * Each interval is integrated with the 15-point Kronrod rule, and the
+ * difference from the embedded 7-point Gauss rule is taken as its error.
+ * Intervals whose error is above their share of the tolerance are halved,
+ * and the halves are refined in parallel on the common fork/join pool.
+ * Pieces are summed with {@link CompensatedSum} in interval order, so the
+ * result does not depend on how the work was scheduled.
+ */
+public final class Integrator {
+
+    public static final double DEFAULT_TOLERANCE = 1e-10;
+
+    // Halvings of the whole interval before giving up on an interval
+    private static final int MAX_DEPTH = 40;
+    // Intervals below this depth are forked; deeper ones are refined in place
+    private static final int FORK_DEPTH = 10;
+
+    // Kronrod nodes on [-1, 1]; odd indices are the 7-point Gauss nodes
+    private static final double[] NODES = {
+        0.991455371120812639206854697526329, 0.949107912342758524526189684047851,
+        0.864864423359769072789712788640926, 0.741531185599394439863864773280788,
+        0.586087235467691130294144845693013, 0.405845151377397166906606412076961,
+        0.207784955007898467600689403773245, 0.0
+    };
+    private static final double[] KRONROD_WEIGHTS = {
+        0.022935322010529224963732008058970, 0.063092092629978553290700663189204,
+        0.104790010322250183839876322541518, 0.140653259715525918745189590510238,
+        0.169004726639267902826583426598550, 0.190350578064785409913256402421014,
+        0.204432940075298892414161999234649, 0.209482141084727828012999174891714
+    };
+    private static final double[] GAUSS_WEIGHTS = {
+        0.129484966168869693270611432679082, 0.279705391489276667901467771423780,
+        0.381830050505118944950369775488975, 0.417959183673469387755102040816327
+    };
+
+    private Integrator() {
+    }
+
+    public static final class Result {
+        private final double value;
+        private final double errorEstimate;
+        private final int intervals;
+        private final boolean converged;
+
+        Result(double value, double errorEstimate, int intervals, boolean converged) {
+            this.value = value;
+            this.errorEstimate = errorEstimate;
+            this.intervals = intervals;
+            this.converged = converged;
+        }
+
+        public double getValue() { return value; }
+        public double getErrorEstimate() { return errorEstimate; }
+        public int getIntervals() { return intervals; }
+        public int getEvaluations() { return intervals * 15; }
+
+        /** False when some interval reached the depth limit above its tolerance. */
+        public boolean isConverged() { return converged; }
+
+        @Override
+        public String toString() {
+            return value + " ± " + errorEstimate + " (" + intervals + " intervals)";
+        }
+    }
+
+    public static Result integrate(String expression, String variable, double a, double b) {
+        return integrate(Expressions.compile(expression, variable), a, b, DEFAULT_TOLERANCE);
+    }
+
+    public static Result integrate(DoubleUnaryOperator f, double a, double b) {
+        return integrate(f, a, b, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Integrates {@code f} over [a, b] to within {@code tolerance}, taken as
+     * absolute or relative to the result, whichever is looser. Bounds must
+     * be finite; b may be below a.
+     *
+     * @throws ArithmeticException if {@code f} is not finite at a sample point
+     */
+    public static Result integrate(DoubleUnaryOperator f, double a, double b, double tolerance) {
+        if (!Double.isFinite(a) || !Double.isFinite(b)) {
+            throw new IllegalArgumentException("Integration bounds must be finite");
+        }
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+        }
+        if (a == b) {
+            return new Result(0, 0, 0, true);
+        }
+        if (a > b) {
+            Result flipped = integrate(f, b, a, tolerance);
+            return new Result(-flipped.value, flipped.errorEstimate, flipped.intervals,
+                flipped.converged);
+        }
+
+        double[] whole = kronrod(f, a, b);
+        double target = Math.max(tolerance, tolerance * Math.abs(whole[0]));
+        Piece piece = ForkJoinPool.commonPool().invoke(
+            new Refine(f, a, b, whole[0], whole[1], 0, target / (b - a)));
+        return new Result(piece.sum.sum(), piece.error, piece.intervals, piece.converged);
+    }
+
+    /** Kronrod estimate and error over [a, b]. */
+    private static double[] kronrod(DoubleUnaryOperator f, double a, double b) {
+        double center = 0.5 * (a + b);
+        double half = 0.5 * (b - a);
+        double fc = sample(f, center);
+        double kronrod = fc * KRONROD_WEIGHTS[7];
+        double gauss = fc * GAUSS_WEIGHTS[3];
+        for (int i = 0; i < 7; i++) {
+            double dx = half * NODES[i];
+            double sum = sample(f, center - dx) + sample(f, center + dx);
+            kronrod += KRONROD_WEIGHTS[i] * sum;
+            if ((i & 1) == 1) {
+                gauss += GAUSS_WEIGHTS[i / 2] * sum;
+            }
+        }
+        return new double[] {kronrod * half, Math.abs((kronrod - gauss) * half)};
+    }
+
+    private static double sample(DoubleUnaryOperator f, double x) {
+        double y = f.applyAsDouble(x);
+        if (!Double.isFinite(y)) {
+            throw new ArithmeticException("Integrand is not finite at " + x);
+        }
+        return y;
+    }
+
+    private static final class Piece {
+        final CompensatedSum sum = new CompensatedSum();
+        double error;
+        int intervals;
+        boolean converged = true;
+
+        void add(Piece other) {
+            sum.add(other.sum);
+            error += other.error;
+            intervals += other.intervals;
+            converged &= other.converged;
+        }
+    }
+
+    private static final class Refine extends RecursiveTask<Piece> {
+        private final DoubleUnaryOperator f;
+        private final double a;
+        private final double b;
+        private final double value;
+        private final double error;
+        private final int depth;
+        // Allowed error per unit of width
+        private final double density;
+
+        Refine(DoubleUnaryOperator f, double a, double b, double value, double error, int depth,
+               double density) {
+            this.f = f;
+            this.a = a;
+            this.b = b;
+            this.value = value;
+            this.error = error;
+            this.depth = depth;
+            this.density = density;
+        }
+
+        @Override
+        protected Piece compute() {
+            double mid = 0.5 * (a + b);
+            if (error <= density * (b - a) || depth == MAX_DEPTH || mid <= a || mid >= b) {
+                Piece leaf = new Piece();
+                leaf.sum.add(value);
+                leaf.error = error;
+                leaf.intervals = 1;
+                leaf.converged = error <= density * (b - a);
+                return leaf;
+            }
+
+            double[] l = kronrod(f, a, mid);
+            double[] r = kronrod(f, mid, b);
+            Refine left = new Refine(f, a, mid, l[0], l[1], depth + 1, density);
+            Refine right = new Refine(f, mid, b, r[0], r[1], depth + 1, density);
+            Piece piece;
+            if (depth < FORK_DEPTH) {
+                left.fork();
+                Piece rightPiece = right.compute();
+                piece = left.join();
+                piece.add(rightPiece);
+            } else {
+                piece = left.compute();
+                piece.add(right.compute());
+            }
+            return piece;
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package com.calculator.core;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass lexer that validates and tokenizes an expression together.
+ *
+ * It walks the source once, emitting typed tokens (numbers already parsed)
+ * into a {@link TokenBuffer} while checking parentheses balance, operator
+ * placement and empty calls, the same rules {@link ValidationEngine} has
+ * always applied. The first problem is reported with its character offset.
+ * Matrix literal brackets count towards the parenthesis depth here; the
+ * postfix converter checks that they pair up with each other.
+ */
+final class Lexer {
+    
+    private static final ThreadLocal<TokenBuffer> BUFFER =
+        ThreadLocal.withInitial(TokenBuffer::new);
+    
+    private Lexer() {
+    }
+    
+    /**
+     * Lexes into this thread's shared buffer. The buffer is overwritten by
+     * the next call on the same thread, so callers must copy what they keep.
+     */
+    static TokenBuffer lex(String expression) {
+        return lex(expression, FunctionRegistry.current());
+    }
+    
+    /** Lexes into this thread's shared buffer, resolving names against {@code registry}. */
+    static TokenBuffer lex(String expression, FunctionRegistry registry) {
+        TokenBuffer buffer = BUFFER.get();
+        if (buffer.lexing) {
+            // A binding form compiling its body while the enclosing
+            // expression is still being lexed into the shared buffer
+            buffer = new TokenBuffer();
+        }
+        lex(expression, buffer, registry);
+        return buffer;
+    }
+    
+    static void lex(String expression, TokenBuffer tokens) {
+        lex(expression, tokens, FunctionRegistry.current());
+    }
+    
+    private static void lex(String expression, TokenBuffer tokens, FunctionRegistry registry) {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("Expression cannot be empty");
+        }
+        
+        tokens.reset(expression, registry);
+        tokens.lexing = true;
+        try {
+            lexTokens(expression, tokens, 0, expression.length(), 0, (char) 0, -1);
+        } finally {
+            tokens.lexing = false;
+        }
+    }
+    
+    /**
+     * Lexes {@code expression} into a buffer that still holds the tokens of
+     * an earlier version of it, as while the user is typing. Tokens ending
+     * before the first changed character are kept and lexing resumes after
+     * them; {@link TokenBuffer#reused} says how many were kept.
+     */
+    static void relex(String expression, TokenBuffer tokens) {
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("Expression cannot be empty");
+        }
+        
+        String old = tokens.source;
+        int kept = 0;
+        if (old != null && tokens.registry == FunctionRegistry.current()) {
+            int prefix = 0;
+            int limit = Math.min(old.length(), expression.length());
+            while (prefix < limit && old.charAt(prefix) == expression.charAt(prefix)) prefix++;
+            
+            // The character after a token decides where it ends, so it must be unchanged too
+            while (kept < tokens.size && tokens.ends[kept] < prefix) kept++;
+            // An identifier may have become a binding form, and a binding
+            // form's parenthesis and the outer variables after it, each
+            // followed by an empty comma, stand in for its body, which may
+            // have changed
+            while (kept > 0 && (tokens.types[kept - 1] == TokenBuffer.IDENTIFIER
+                    || (tokens.types[kept - 1] == TokenBuffer.COMMA
+                        && tokens.starts[kept - 1] == tokens.ends[kept - 1])
+                    || isBindingForm(tokens, kept - 1)
+                    || (tokens.types[kept - 1] == TokenBuffer.LEFT_PAREN && kept > 1
+                        && isBindingForm(tokens, kept - 2)))) {
+                kept--;
+            }
+            kept = beforeOpenReduction(tokens, kept);
+        }
+        if (kept == 0) {
+            lex(expression, tokens);
+            return;
+        }
+        
+        // Replay the kept tokens for the state the lexer had after them
+        int depth = 0;
+        int firstOpen = -1;
+        for (int t = 0; t < kept; t++) {
+            byte type = tokens.types[t];
+            if (type == TokenBuffer.LEFT_PAREN || type == TokenBuffer.LEFT_BRACKET) {
+                if (depth == 0) firstOpen = tokens.starts[t];
+                depth++;
+            } else if (type == TokenBuffer.RIGHT_PAREN || type == TokenBuffer.RIGHT_BRACKET) {
+                depth--;
+            }
+        }
+        
+        tokens.source = expression;
+        tokens.size = kept;
+        tokens.reused = kept;
+        tokens.lexing = true;
+        try {
+            lexTokens(expression, tokens, tokens.ends[kept - 1], expression.length(), depth,
+                expression.charAt(tokens.starts[kept - 1]), firstOpen);
+        } finally {
+            tokens.lexing = false;
+        }
+    }
+    
+    /**
+     * A reduction's body has no tokens, and a call to sum, min or max turns
+     * into a reduction when it gets a fourth argument, so lexing must not
+     * resume inside one. Returns the index of the outermost such call left
+     * open in the first {@code kept} tokens, or {@code kept} if there is none.
+     */
+    private static int beforeOpenReduction(TokenBuffer tokens, int kept) {
+        int depth = 0;
+        int open = -1;
+        int openDepth = 0;
+        for (int t = 0; t < kept; t++) {
+            byte type = tokens.types[t];
+            if (open < 0 && type == TokenBuffer.FUNCTION
+                    && BindingForms.isReduction(tokens.functions[t].name)) {
+                open = t;
+                openDepth = depth;
+            } else if (type == TokenBuffer.LEFT_PAREN || type == TokenBuffer.LEFT_BRACKET) {
+                depth++;
+            } else if (type == TokenBuffer.RIGHT_PAREN || type == TokenBuffer.RIGHT_BRACKET) {
+                depth--;
+                if (open >= 0 && depth == openDepth) open = -1;
+            }
+        }
+        return open < 0 ? kept : open;
+    }
+    
+    private static boolean isBindingForm(TokenBuffer tokens, int t) {
+        return tokens.types[t] == TokenBuffer.FUNCTION && BindingForms.isForm(tokens.functions[t].name);
+    }
+    
+    /**
+     * Lexes from offset {@code i} up to {@code length}. {@code previous} is
+     * the previous non-whitespace character, for operator placement checks,
+     * and {@code firstOpen} the outermost unclosed parenthesis.
+     */
+    private static void lexTokens(String expression, TokenBuffer tokens, int i, int length,
+                                  int depth, char previous, int firstOpen) {
+        
+        while (i < length) {
+            char c = expression.charAt(i);
+            
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            
+            if (isOperator(c)) {
+                if (isOperator(previous) && !(c == '-' && "*/+-".indexOf(previous) != -1)) {
+                    throw new ExpressionSyntaxException(
+                        "Consecutive operators: " + previous + c, i);
+                }
+                tokens.add(TokenBuffer.OPERATOR, i, i + 1);
+                i++;
+            } else if (c == '(') {
+                if (depth == 0) firstOpen = i;
+                depth++;
+                tokens.add(TokenBuffer.LEFT_PAREN, i, i + 1);
+                i++;
+            } else if (c == ')') {
+                if (depth == 0) {
+                    throw new ExpressionSyntaxException("Mismatched parentheses", i);
+                }
+                if (previous == '(' && expression.charAt(i - 1) == '(') {
+                    throw new ExpressionSyntaxException("Empty function call", i - 1);
+                }
+                if (previous == ',' || previous == ';') {
+                    throw new ExpressionSyntaxException("Missing argument", i);
+                }
+                depth--;
+                tokens.add(TokenBuffer.RIGHT_PAREN, i, i + 1);
+                i++;
+            } else if (c == '[') {
+                if (depth == 0) firstOpen = i;
+                depth++;
+                tokens.add(TokenBuffer.LEFT_BRACKET, i, i + 1);
+                i++;
+            } else if (c == ']') {
+                if (depth == 0) {
+                    throw new ExpressionSyntaxException("Mismatched brackets", i);
+                }
+                if (previous == '[') {
+                    throw new ExpressionSyntaxException("Empty matrix", i);
+                }
+                if (previous == ',' || previous == ';' || isOperator(previous)) {
+                    throw new ExpressionSyntaxException("Missing element", i);
+                }
+                depth--;
+                tokens.add(TokenBuffer.RIGHT_BRACKET, i, i + 1);
+                i++;
+            } else if (c == ',' || c == ';') {
+                if (previous == 0 || previous == '(' || previous == '[' || previous == ','
+                        || previous == ';' || isOperator(previous)) {
+                    throw new ExpressionSyntaxException(c == ',' ? "Missing argument" : "Missing element", i);
+                }
+                tokens.add(c == ',' ? TokenBuffer.COMMA : TokenBuffer.ROW_SEPARATOR, i, i + 1);
+                i++;
+            } else if (isDigit(c) || c == '.') {
+                i = lexNumber(expression, i, tokens);
+            } else if (Character.isLetter(c)) {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(expression.charAt(i))
+                        || expression.charAt(i) == '_')) {
+                    i++;
+                }
+                String name = expression.substring(start, i);
+                int open = skipWhitespace(expression, i);
+                if (open < length && expression.charAt(open) == '(' && BindingForms.isForm(name)) {
+                    if (depth == 0) firstOpen = open;
+                    depth++;
+                    i = lexBindingForm(expression, name, start, open, tokens);
+                    previous = '(';
+                    continue;
+                }
+                if (open < length && expression.charAt(open) == '(' && BindingForms.isReduction(name)) {
+                    int[] bounds = argumentBounds(expression, open, length);
+                    if ((bounds != null && bounds.length == 4) || tokens.registry.lookup(name) == null) {
+                        if (depth == 0) firstOpen = open;
+                        depth++;
+                        i = lexReduction(expression, name, start, open, bounds, tokens);
+                        // Resumes at the closing parenthesis, just after the body
+                        previous = ')';
+                        continue;
+                    }
+                }
+                RegisteredFunction function = tokens.registry.lookup(name);
+                if (function != null) {
+                    tokens.functions[tokens.add(TokenBuffer.FUNCTION, start, i)] = function;
+                } else {
+                    tokens.add(TokenBuffer.IDENTIFIER, start, i);
+                }
+            } else {
+                throw new ExpressionSyntaxException("Unexpected character '" + c + "'", i);
+            }
+            
+            previous = c;
+        }
+        
+        if (depth != 0) {
+            throw new ExpressionSyntaxException(expression.charAt(firstOpen) == '['
+                ? "Mismatched brackets" : "Mismatched parentheses", firstOpen);
+        }
+    }
+    
+    /**
+     * Lexes the head of {@code name(body, x, from, to)}. The body is compiled
+     * here as a function of x, and the form becomes a call on the outer
+     * variables the body uses and the two remaining arguments, whose tokens
+     * follow as usual. Returns the offset just past the comma after the
+     * variable.
+     */
+    private static int lexBindingForm(String expression, String name, int start, int open,
+                                      TokenBuffer tokens) {
+        int length = expression.length();
+        int nesting = 0;
+        int comma = -1;
+        for (int j = open + 1; j < length && comma < 0; j++) {
+            char c = expression.charAt(j);
+            if (c == '(') {
+                nesting++;
+            } else if (c == ')') {
+                if (nesting == 0) break;
+                nesting--;
+            } else if (c == ',' && nesting == 0) {
+                comma = j;
+            }
+        }
+        if (comma < 0) {
+            throw new ExpressionSyntaxException(
+                name + " expects (expression, variable, from, to)", open);
+        }
+        
+        int variableStart = skipWhitespace(expression, comma + 1);
+        int variableEnd = variableStart;
+        while (variableEnd < length && (Character.isLetterOrDigit(expression.charAt(variableEnd))
+                || expression.charAt(variableEnd) == '_')) {
+            variableEnd++;
+        }
+        if (variableEnd == variableStart || !Character.isLetter(expression.charAt(variableStart))) {
+            throw new ExpressionSyntaxException("Expected a variable name", variableStart);
+        }
+        String variable = expression.substring(variableStart, variableEnd);
+        if (tokens.registry.lookup(variable) != null || BindingForms.isForm(variable)) {
+            throw new ExpressionSyntaxException("Not a variable name: " + variable, variableStart);
+        }
+        int next = skipWhitespace(expression, variableEnd);
+        if (next >= length || expression.charAt(next) != ',') {
+            throw new ExpressionSyntaxException("Expected ','", next);
+        }
+        
+        BindingForms.Body body = BindingForms.compileBody(
+            expression.substring(open + 1, comma), variable, open + 1, tokens.registry);
+        tokens.functions[tokens.add(TokenBuffer.FUNCTION, start, start + name.length())] =
+            BindingForms.bind(name, body);
+        tokens.add(TokenBuffer.LEFT_PAREN, open, open + 1);
+        // The outer variables, each at its first use in the body, with an empty comma after it
+        for (int k = 0; k < body.outer.length; k++) {
+            int end = body.outerStarts[k] + body.outer[k].length();
+            tokens.add(TokenBuffer.IDENTIFIER, body.outerStarts[k], end);
+            tokens.add(TokenBuffer.COMMA, end, end);
+        }
+        return next + 1;
+    }
+    
+    /**
+     * Lexes the head of {@code name(i, from, to, body)}, given the offsets
+     * of its top-level commas and closing parenthesis. The body is compiled
+     * here as a function of i, and the form becomes a call on from and to,
+     * whose tokens are lexed here too, and the outer variables the body
+     * uses. Returns the offset of the closing parenthesis.
+     */
+    private static int lexReduction(String expression, String name, int start, int open,
+                                    int[] bounds, TokenBuffer tokens) {
+        if (bounds == null || bounds.length != 4) {
+            throw new ExpressionSyntaxException(
+                name + " expects (variable, from, to, expression)", open);
+        }
+        
+        int variableStart = skipWhitespace(expression, open + 1);
+        int variableEnd = variableStart;
+        while (variableEnd < bounds[0] && (Character.isLetterOrDigit(expression.charAt(variableEnd))
+                || expression.charAt(variableEnd) == '_')) {
+            variableEnd++;
+        }
+        if (variableEnd == variableStart || !Character.isLetter(expression.charAt(variableStart))
+                || skipWhitespace(expression, variableEnd) != bounds[0]) {
+            throw new ExpressionSyntaxException("Expected a variable name", variableStart);
+        }
+        String variable = expression.substring(variableStart, variableEnd);
+        if (tokens.registry.lookup(variable) != null || BindingForms.isForm(variable)
+                || BindingForms.isReduction(variable)) {
+            throw new ExpressionSyntaxException("Not a variable name: " + variable, variableStart);
+        }
+        
+        BindingForms.Body body = BindingForms.compileBody(
+            expression.substring(bounds[2] + 1, bounds[3]), variable, bounds[2] + 1, tokens.registry);
+        tokens.functions[tokens.add(TokenBuffer.FUNCTION, start, start + name.length())] =
+            BindingForms.bind(name, body);
+        tokens.add(TokenBuffer.LEFT_PAREN, open, open + 1);
+        lexTokens(expression, tokens, bounds[0] + 1, bounds[2], 0, '(', -1);
+        // The outer variables, each at its first use in the body, with an empty comma before it
+        for (int k = 0; k < body.outer.length; k++) {
+            tokens.add(TokenBuffer.COMMA, body.outerStarts[k], body.outerStarts[k]);
+            tokens.add(TokenBuffer.IDENTIFIER, body.outerStarts[k],
+                body.outerStarts[k] + body.outer[k].length());
+        }
+        return bounds[3];
+    }
+    
+    /**
+     * Offsets of the top-level commas between the parenthesis at
+     * {@code open} and its closing one, followed by the closing one's; null
+     * if it is not closed before {@code length}.
+     */
+    private static int[] argumentBounds(String expression, int open, int length) {
+        int[] bounds = new int[4];
+        int count = 0;
+        int nesting = 0;
+        for (int j = open + 1; j < length; j++) {
+            char c = expression.charAt(j);
+            if (c == '(' || c == '[') {
+                nesting++;
+            } else if ((c == ')' || c == ']') && nesting > 0) {
+                nesting--;
+            } else if ((c == ',' || c == ')') && nesting == 0) {
+                if (count == bounds.length) bounds = Arrays.copyOf(bounds, count * 2);
+                bounds[count++] = j;
+                if (c == ')') return Arrays.copyOf(bounds, count);
+            }
+        }
+        return null;
+    }
+    
+    private static int skipWhitespace(String expression, int i) {
+        while (i < expression.length() && Character.isWhitespace(expression.charAt(i))) i++;
+        return i;
+    }
+    
+    private static int lexNumber(String expression, int start, TokenBuffer tokens) {
+        int length = expression.length();
+        int i = start;
+        boolean digits = false;
+        
+        while (i < length && isDigit(expression.charAt(i))) { i++; digits = true; }
+        if (i < length && expression.charAt(i) == '.') {
+            i++;
+            while (i < length && isDigit(expression.charAt(i))) { i++; digits = true; }
+        }
+        if (!digits) {
+            throw new ExpressionSyntaxException("Malformed number", start);
+        }
+        if (i < length && (expression.charAt(i) == 'e' || expression.charAt(i) == 'E')) {
+            int mark = i++;
+            if (i < length && (expression.charAt(i) == '+' || expression.charAt(i) == '-')) i++;
+            int exponentStart = i;
+            while (i < length && isDigit(expression.charAt(i))) i++;
+            if (i == exponentStart) {
+                throw new ExpressionSyntaxException("Malformed number", mark);
+            }
+        }
+        if (i < length && (Character.isLetter(expression.charAt(i)) || expression.charAt(i) == '.')) {
+            throw new ExpressionSyntaxException("Malformed number", start);
+        }
+        
+        int index = tokens.add(TokenBuffer.NUMBER, start, i);
+        // Double.parseDouble on the slice keeps values bit-identical to before
+        tokens.numbers[index] = Double.parseDouble(expression.substring(start, i));
+        return i;
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static boolean isOperator(char c) {
+        return c != 0 && "+-*/^%".indexOf(c) != -1;
+    }
+}
@@ -0,0 +1,151 @@
+package com.calculator.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Size-bounded {@link ParseCache} with approximately least-recently-used
+ * eviction.
+ *
+ * Keys are hashed across up to 16 segments, each an access-ordered
+ * {@link LinkedHashMap} behind its own lock with an equal share of the entry
+ * and estimated memory budgets. A hit reorders one segment and a full
+ * segment drops its eldest entry in constant time, so threads working on
+ * different keys rarely meet; recency is only exact within a segment.
+ * Compiling a miss happens outside the lock.
+ */
+public final class LruParseCache implements ParseCache {
+    
+    private static final int MAX_SEGMENTS = 16;
+    // Segments are only split off while each keeps at least this many entries
+    private static final int MIN_SEGMENT_ENTRIES = 8;
+    
+    private final int maxEntries;
+    private final long maxBytes;
+    
+    private final Segment[] segments;
+    private final Counters counters = new Counters();
+    
+    public LruParseCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0) throw new IllegalArgumentException(
+            "maxEntries must be positive: " + maxEntries);
+        if (maxBytes <= 0) throw new IllegalArgumentException(
+            "maxBytes must be positive: " + maxBytes);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        
+        int count = Integer.highestOneBit(
+            Math.max(1, Math.min(MAX_SEGMENTS, maxEntries / MIN_SEGMENT_ENTRIES)));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // Spread the remainders so the shares add up to the totals exactly
+            segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0),
+                Math.max(1, maxBytes / count + (i < maxBytes % count ? 1 : 0)));
+        }
+    }
+    
+    @Override
+    public CompiledExpression get(String key, Function<String, CompiledExpression> compiler) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(key);
+            if (entry != null && !entry.value.isStale()) {
+                counters.hits.increment();
+                return entry.value;
+            }
+        }
+        
+        counters.misses.increment();
+        CompiledExpression value = compiler.apply(key);
+        Entry fresh = new Entry(value, estimateBytes(key, value));
+        synchronized (segment) {
+            Entry previous = segment.entries.put(key, fresh);
+            segment.bytes += fresh.bytes - (previous == null ? 0 : previous.bytes);
+            
+            Iterator<Entry> eldest = segment.entries.values().iterator();
+            while ((segment.entries.size() > segment.maxEntries || segment.bytes > segment.maxBytes)
+                    && eldest.hasNext()) {
+                segment.bytes -= eldest.next().bytes;
+                eldest.remove();
+                counters.evictions.increment();
+            }
+        }
+        return value;
+    }
+    
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+    
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+                segment.bytes = 0;
+            }
+        }
+    }
+    
+    @Override
+    public CacheStats getStats() {
+        int size = 0;
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+                bytes += segment.bytes;
+            }
+        }
+        return counters.snapshot(size, bytes);
+    }
+    
+    public int getMaxEntries() { return maxEntries; }
+    public long getMaxBytes() { return maxBytes; }
+    
+    // Rough retained size: key chars plus the decoded program and token arrays
+    private static long estimateBytes(String key, CompiledExpression value) {
+        PostfixProgram program = value.getProgram();
+        return 64
+            + 2L * key.length()
+            + 12L * program.code.length
+            + 8L * program.constants.length
+            + 8L * program.functions.length
+            + 8L * value.getTokenCount();
+    }
+    
+    private static final class Segment {
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        final int maxEntries;
+        final long maxBytes;
+        long bytes;
+        
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+    }
+    
+    private static final class Entry {
+        final CompiledExpression value;
+        final long bytes;
+        
+        Entry(CompiledExpression value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+    
+    static final class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+        
+        CacheStats snapshot(int size, long bytes) {
+            return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size, bytes);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.calculator.core;
+
+import java.util.Arrays;
+
+/**
+ * Immutable matrix of doubles, stored row-major in one flat array. Vectors
+ * are 1×n or n×1 matrices and plain numbers are 1×1.
+ */
+public final class Matrix {
+
+    private final int rows;
+    private final int columns;
+    private final double[] data;
+
+    // Takes ownership of data
+    Matrix(int rows, int columns, double[] data) {
+        this.rows = rows;
+        this.columns = columns;
+        this.data = data;
+    }
+
+    /** A rows×columns matrix of {@code values}, given row by row. */
+    public static Matrix of(int rows, int columns, double... values) {
+        if (rows <= 0 || columns <= 0) {
+            throw new IllegalArgumentException("Matrix must have at least one row and column, got " +
+                rows + "x" + columns);
+        }
+        if ((long) rows * columns != values.length) {
+            throw new IllegalArgumentException("A " + rows + "x" + columns + " matrix needs " +
+                (long) rows * columns + " values, got " + values.length);
+        }
+        return new Matrix(rows, columns, values.clone());
+    }
+
+    /** A row vector. */
+    public static Matrix vector(double... values) {
+        return of(1, values.length, values);
+    }
+
+    public static Matrix scalar(double value) {
+        return new Matrix(1, 1, new double[] {value});
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public boolean isScalar() {
+        return rows == 1 && columns == 1;
+    }
+
+    public double get(int row, int column) {
+        if (row < 0 || row >= rows || column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("(" + row + ", " + column + ") outside " +
+                rows + "x" + columns);
+        }
+        return data[row * columns + column];
+    }
+
+    /** The single value of a 1×1 matrix. */
+    public double toScalar() {
+        if (!isScalar()) {
+            throw new IllegalStateException("Not a scalar: " + rows + "x" + columns);
+        }
+        return data[0];
+    }
+
+    /** A copy of the values, row-major. */
+    public double[] toArray() {
+        return data.clone();
+    }
+
+    double[] data() {
+        return data;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Matrix)) return false;
+        Matrix matrix = (Matrix) other;
+        return rows == matrix.rows && columns == matrix.columns && Arrays.equals(data, matrix.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * rows + columns) + Arrays.hashCode(data);
+    }
+
+    /** The literal syntax, e.g. {@code [1.0, 2.0; 3.0, 4.0]}; a scalar prints as a number. */
+    @Override
+    public String toString() {
+        if (isScalar()) return String.valueOf(data[0]);
+        StringBuilder text = new StringBuilder("[");
+        for (int r = 0; r < rows; r++) {
+            if (r > 0) text.append("; ");
+            for (int c = 0; c < columns; c++) {
+                if (c > 0) text.append(", ");
+                text.append(data[r * columns + c]);
+            }
+        }
+        return text.append(']').toString();
+    }
+}
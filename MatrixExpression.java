@@ -0,0 +1,397 @@
+package com.calculator.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An expression over matrices, compiled once and evaluated with
+ * {@link Matrix} values bound to its variables.
+ *
+ * The language is the scalar one plus matrix literals such as
+ * {@code [1, 2; 3, 4]}, rows separated by semicolons. Every value is a
+ * matrix and plain numbers are 1×1:
+ * <ul>
+ *   <li>{@code +}, {@code -}, {@code /}, {@code %} and {@code ^} work element
+ *       by element, and a 1×1 operand pairs with every element of the other</li>
+ *   <li>{@code *} is the matrix product, or scales when one side is 1×1</li>
+ *   <li>{@code hadamard(a, b)} is the element-wise product</li>
+ *   <li>{@code dot(a, b)}, {@code sum(a)} and {@code norm(a)} give numbers;
+ *       norm is the Euclidean norm of all elements</li>
+ *   <li>{@code transpose(a)} swaps rows and columns</li>
+ *   <li>every other function is applied element by element</li>
+ * </ul>
+ * The matrix function names mean something only here; scalar expressions
+ * are free to use them as variables.
+ *
+ * Each thread keeps one set of result buffers, one per instruction, shared
+ * by every matrix expression it evaluates and grown as needed, so
+ * evaluating with operands of unchanged shape allocates only the returned
+ * matrix. Large products are tiled and split across the common fork/join
+ * pool. Instances are immutable and safe to share between threads.
+ */
+public final class MatrixExpression {
+
+    // Builds a literal from the numbers on the stack; operand indexes shapes
+    private static final int BUILD = PostfixProgram.RELOAD + 1;
+
+    // Matrix operations, resolved only when compiling matrix expressions;
+    // call() recognizes them by identity
+    private static final RegisteredFunction DOT = RegisteredFunction.binary("dot", (a, b) -> a * b, true);
+    private static final RegisteredFunction HADAMARD = RegisteredFunction.binary("hadamard", (a, b) -> a * b, true);
+    private static final RegisteredFunction TRANSPOSE = RegisteredFunction.unary("transpose", v -> v, true);
+    private static final RegisteredFunction SUM = RegisteredFunction.unary("sum", v -> v, true);
+    private static final RegisteredFunction NORM = RegisteredFunction.builtIn("norm", "abs", (double v) -> Math.abs(v));
+    private static final List<RegisteredFunction> OPERATIONS = List.of(DOT, HADAMARD, TRANSPOSE, SUM, NORM);
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+    // The registry the operations were last added to, and the result
+    private static volatile Registries registries = new Registries(null, null);
+
+    private final String expression;
+    private final String[] variableNames;
+    private final int[] code;
+    private final double[] constants;
+    private final RegisteredFunction[] functions;
+    private final int[] shapes;
+    private final int maxStack;
+    private final int maxArity;
+    private final int functionVersion;
+
+    private MatrixExpression(String expression, String[] variableNames, int[] code,
+                             double[] constants, RegisteredFunction[] functions, int[] shapes,
+                             int maxStack, int maxArity, int functionVersion) {
+        this.expression = expression;
+        this.variableNames = variableNames;
+        this.code = code;
+        this.constants = constants;
+        this.functions = functions;
+        this.shapes = shapes;
+        this.maxStack = maxStack;
+        this.maxArity = maxArity;
+        this.functionVersion = functionVersion;
+    }
+
+    static MatrixExpression compile(String expression, String[] variableNames) {
+        TokenBuffer tokens = Lexer.lex(expression, registry());
+        int[] postfix = new int[tokens.size];
+        int count = InfixToPostfixConverter.convert(tokens, postfix);
+
+        int[] code = new int[count];
+        double[] constants = new double[count];
+        RegisteredFunction[] functions = new RegisteredFunction[count];
+        int[] shapes = new int[count];
+        int constantCount = 0;
+        int functionCount = 0;
+        int shapeCount = 0;
+        int depth = 0;
+        int maxStack = 0;
+        int maxArity = 0;
+
+        for (int i = 0; i < count; i++) {
+            int t = postfix[i];
+            int start = tokens.starts[t];
+            switch (tokens.types[t]) {
+                case TokenBuffer.NUMBER:
+                    constants[constantCount] = tokens.numbers[t];
+                    code[i] = instruction(PostfixProgram.CONST, constantCount++);
+                    break;
+                case TokenBuffer.FUNCTION:
+                    RegisteredFunction function = tokens.functions[t];
+                    if (depth < function.arity) throw new ExpressionSyntaxException(
+                        "Missing argument for function: " + tokens.text(t), start);
+                    depth -= function.arity;
+                    maxArity = Math.max(maxArity, function.arity);
+                    functions[functionCount] = function;
+                    code[i] = instruction(PostfixProgram.CALL, functionCount++);
+                    break;
+                case TokenBuffer.OPERATOR:
+                    if (depth < 2) throw new ExpressionSyntaxException(
+                        "Insufficient operands for: " + tokens.operator(t), start);
+                    depth -= 2;
+                    code[i] = instruction(PostfixProgram.operatorOpcode(tokens.operator(t)), 0);
+                    break;
+                case TokenBuffer.RIGHT_BRACKET:
+                    int shape = tokens.shapes[t];
+                    // The converter counted the elements, so they are all on the stack
+                    depth -= (shape >>> 16) * (shape & 0xFFFF);
+                    shapes[shapeCount] = shape;
+                    code[i] = instruction(BUILD, shapeCount++);
+                    break;
+                default:
+                    String name = tokens.text(t);
+                    int slot = Arrays.asList(variableNames).indexOf(name);
+                    if (slot < 0) throw new ExpressionSyntaxException(
+                        "Unknown variable: " + name, start);
+                    code[i] = instruction(PostfixProgram.LOAD, slot);
+            }
+            depth++;
+            maxStack = Math.max(maxStack, depth);
+        }
+        if (depth != 1) {
+            throw new IllegalArgumentException("Invalid expression");
+        }
+
+        return new MatrixExpression(expression, variableNames.clone(), code,
+            Arrays.copyOf(constants, constantCount), Arrays.copyOf(functions, functionCount),
+            Arrays.copyOf(shapes, shapeCount), maxStack, maxArity, tokens.registry.version());
+    }
+
+    // The current registry plus the matrix operations
+    private static FunctionRegistry registry() {
+        FunctionRegistry current = FunctionRegistry.current();
+        Registries last = registries;
+        if (last.base != current) {
+            last = new Registries(current, current.with(OPERATIONS));
+            registries = last;
+        }
+        return last.matrix;
+    }
+
+    private static int instruction(int opcode, int operand) {
+        return opcode | (operand << 8);
+    }
+
+    /**
+     * Evaluates the expression. Values are bound to the variable names
+     * given at compile time, in the same order.
+     *
+     * @throws IllegalArgumentException if operand shapes do not fit an operation
+     * @throws ArithmeticException on division by zero
+     */
+    public Matrix evaluate(Matrix... values) {
+        if (values.length != variableNames.length) {
+            throw new IllegalArgumentException("Expected " + variableNames.length +
+                " variable values but got " + values.length);
+        }
+        Scratch s = SCRATCH.get();
+        if (s.busy) {
+            // A function called during evaluation evaluating a matrix expression
+            s = new Scratch();
+        }
+        s.busy = true;
+        try {
+            s.fit(code.length, maxStack, maxArity);
+            Slot result = run(values, s);
+            int size = result.size();
+            return new Matrix(result.rows, result.columns, Arrays.copyOf(result.data, size));
+        } finally {
+            s.release(code.length);
+            s.busy = false;
+        }
+    }
+
+    private Slot run(Matrix[] values, Scratch s) {
+        Slot[] stack = s.stack;
+        int top = 0;
+        for (int i = 0; i < code.length; i++) {
+            int operand = PostfixProgram.operand(code[i]);
+            Slot out = s.results[i];
+            switch (PostfixProgram.opcode(code[i])) {
+                case PostfixProgram.CONST:
+                    out.allocate(1, 1)[0] = constants[operand];
+                    break;
+                case PostfixProgram.LOAD:
+                    Matrix value = values[operand];
+                    out.view(value.getRows(), value.getColumns(), value.data());
+                    break;
+                case BUILD:
+                    int rows = shapes[operand] >>> 16;
+                    int columns = shapes[operand] & 0xFFFF;
+                    top -= rows * columns;
+                    double[] data = out.allocate(rows, columns);
+                    for (int e = 0; e < rows * columns; e++) {
+                        Slot element = stack[top + e];
+                        if (!element.isScalar()) throw new IllegalArgumentException(
+                            "Matrix literal elements must be numbers, got a " + element.shape());
+                        data[e] = element.data[0];
+                    }
+                    break;
+                case PostfixProgram.CALL:
+                    RegisteredFunction function = functions[operand];
+                    top -= function.arity;
+                    call(function, stack, top, out, s.arguments);
+                    break;
+                default:
+                    top -= 2;
+                    operator(PostfixProgram.opcode(code[i]), stack[top], stack[top + 1], out);
+            }
+            stack[top++] = out;
+        }
+        return stack[0];
+    }
+
+    private static void operator(int opcode, Slot a, Slot b, Slot out) {
+        if (opcode == PostfixProgram.MUL && !a.isScalar() && !b.isScalar()) {
+            if (a.columns != b.rows) {
+                throw new IllegalArgumentException("Cannot multiply " + a.shape() + " by " + b.shape());
+            }
+            double[] data = out.allocate(a.rows, b.columns);
+            MatrixKernels.multiply(a.data, b.data, data, a.rows, a.columns, b.columns);
+            return;
+        }
+        elementwise(opcode, a, b, out, PostfixProgram.operatorSymbol(opcode));
+    }
+
+    private static void elementwise(int opcode, Slot a, Slot b, Slot out, String name) {
+        Slot shape = a.isScalar() ? b : a;
+        if (!a.isScalar() && !b.isScalar() && (a.rows != b.rows || a.columns != b.columns)) {
+            throw new IllegalArgumentException("Shape mismatch for " + name + ": " + a.shape() +
+                " and " + b.shape());
+        }
+        double[] data = out.allocate(shape.rows, shape.columns);
+        MatrixKernels.elementwise(opcode, a.data, a.isScalar(), b.data, b.isScalar(), data,
+            shape.size());
+    }
+
+    private static void call(RegisteredFunction function, Slot[] stack, int from, Slot out,
+                             double[] arguments) {
+        if (function == TRANSPOSE) {
+            Slot a = stack[from];
+            MatrixKernels.transpose(a.data, out.allocate(a.columns, a.rows), a.rows, a.columns);
+        } else if (function == SUM) {
+            out.allocate(1, 1)[0] = MatrixKernels.sum(stack[from].data, stack[from].size());
+        } else if (function == NORM) {
+            out.allocate(1, 1)[0] = MatrixKernels.norm(stack[from].data, stack[from].size());
+        } else if (function == DOT) {
+            Slot a = stack[from];
+            Slot b = stack[from + 1];
+            if (a.size() != b.size()) {
+                throw new IllegalArgumentException("dot needs operands of the same length, got " +
+                    a.shape() + " and " + b.shape());
+            }
+            out.allocate(1, 1)[0] = MatrixKernels.dot(a.data, b.data, a.size());
+        } else if (function == HADAMARD) {
+            elementwise(PostfixProgram.MUL, stack[from], stack[from + 1], out, function.name);
+        } else {
+            mapElements(function, stack, from, out, arguments);
+        }
+    }
+
+    // Any other function, once per element; 1×1 arguments pair with every element
+    private static void mapElements(RegisteredFunction function, Slot[] stack, int from, Slot out,
+                                    double[] arguments) {
+        Slot shape = stack[from];
+        for (int j = 0; j < function.arity; j++) {
+            Slot argument = stack[from + j];
+            if (argument.isScalar()) continue;
+            if (!shape.isScalar() && (argument.rows != shape.rows || argument.columns != shape.columns)) {
+                throw new IllegalArgumentException("Shape mismatch for " + function.name + ": " +
+                    shape.shape() + " and " + argument.shape());
+            }
+            shape = argument;
+        }
+        int size = shape.size();
+        double[] data = out.allocate(shape.rows, shape.columns);
+        if (function.arity == 1) {
+            double[] a = stack[from].data;
+            for (int e = 0; e < size; e++) {
+                data[e] = function.apply(a[e]);
+            }
+            return;
+        }
+        for (int e = 0; e < size; e++) {
+            for (int j = 0; j < function.arity; j++) {
+                Slot argument = stack[from + j];
+                arguments[j] = argument.data[argument.isScalar() ? 0 : e];
+            }
+            data[e] = function.apply(arguments, 0);
+        }
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public String[] getVariableNames() {
+        return variableNames.clone();
+    }
+
+    /** Whether functions were registered since compiling, so names may now resolve differently. */
+    boolean isStale() {
+        return functionVersion != ExpressionEvaluator.functionVersion();
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /** A value on the stack: an instruction's own buffer, or a variable's data. */
+    private static final class Slot {
+        int rows;
+        int columns;
+        double[] data;
+        // Kept across evaluations; data points here unless the slot is a view
+        private double[] buffer;
+
+        double[] allocate(int rows, int columns) {
+            this.rows = rows;
+            this.columns = columns;
+            int size = rows * columns;
+            if (buffer == null || buffer.length < size) {
+                buffer = new double[size];
+            }
+            data = buffer;
+            return buffer;
+        }
+
+        void view(int rows, int columns, double[] data) {
+            this.rows = rows;
+            this.columns = columns;
+            this.data = data;
+        }
+
+        // Drops a view so the thread's buffers do not keep a caller's matrix alive
+        void release() {
+            data = buffer;
+        }
+
+        boolean isScalar() {
+            return rows == 1 && columns == 1;
+        }
+
+        int size() {
+            return rows * columns;
+        }
+
+        String shape() {
+            return rows + "x" + columns;
+        }
+    }
+
+    /** One thread's buffers, sized for the largest expression it has evaluated. */
+    private static final class Scratch {
+        Slot[] results = new Slot[0];
+        Slot[] stack = new Slot[0];
+        double[] arguments = new double[0];
+        boolean busy;
+
+        void fit(int instructions, int maxStack, int maxArity) {
+            if (results.length < instructions) {
+                int old = results.length;
+                results = Arrays.copyOf(results, instructions);
+                for (int i = old; i < instructions; i++) {
+                    results[i] = new Slot();
+                }
+            }
+            if (stack.length < maxStack) stack = new Slot[maxStack];
+            if (arguments.length < maxArity) arguments = new double[maxArity];
+        }
+
+        void release(int instructions) {
+            for (int i = 0; i < Math.min(instructions, results.length); i++) {
+                results[i].release();
+            }
+        }
+    }
+
+    private static final class Registries {
+        final FunctionRegistry base;
+        final FunctionRegistry matrix;
+
+        Registries(FunctionRegistry base, FunctionRegistry matrix) {
+            this.base = base;
+            this.matrix = matrix;
+        }
+    }
+}
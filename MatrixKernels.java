@@ -0,0 +1,177 @@
+package com.calculator.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loops over flat row-major buffers for {@link MatrixExpression}. Every
+ * kernel writes into a buffer the caller owns, so nothing here allocates
+ * except the fork/join tasks of a large multiply.
+ */
+final class MatrixKernels {
+
+    // Tile edge for multiply and transpose: three 64×64 tiles of doubles fit in L2
+    static final int TILE = 64;
+    // Multiply-adds below which a product stays on the caller's thread
+    static final long PARALLEL_WORK = 1L << 21;
+
+    private MatrixKernels() {
+    }
+
+    /**
+     * {@code c = a × b} for an n×k {@code a} and k×m {@code b}. Tiled so each
+     * tile of {@code b} is reused from cache across a tile of rows, with the
+     * innermost loop running along rows of {@code b} and {@code c}. Every
+     * element accumulates in the same order however the rows are split, so
+     * results do not depend on the number of threads.
+     */
+    static void multiply(double[] a, double[] b, double[] c, int n, int k, int m) {
+        if ((long) n * k * m >= PARALLEL_WORK && n > TILE) {
+            ForkJoinPool.commonPool().invoke(new MultiplyRows(a, b, c, k, m, 0, n));
+        } else {
+            multiplyRows(a, b, c, k, m, 0, n);
+        }
+    }
+
+    private static void multiplyRows(double[] a, double[] b, double[] c, int k, int m,
+                                     int from, int to) {
+        for (int i = from * m; i < to * m; i++) {
+            c[i] = 0;
+        }
+        for (int i0 = from; i0 < to; i0 += TILE) {
+            int iEnd = Math.min(i0 + TILE, to);
+            for (int p0 = 0; p0 < k; p0 += TILE) {
+                int pEnd = Math.min(p0 + TILE, k);
+                for (int j0 = 0; j0 < m; j0 += TILE) {
+                    int jEnd = Math.min(j0 + TILE, m);
+                    for (int i = i0; i < iEnd; i++) {
+                        int row = i * m;
+                        for (int p = p0; p < pEnd; p++) {
+                            double aip = a[i * k + p];
+                            int column = p * m;
+                            for (int j = j0; j < jEnd; j++) {
+                                c[row + j] += aip * b[column + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Writes the transpose of a rows×columns {@code a} into {@code out}, tile by tile. */
+    static void transpose(double[] a, double[] out, int rows, int columns) {
+        for (int r0 = 0; r0 < rows; r0 += TILE) {
+            int rEnd = Math.min(r0 + TILE, rows);
+            for (int c0 = 0; c0 < columns; c0 += TILE) {
+                int cEnd = Math.min(c0 + TILE, columns);
+                for (int r = r0; r < rEnd; r++) {
+                    for (int c = c0; c < cEnd; c++) {
+                        out[c * rows + r] = a[r * columns + c];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies an arithmetic opcode element by element. A one-element
+     * operand, flagged by {@code aScalar} or {@code bScalar}, is paired
+     * with every element of the other.
+     */
+    static void elementwise(int opcode, double[] a, boolean aScalar, double[] b, boolean bScalar,
+                            double[] out, int size) {
+        int aStep = aScalar ? 0 : 1;
+        int bStep = bScalar ? 0 : 1;
+        switch (opcode) {
+            case PostfixProgram.ADD:
+                for (int i = 0; i < size; i++) out[i] = a[i * aStep] + b[i * bStep];
+                break;
+            case PostfixProgram.SUB:
+                for (int i = 0; i < size; i++) out[i] = a[i * aStep] - b[i * bStep];
+                break;
+            case PostfixProgram.MUL:
+                for (int i = 0; i < size; i++) out[i] = a[i * aStep] * b[i * bStep];
+                break;
+            case PostfixProgram.DIV:
+                for (int i = 0; i < size; i++) {
+                    if (b[i * bStep] == 0) throw new ArithmeticException("Division by zero");
+                }
+                for (int i = 0; i < size; i++) out[i] = a[i * aStep] / b[i * bStep];
+                break;
+            case PostfixProgram.POW:
+                for (int i = 0; i < size; i++) out[i] = Math.pow(a[i * aStep], b[i * bStep]);
+                break;
+            case PostfixProgram.MOD:
+                for (int i = 0; i < size; i++) out[i] = a[i * aStep] % b[i * bStep];
+                break;
+            default:
+                throw new IllegalArgumentException("Not an operator: " + opcode);
+        }
+    }
+
+    static double dot(double[] a, double[] b, int size) {
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += a[i] * b[i];
+        }
+        return total;
+    }
+
+    static double sum(double[] a, int size) {
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += a[i];
+        }
+        return total;
+    }
+
+    /** Euclidean (Frobenius) norm, scaled by the largest element so squares cannot overflow. */
+    static double norm(double[] a, int size) {
+        double scale = 0;
+        for (int i = 0; i < size; i++) {
+            scale = Math.max(scale, Math.abs(a[i]));
+        }
+        if (scale == 0 || Double.isInfinite(scale) || Double.isNaN(scale)) {
+            return scale;
+        }
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            double v = a[i] / scale;
+            total += v * v;
+        }
+        return scale * Math.sqrt(total);
+    }
+
+    private static final class MultiplyRows extends RecursiveAction {
+        private final double[] a;
+        private final double[] b;
+        private final double[] c;
+        private final int k;
+        private final int m;
+        private final int from;
+        private final int to;
+
+        MultiplyRows(double[] a, double[] b, double[] c, int k, int m, int from, int to) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.k = k;
+            this.m = m;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) (to - from) * k * m < PARALLEL_WORK || to - from <= TILE) {
+                multiplyRows(a, b, c, k, m, from, to);
+                return;
+            }
+            // Split on a tile boundary so no tile of rows straddles two tasks
+            int mid = from + Math.max(1, (to - from) / 2 / TILE) * TILE;
+            invokeAll(new MultiplyRows(a, b, c, k, m, from, mid),
+                new MultiplyRows(a, b, c, k, m, mid, to));
+        }
+    }
+}
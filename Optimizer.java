@@ -0,0 +1,160 @@
+package com.calculator.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rewrites a {@link PostfixProgram} before it is executed.
+ *
+ * <ul>
+ *   <li>Constant subexpressions are folded, using the same arithmetic as
+ *       the stack machine. Only built-in functions are folded, since user
+ *       functions may not be pure, and division by a constant zero is left
+ *       in place so it still fails at evaluation time.</li>
+ *   <li>Identities that hold for every IEEE-754 value, signed zeros and NaN
+ *       included: {@code x*1}, {@code 1*x}, {@code x/1}, {@code x^1},
+ *       {@code x-0} and {@code x+(-0)}. {@code x+0} is not rewritten because
+ *       it turns {@code -0.0} into {@code 0.0}.</li>
+ *   <li>{@code x^2} becomes {@code x*x}. Higher powers are left alone: a
+ *       chain of multiplications rounds differently from {@link Math#pow}
+ *       for about a third of all {@code x^3} and half of all
+ *       {@code x^4}.</li>
+ *   <li>Repeated subexpressions are computed once, see
+ *       {@link SubexpressionSharing}.</li>
+ * </ul>
+ *
+ * Each rewrite is described in the list passed in, so traces can show it.
+ */
+final class Optimizer {
+
+    private Optimizer() {
+    }
+
+    static PostfixProgram optimize(PostfixProgram program, List<String> rewrites) {
+        ExpressionNode root = ExpressionNode.fromProgram(program);
+        ExpressionNode optimized = rewrite(root, rewrites);
+
+        PostfixProgram.Builder builder =
+            new PostfixProgram.Builder(program.getSource(), program.variableCount);
+        builder.deduplicatedNodes = SubexpressionSharing.emit(optimized, builder, rewrites);
+        return builder.build();
+    }
+
+    // Bottom-up over the post-order, keeping rewritten children on a stack
+    private static ExpressionNode rewrite(ExpressionNode root, List<String> rewrites) {
+        ExpressionNode[] stack = new ExpressionNode[16];
+        int top = 0;
+        for (ExpressionNode node : ExpressionNode.postOrder(root)) {
+            ExpressionNode result;
+            switch (node.kind) {
+                case PostfixProgram.CONST:
+                case PostfixProgram.LOAD:
+                    result = node;
+                    break;
+                case PostfixProgram.CALL: {
+                    ExpressionNode[] arguments = node.arguments;
+                    top -= arguments.length;
+                    for (int i = 0; i < arguments.length; i++) {
+                        ExpressionNode argument = stack[top + i];
+                        if (argument != node.arguments[i]) {
+                            if (arguments == node.arguments) arguments = arguments.clone();
+                            arguments[i] = argument;
+                        }
+                    }
+                    result = rewriteCall(node, arguments, rewrites);
+                    break;
+                }
+                default:
+                    top -= 2;
+                    result = rewriteBinary(node, stack[top], stack[top + 1], rewrites);
+            }
+            if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+            stack[top++] = result;
+        }
+        return stack[0];
+    }
+
+    private static ExpressionNode rewriteCall(ExpressionNode node, ExpressionNode[] arguments,
+                                              List<String> rewrites) {
+        ExpressionNode call = arguments == node.arguments ? node : node.withArguments(arguments);
+        if (!node.function.isBuiltIn()) {
+            return call;
+        }
+
+        double[] values = new double[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            if (!arguments[i].isConstant()) return call;
+            values[i] = arguments[i].value;
+        }
+        ExpressionNode folded = ExpressionNode.constant(node.function.apply(values, 0));
+        rewrites.add("Folded " + call.describe() + " → " + folded.describe());
+        return folded;
+    }
+
+    private static ExpressionNode rewriteBinary(ExpressionNode node, ExpressionNode a,
+                                                ExpressionNode b, List<String> rewrites) {
+        ExpressionNode current = a == node.left && b == node.right ? node : node.withChildren(a, b);
+
+        if (a.isConstant() && b.isConstant() && !(node.kind == PostfixProgram.DIV && b.value == 0)) {
+            ExpressionNode folded = ExpressionNode.constant(apply(node.kind, a.value, b.value));
+            rewrites.add("Folded " + current.describe() + " → " + folded.describe());
+            return folded;
+        }
+
+        ExpressionNode simplified = identity(node.kind, a, b);
+        if (simplified != null) {
+            rewrites.add("Simplified " + current.describe() + " → " + simplified.describe());
+            return simplified;
+        }
+
+        if (node.kind == PostfixProgram.POW && b.isConstant(2.0)) {
+            ExpressionNode reduced = ExpressionNode.power(a, 2);
+            rewrites.add("Reduced " + current.describe() + " → " + reduced.describe());
+            return reduced;
+        }
+
+        return current;
+    }
+
+    private static ExpressionNode identity(int kind, ExpressionNode a, ExpressionNode b) {
+        switch (kind) {
+            case PostfixProgram.MUL:
+                if (b.isConstant(1.0)) return a;
+                if (a.isConstant(1.0)) return b;
+                return null;
+            case PostfixProgram.DIV:
+            case PostfixProgram.POW:
+                return b.isConstant(1.0) ? a : null;
+            case PostfixProgram.SUB:
+                return b.isConstant(0.0) ? a : null;
+            case PostfixProgram.ADD:
+                if (b.isConstant(-0.0)) return a;
+                if (a.isConstant(-0.0)) return b;
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    // Same arithmetic as StackMachine, so folded values are bit-identical
+    private static double apply(int kind, double a, double b) {
+        switch (kind) {
+            case PostfixProgram.ADD: return a + b;
+            case PostfixProgram.SUB: return a - b;
+            case PostfixProgram.MUL: return a * b;
+            case PostfixProgram.DIV: return a / b;
+            case PostfixProgram.POW: return Math.pow(a, b);
+            case PostfixProgram.MOD: return a % b;
+            default: throw new IllegalStateException("Not an operator: " + kind);
+        }
+    }
+
+    // x^2 = x*x, bit-identical to Math.pow(x, 2)
+    static void emitPower(int exponent, PostfixProgram.Builder builder) {
+        if (exponent != 2) {
+            throw new IllegalStateException("Unsupported exponent: " + exponent);
+        }
+        builder.dup();
+        builder.operator(PostfixProgram.MUL, -1, -1, "*");
+    }
+}
@@ -0,0 +1,48 @@
+package com.calculator.core;
+
+import java.util.function.Function;
+
+/**
+ * Cache of compiled expressions keyed by source text (and variable names),
+ * placed in front of the validate/tokenize/convert stages.
+ *
+ * Implementations must be thread-safe. Entries compiled against an older
+ * function registry are treated as misses, so a cache never has to be told
+ * about {@link ExpressionEvaluator#registerFunction} itself.
+ */
+public interface ParseCache {
+    
+    /**
+     * Returns the cached expression for {@code key}, compiling it with
+     * {@code compiler} on a miss. Exceptions from the compiler propagate and
+     * nothing is cached.
+     */
+    CompiledExpression get(String key, Function<String, CompiledExpression> compiler);
+    
+    /** Drops every entry. Statistics are kept. */
+    void clear();
+    
+    CacheStats getStats();
+    
+    /** A cache that stores nothing; every lookup compiles. */
+    static ParseCache none() {
+        return new ParseCache() {
+            private final LruParseCache.Counters counters = new LruParseCache.Counters();
+            
+            @Override
+            public CompiledExpression get(String key, Function<String, CompiledExpression> compiler) {
+                counters.misses.increment();
+                return compiler.apply(key);
+            }
+            
+            @Override
+            public void clear() {
+            }
+            
+            @Override
+            public CacheStats getStats() {
+                return counters.snapshot(0, 0);
+            }
+        };
+    }
+}
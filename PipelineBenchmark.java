@@ -0,0 +1,178 @@
+package com.calculator.core;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for every stage of the evaluation pipeline, over a corpus
+ * of short, deeply nested, long flat and function-heavy expressions.
+ *
+ * Build with {@code mvn -Pbenchmark package}. Running the jar without
+ * arguments measures throughput and average time with the GC profiler
+ * attached for allocation rates; any arguments go to JMH unchanged.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PipelineBenchmark {
+
+    @Param({"short", "deepNested", "longFlat", "functionHeavy"})
+    public String corpus;
+
+    private String expression;
+    private List<String> tokens;
+    private String postfix;
+    private TokenBuffer tokenBuffer;
+    private int[] postfixOrder;
+    private PostfixProgram program;
+    private CompiledExpression compiled;
+    private ExpressionFunction bytecode;
+    private final double[] noValues = new double[0];
+    private final double[] xValue = {0.75};
+
+    @Setup
+    public void setUp() {
+        expression = expression(corpus, false);
+        tokens = ExpressionEvaluator.tokenize(expression);
+        postfix = InfixToPostfixConverter.convert(tokens);
+
+        tokenBuffer = new TokenBuffer();
+        Lexer.lex(expression, tokenBuffer);
+        postfixOrder = new int[tokenBuffer.size];
+        int count = InfixToPostfixConverter.convert(tokenBuffer, postfixOrder);
+        program = PostfixProgram.fromTokens(tokenBuffer, postfixOrder, count, new String[0]);
+
+        // With only literals the optimizer folds everything to one constant,
+        // so compiled execution is measured on a version that depends on x
+        compiled = ExpressionEvaluator.compile(expression(corpus, true), "x");
+        bytecode = compiled.asFunction(Backend.BYTECODE);
+    }
+
+    static String expression(String corpus, boolean parametric) {
+        StringBuilder sb = new StringBuilder();
+        switch (corpus) {
+            case "short":
+                return parametric ? "x + 3 * 4" : "2 + 3 * 4";
+            case "deepNested":
+                for (int i = 0; i < 40; i++) sb.append('(');
+                sb.append(parametric ? "x" : "1.5");
+                for (int i = 0; i < 40; i++) {
+                    sb.append(i % 2 == 0 ? " + " : " * ").append(i % 7 + 1).append(')');
+                }
+                return sb.toString();
+            case "longFlat":
+                sb.append(parametric ? "x" : "1");
+                for (int i = 0; i < 500; i++) {
+                    sb.append(" ").append("+-*/".charAt(i % 4)).append(" ");
+                    sb.append(parametric && i % 10 == 0 ? "x" : String.valueOf(i % 9 + 1));
+                }
+                return sb.toString();
+            case "functionHeavy":
+                String[] functions = {"sin", "cos", "sqrt", "log", "ln", "exp", "abs", "floor"};
+                for (int i = 0; i < 64; i++) {
+                    if (i > 0) sb.append(" + ");
+                    sb.append(functions[i % functions.length]).append('(');
+                    if (parametric) sb.append("x * ");
+                    sb.append(i % 5 + 1).append(".25)");
+                }
+                return sb.toString();
+            default:
+                throw new IllegalArgumentException("Unknown corpus: " + corpus);
+        }
+    }
+
+    // --- Front end ---
+
+    // What ValidationEngine.validate does, returning the tokens so none of the work is dead
+    @Benchmark
+    public TokenBuffer validate() {
+        return Lexer.lex(expression);
+    }
+
+    @Benchmark
+    public List<String> tokenize() {
+        return ExpressionEvaluator.tokenize(expression);
+    }
+
+    @Benchmark
+    public TokenBuffer lex() {
+        Lexer.lex(expression, tokenBuffer);
+        return tokenBuffer;
+    }
+
+    @Benchmark
+    public String convert() {
+        return InfixToPostfixConverter.convert(tokens);
+    }
+
+    @Benchmark
+    public int convertTokens() {
+        return InfixToPostfixConverter.convert(tokenBuffer, postfixOrder);
+    }
+
+    // --- Execution ---
+
+    @Benchmark
+    public double evaluatePostfix() {
+        return ExpressionEvaluator.evaluatePostfix(postfix, new ArrayList<>());
+    }
+
+    @Benchmark
+    public double stackMachine() {
+        return StackMachine.run(program, noValues);
+    }
+
+    @Benchmark
+    public double compiledInterpreter() {
+        return compiled.evaluate(xValue);
+    }
+
+    @Benchmark
+    public double compiledBytecode() {
+        return bytecode.applyAsDouble(xValue);
+    }
+
+    // --- End to end ---
+
+    @Benchmark
+    public double evaluate() {
+        return ExpressionEvaluator.evaluate(expression).getResult();
+    }
+
+    @Benchmark
+    public void evaluateTraced(Blackhole blackhole) {
+        blackhole.consume(ExpressionEvaluator.evaluate(expression,
+            EvaluationOptions.defaults().withTraceLevel(TraceLevel.FULL)).getSteps());
+    }
+
+    @Benchmark
+    public CompiledExpression compileUncached() {
+        return ExpressionEvaluator.parse(expression, new String[0]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        runWithGcProfiler();
+    }
+
+    private static void runWithGcProfiler() throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(PipelineBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
@@ -0,0 +1,18 @@
+package com.calculator.core;
+
+/**
+ * Stages of evaluating an expression, in order. The first four only run
+ * when the expression is not already in the parse cache.
+ */
+public enum PipelineStage {
+    /** Validation and tokenization, done together by the lexer. */
+    LEX,
+    /** Infix to postfix conversion. */
+    CONVERT,
+    /** Building the postfix program and resolving names. */
+    BUILD,
+    /** Constant folding, simplification and subexpression sharing. */
+    OPTIMIZE,
+    /** Running the program. */
+    EXECUTE
+}
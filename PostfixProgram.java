@@ -0,0 +1,280 @@
+package com.calculator.core;
+
+import java.util.Arrays;
+
+/**
+ * Pre-decoded postfix program: one instruction per postfix token, with
+ * numbers held in a constant pool and functions resolved up front, so
+ * executing it needs no string handling at all.
+ *
+ * Each instruction packs the opcode in the low byte and an operand index
+ * (constant, variable slot or function) in the remaining bits. A CALL pops
+ * as many arguments as its function's arity, first argument deepest.
+ */
+final class PostfixProgram {
+
+    static final int CONST = 0;
+    static final int LOAD = 1;
+    static final int ADD = 2;
+    static final int SUB = 3;
+    static final int MUL = 4;
+    static final int DIV = 5;
+    static final int POW = 6;
+    static final int MOD = 7;
+    static final int CALL = 8;
+    static final int DUP = 9;
+    static final int STORE = 10;
+    static final int RELOAD = 11;
+
+    final int[] code;
+    final double[] constants;
+    final RegisteredFunction[] functions;
+    final int variableCount;
+    final int maxStack;
+    // Slots for shared subexpression values; STORE keeps the value on the stack
+    final int tempCount;
+    // Tree nodes merged away by common subexpression elimination
+    final int deduplicatedNodes;
+
+    // Source offsets of each instruction's token, only read when tracing.
+    // Instructions created by the optimizer have no source and carry their
+    // display text in syntheticTokens instead.
+    private final String source;
+    private final int[] tokenStarts;
+    private final int[] tokenEnds;
+    private final String[] syntheticTokens;
+
+    private PostfixProgram(Builder builder) {
+        int n = builder.size;
+        this.code = Arrays.copyOf(builder.code, n);
+        this.constants = Arrays.copyOf(builder.constants, builder.constantCount);
+        this.functions = Arrays.copyOf(builder.functions, builder.functionCount);
+        this.variableCount = builder.variableCount;
+        this.maxStack = builder.maxDepth;
+        this.tempCount = builder.tempCount;
+        this.deduplicatedNodes = builder.deduplicatedNodes;
+        this.source = builder.source;
+        this.tokenStarts = Arrays.copyOf(builder.starts, n);
+        this.tokenEnds = Arrays.copyOf(builder.ends, n);
+        this.syntheticTokens = builder.synthetic == null ? null : Arrays.copyOf(builder.synthetic, n);
+    }
+
+    /** Rebuilds a program read back by {@link ExpressionStore}. */
+    PostfixProgram(int[] code, double[] constants, RegisteredFunction[] functions,
+                   int variableCount, int maxStack, int tempCount, int deduplicatedNodes,
+                   String source, int[] tokenStarts, int[] tokenEnds, String[] syntheticTokens) {
+        this.code = code;
+        this.constants = constants;
+        this.functions = functions;
+        this.variableCount = variableCount;
+        this.maxStack = maxStack;
+        this.tempCount = tempCount;
+        this.deduplicatedNodes = deduplicatedNodes;
+        this.source = source;
+        this.tokenStarts = tokenStarts;
+        this.tokenEnds = tokenEnds;
+        this.syntheticTokens = syntheticTokens;
+    }
+
+    static int opcode(int instruction) {
+        return instruction & 0xFF;
+    }
+
+    static int operand(int instruction) {
+        return instruction >>> 8;
+    }
+
+    /** Display text of the token that produced instruction {@code i}. */
+    String token(int i) {
+        if (tokenStarts[i] < 0) {
+            return syntheticTokens[i];
+        }
+        return source.substring(tokenStarts[i], tokenEnds[i]);
+    }
+
+    int tokenStart(int i) {
+        return tokenStarts[i];
+    }
+
+    int tokenEnd(int i) {
+        return tokenEnds[i];
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * Builds a program from lexed tokens in postfix order. Identifiers that
+     * are not functions must appear in {@code variableNames}.
+     */
+    static PostfixProgram fromTokens(TokenBuffer tokens, int[] postfix, int count,
+                                     String[] variableNames) {
+        Builder builder = new Builder(tokens.source, variableNames.length);
+
+        for (int i = 0; i < count; i++) {
+            int t = postfix[i];
+            int start = tokens.starts[t];
+            int end = tokens.ends[t];
+
+            switch (tokens.types[t]) {
+                case TokenBuffer.NUMBER:
+                    builder.constant(tokens.numbers[t], start, end, null);
+                    break;
+                case TokenBuffer.FUNCTION:
+                    if (builder.depth < tokens.functions[t].arity) throw new ExpressionSyntaxException(
+                        "Missing argument for function: " + tokens.text(t), start);
+                    builder.call(tokens.functions[t], start, end, null);
+                    break;
+                case TokenBuffer.OPERATOR:
+                    if (builder.depth < 2) throw new ExpressionSyntaxException(
+                        "Insufficient operands for: " + tokens.operator(t), start);
+                    builder.operator(operatorOpcode(tokens.operator(t)), start, end, null);
+                    break;
+                case TokenBuffer.RIGHT_BRACKET:
+                    throw new ExpressionSyntaxException(
+                        "Matrix literals need ExpressionEvaluator.evaluateMatrix", tokens.starts[t]);
+                default:
+                    String name = tokens.text(t);
+                    int slot = indexOf(variableNames, name);
+                    if (slot < 0) throw new ExpressionSyntaxException(
+                        "Unknown variable: " + name, start);
+                    builder.load(slot, start, end, null);
+            }
+        }
+
+        return builder.build();
+    }
+
+    static int operatorOpcode(char op) {
+        switch (op) {
+            case '+': return ADD;
+            case '-': return SUB;
+            case '*': return MUL;
+            case '/': return DIV;
+            case '^': return POW;
+            case '%': return MOD;
+            default: throw new IllegalArgumentException("Unknown operator: " + op);
+        }
+    }
+
+    static String operatorSymbol(int opcode) {
+        switch (opcode) {
+            case ADD: return "+";
+            case SUB: return "-";
+            case MUL: return "*";
+            case DIV: return "/";
+            case POW: return "^";
+            case MOD: return "%";
+            default: throw new IllegalArgumentException("Not an operator: " + opcode);
+        }
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Appends instructions while tracking stack depth. Each instruction
+     * either points at its source token or, when {@code start} is negative,
+     * carries a synthetic display text.
+     */
+    static final class Builder {
+        private final String source;
+        private final int variableCount;
+
+        private int[] code = new int[16];
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private String[] synthetic;
+        private int size;
+
+        private double[] constants = new double[8];
+        private int constantCount;
+        private RegisteredFunction[] functions = new RegisteredFunction[4];
+        private int functionCount;
+
+        int depth;
+        private int maxDepth;
+        private int tempCount;
+        int deduplicatedNodes;
+
+        Builder(String source, int variableCount) {
+            this.source = source;
+            this.variableCount = variableCount;
+        }
+
+        void constant(double value, int start, int end, String text) {
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, constantCount * 2);
+            }
+            constants[constantCount] = value;
+            emit(instruction(CONST, constantCount++), start, end, text, 1);
+        }
+
+        void load(int slot, int start, int end, String text) {
+            emit(instruction(LOAD, slot), start, end, text, 1);
+        }
+
+        void call(RegisteredFunction function, int start, int end, String text) {
+            if (functionCount == functions.length) {
+                functions = Arrays.copyOf(functions, functionCount * 2);
+            }
+            functions[functionCount] = function;
+            emit(instruction(CALL, functionCount++), start, end, text, 1 - function.arity);
+        }
+
+        void operator(int opcode, int start, int end, String text) {
+            emit(opcode, start, end, text, -1);
+        }
+
+        void dup() {
+            emit(DUP, -1, -1, "dup", 1);
+        }
+
+        /** Copies the top of the stack into a new temp slot and returns the slot. */
+        int store() {
+            int slot = tempCount++;
+            emit(instruction(STORE, slot), -1, -1, "=t" + slot, 0);
+            return slot;
+        }
+
+        void reload(int slot) {
+            emit(instruction(RELOAD, slot), -1, -1, "t" + slot, 1);
+        }
+
+        private void emit(int instruction, int start, int end, String text, int stackEffect) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                if (synthetic != null) synthetic = Arrays.copyOf(synthetic, size * 2);
+            }
+            if (start < 0) {
+                if (synthetic == null) synthetic = new String[code.length];
+                synthetic[size] = text;
+            }
+            code[size] = instruction;
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+
+            depth += stackEffect;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        PostfixProgram build() {
+            if (depth != 1) {
+                throw new IllegalArgumentException("Invalid expression");
+            }
+            return new PostfixProgram(this);
+        }
+
+        private static int instruction(int opcode, int operand) {
+            return opcode | (operand << 8);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.calculator.core;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Adaptive-precision evaluation.
+ *
+ * The expression is first run in {@code double} while tracking an absolute
+ * error bound for every intermediate value: the representation error of
+ * each decimal literal, plus propagation and rounding error for each
+ * operation. If rounding both ends of {@code result ± bound} to the
+ * requested {@link MathContext} gives the same decimal, that decimal is the
+ * correctly rounded answer and is returned. Otherwise the expression is
+ * evaluated again in {@link BigDecimal} from the exact literals.
+ *
+ * Bounds for + - * / and integer powers are rigorous. Built-in functions
+ * and non-integer powers are only bounded at exact arguments, by the
+ * accuracy {@link Math} documents for them: near a pole or a root, even an
+ * argument error far below an ulp can change every digit of the result.
+ * An inexact argument, or a registered function, whose accuracy is
+ * unknown, sends the expression straight to the decimal path, where the
+ * built-ins and non-integer powers are computed by {@link DecimalMath}.
+ * Registered functions only exist in {@code double}, so a decimal result
+ * that went through one is reported as
+ * {@link PrecisionPath#DECIMAL_APPROXIMATE}.
+ *
+ * Both paths run on the program before optimization, since folded
+ * constants would lose the exact literals.
+ */
+final class PrecisionEvaluator {
+
+    // Extra digits carried by the decimal path before the final rounding
+    private static final int GUARD_DIGITS = 10;
+    // Error of a built-in function or Math.pow at exact arguments, with room to spare
+    private static final int FUNCTION_ULPS = 4;
+
+    private PrecisionEvaluator() {
+    }
+
+    /** Unoptimized program with the exact value and representation error of each constant. */
+    static final class Prepared {
+        final PostfixProgram program;
+        final BigDecimal[] exactConstants;
+        final double[] constantErrors;
+
+        Prepared(PostfixProgram program, BigDecimal[] exactConstants, double[] constantErrors) {
+            this.program = program;
+            this.exactConstants = exactConstants;
+            this.constantErrors = constantErrors;
+        }
+    }
+
+    static final class Outcome {
+        final BigDecimal value;
+        final PrecisionPath path;
+
+        Outcome(BigDecimal value, PrecisionPath path) {
+            this.value = value;
+            this.path = path;
+        }
+    }
+
+    static Prepared prepare(String expression, String[] variableNames) {
+        TokenBuffer tokens = Lexer.lex(expression);
+        int[] postfix = new int[tokens.size];
+        int count = InfixToPostfixConverter.convert(tokens, postfix);
+        PostfixProgram program = PostfixProgram.fromTokens(tokens, postfix, count, variableNames);
+
+        BigDecimal[] exact = new BigDecimal[program.constants.length];
+        double[] errors = new double[program.constants.length];
+        for (int i = 0; i < program.code.length; i++) {
+            int instruction = program.code[i];
+            if (PostfixProgram.opcode(instruction) != PostfixProgram.CONST) continue;
+            int k = PostfixProgram.operand(instruction);
+            exact[k] = new BigDecimal(program.token(i));
+            double difference = exact[k].subtract(new BigDecimal(program.constants[k])).abs().doubleValue();
+            errors[k] = difference == 0 ? 0 : Math.nextUp(difference);
+        }
+        return new Prepared(program, exact, errors);
+    }
+
+    static Outcome evaluate(Prepared prepared, double[] variables, MathContext context) {
+        PostfixProgram program = prepared.program;
+        double[] values = new double[Math.max(1, program.maxStack)];
+        double[] errors = new double[values.length];
+        int top = 0;
+
+        for (int i = 0; i < program.code.length; i++) {
+            int instruction = program.code[i];
+            int operand = PostfixProgram.operand(instruction);
+            int opcode = PostfixProgram.opcode(instruction);
+
+            switch (opcode) {
+                case PostfixProgram.CONST:
+                    values[top] = program.constants[operand];
+                    errors[top++] = prepared.constantErrors[operand];
+                    break;
+                case PostfixProgram.LOAD:
+                    values[top] = variables[operand];
+                    errors[top++] = 0;
+                    break;
+                case PostfixProgram.CALL: {
+                    RegisteredFunction function = program.functions[operand];
+                    top -= function.arity - 1;
+                    // Decided before the call, so every function runs once per evaluation
+                    if (!function.isBuiltIn() || hasError(errors, top - 1, function.arity)) {
+                        return evaluateDecimal(prepared, variables, context);
+                    }
+                    values[top - 1] = function.apply(values, top - 1);
+                    errors[top - 1] = FUNCTION_ULPS * Math.ulp(values[top - 1]);
+                    break;
+                }
+                default: {
+                    top--;
+                    double a = values[top - 1];
+                    double b = values[top];
+                    values[top - 1] = apply(opcode, a, b);
+                    errors[top - 1] = operatorError(opcode, a, errors[top - 1], b, errors[top],
+                        values[top - 1]);
+                }
+            }
+        }
+
+        double result = values[0];
+        double error = errors[0];
+        if (Double.isFinite(result) && Double.isFinite(error)) {
+            BigDecimal center = new BigDecimal(result);
+            BigDecimal radius = new BigDecimal(error);
+            BigDecimal low = center.subtract(radius).round(context);
+            BigDecimal high = center.add(radius).round(context);
+            if (low.compareTo(high) == 0) {
+                return new Outcome(error == 0 ? center.round(context) : low, PrecisionPath.DOUBLE_BOUNDED);
+            }
+        }
+        return evaluateDecimal(prepared, variables, context);
+    }
+
+    // Same arithmetic as StackMachine
+    private static double apply(int opcode, double a, double b) {
+        switch (opcode) {
+            case PostfixProgram.ADD: return a + b;
+            case PostfixProgram.SUB: return a - b;
+            case PostfixProgram.MUL: return a * b;
+            case PostfixProgram.DIV:
+                if (b == 0) throw new ArithmeticException("Division by zero");
+                return a / b;
+            case PostfixProgram.POW: return Math.pow(a, b);
+            case PostfixProgram.MOD: return a % b;
+            default:
+                throw new IllegalStateException("Unknown opcode: " + opcode);
+        }
+    }
+
+    private static double operatorError(int opcode, double a, double ea, double b, double eb,
+                                        double r) {
+        double rounding = Math.ulp(r);
+        switch (opcode) {
+            case PostfixProgram.ADD:
+            case PostfixProgram.SUB:
+                return ea + eb + (ea + eb == 0 && isExact(opcode, a, b, r) ? 0 : rounding);
+            case PostfixProgram.MUL:
+                if (ea + eb == 0 && isExact(opcode, a, b, r)) return 0;
+                return Math.abs(a) * eb + Math.abs(b) * ea + ea * eb + rounding;
+            case PostfixProgram.DIV: {
+                double absB = Math.abs(b);
+                if (absB <= eb) return Double.POSITIVE_INFINITY;
+                return (Math.abs(a) * eb + absB * ea) / (absB * (absB - eb)) + rounding;
+            }
+            case PostfixProgram.POW: {
+                if (eb == 0 && b == Math.rint(b) && Math.abs(b) <= 1024 && a != 0) {
+                    if (ea == 0 && b >= 0 && isExact(opcode, a, b, r)) return 0;
+                    double relative = ea / Math.abs(a);
+                    if (relative >= 1) return Double.POSITIVE_INFINITY;
+                    double n = Math.abs(b);
+                    double growth = b > 0 ? Math.pow(1 + relative, n) : Math.pow(1 / (1 - relative), n);
+                    // Math.pow is accurate to one ulp
+                    return Math.abs(r) * (growth - 1) + rounding;
+                }
+                return ea + eb == 0 ? FUNCTION_ULPS * rounding : Double.POSITIVE_INFINITY;
+            }
+            case PostfixProgram.MOD: {
+                // Exact in IEEE arithmetic, but jumps where a / b crosses an integer
+                double error = ea + Math.abs(StrictMath.floor(Math.abs(a / b))) * eb;
+                if (Math.abs(r) <= error || Math.abs(b) - Math.abs(r) <= error) {
+                    return error == 0 ? 0 : Double.POSITIVE_INFINITY;
+                }
+                return error;
+            }
+            default:
+                throw new IllegalStateException("Not an operator: " + opcode);
+        }
+    }
+
+    // Exact operands whose result happens to be representable, e.g. small integers.
+    // Checked in double: the rounding error of a sum or product is itself a double
+    private static boolean isExact(int opcode, double a, double b, double r) {
+        if (!Double.isFinite(r)) return false;
+        switch (opcode) {
+            case PostfixProgram.ADD: return twoSumError(a, b, r) == 0;
+            case PostfixProgram.SUB: return twoSumError(a, -b, r) == 0;
+            case PostfixProgram.MUL: return isExactProduct(a, b, r);
+            default: {
+                // Exact powers have exact partial powers, so square and multiply checking each
+                double result = 1;
+                double square = a;
+                for (long n = (long) b; n > 0; n >>= 1) {
+                    if ((n & 1) != 0) {
+                        double next = result * square;
+                        if (!isExactProduct(result, square, next)) return false;
+                        result = next;
+                    }
+                    if (n > 1) {
+                        double next = square * square;
+                        if (!isExactProduct(square, square, next)) return false;
+                        square = next;
+                    }
+                }
+                return result == r;
+            }
+        }
+    }
+
+    // Knuth's TwoSum: a + b - r exactly, for a finite r = a + b
+    private static double twoSumError(double a, double b, double r) {
+        double bVirtual = r - a;
+        double aVirtual = r - bVirtual;
+        return (a - aVirtual) + (b - bVirtual);
+    }
+
+    private static boolean isExactProduct(double a, double b, double r) {
+        if (a == 0 || b == 0) return true;
+        // Below this the residual a * b - r may itself underflow to zero
+        if (!Double.isFinite(r) || Math.abs(r) < 0x1p-969) return false;
+        return Math.fma(a, b, -r) == 0;
+    }
+
+    private static boolean hasError(double[] errors, int from, int count) {
+        for (int k = from; k < from + count; k++) {
+            if (errors[k] != 0) return true;
+        }
+        return false;
+    }
+
+    static Outcome evaluateDecimal(Prepared prepared, double[] variables, MathContext context) {
+        PostfixProgram program = prepared.program;
+        MathContext work = new MathContext(context.getPrecision() + GUARD_DIGITS,
+            context.getRoundingMode());
+        BigDecimal[] stack = new BigDecimal[Math.max(1, program.maxStack)];
+        int top = 0;
+        boolean guaranteed = true;
+
+        for (int i = 0; i < program.code.length; i++) {
+            int instruction = program.code[i];
+            int operand = PostfixProgram.operand(instruction);
+
+            switch (PostfixProgram.opcode(instruction)) {
+                case PostfixProgram.CONST:
+                    stack[top++] = prepared.exactConstants[operand];
+                    break;
+                case PostfixProgram.LOAD:
+                    stack[top++] = decimal(variables[operand]);
+                    break;
+                case PostfixProgram.CALL: {
+                    RegisteredFunction function = program.functions[operand];
+                    top -= function.arity;
+                    BigDecimal value = DecimalMath.apply(function, stack, top, work);
+                    if (value == null) {
+                        // A registered function: double in, double out
+                        double[] args = new double[function.arity];
+                        for (int k = 0; k < args.length; k++) {
+                            args[k] = stack[top + k].doubleValue();
+                        }
+                        value = decimal(function.apply(args, 0));
+                        guaranteed = false;
+                    }
+                    stack[top++] = value;
+                    break;
+                }
+                case PostfixProgram.ADD:
+                    top--;
+                    stack[top - 1] = stack[top - 1].add(stack[top], work);
+                    break;
+                case PostfixProgram.SUB:
+                    top--;
+                    stack[top - 1] = stack[top - 1].subtract(stack[top], work);
+                    break;
+                case PostfixProgram.MUL:
+                    top--;
+                    stack[top - 1] = stack[top - 1].multiply(stack[top], work);
+                    break;
+                case PostfixProgram.DIV:
+                    top--;
+                    if (stack[top].signum() == 0) throw new ArithmeticException("Division by zero");
+                    stack[top - 1] = stack[top - 1].divide(stack[top], work);
+                    break;
+                case PostfixProgram.MOD:
+                    top--;
+                    if (stack[top].signum() == 0) throw new ArithmeticException("Division by zero");
+                    stack[top - 1] = stack[top - 1].remainder(stack[top], work);
+                    break;
+                case PostfixProgram.POW: {
+                    top--;
+                    BigDecimal base = stack[top - 1];
+                    BigDecimal exponent = stack[top];
+                    stack[top - 1] = isSmallInteger(exponent) && base.signum() != 0
+                        ? base.pow(exponent.intValueExact(), work)
+                        : DecimalMath.pow(base, exponent, work);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException(
+                        "Unknown opcode: " + PostfixProgram.opcode(instruction));
+            }
+        }
+        return new Outcome(stack[0].round(context),
+            guaranteed ? PrecisionPath.DECIMAL : PrecisionPath.DECIMAL_APPROXIMATE);
+    }
+
+    private static boolean isSmallInteger(BigDecimal value) {
+        if (value.signum() != 0 && value.stripTrailingZeros().scale() > 0) return false;
+        return value.abs().compareTo(BigDecimal.valueOf(999_999_999)) <= 0;
+    }
+
+    private static BigDecimal decimal(double value) {
+        if (!Double.isFinite(value)) {
+            throw new ArithmeticException("Result is not a finite number: " + value);
+        }
+        return new BigDecimal(value);
+    }
+}
@@ -0,0 +1,21 @@
+package com.calculator.core;
+
+/**
+ * Which arithmetic produced an {@link ExpressionEvaluator.EvaluationResult}.
+ */
+public enum PrecisionPath {
+    /** Plain {@code double}; no precision was requested. */
+    DOUBLE,
+    /**
+     * {@code double} with a tracked error bound that was small enough to
+     * guarantee the requested digits.
+     */
+    DOUBLE_BOUNDED,
+    /** The bound was too wide, so the expression was re-evaluated in {@code BigDecimal}. */
+    DECIMAL,
+    /**
+     * Re-evaluated in {@code BigDecimal}, but through a registered function,
+     * which only computes in {@code double}; the digits are not guaranteed.
+     */
+    DECIMAL_APPROXIMATE
+}
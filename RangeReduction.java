@@ -0,0 +1,181 @@
+package com.calculator.core;
+
+import com.calculator.numerics.CompensatedSum;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates the range reductions {@code sum(i, a, b, body)},
+ * {@code prod}, {@code min} and {@code max}: the body for every integer i
+ * from a to b inclusive, combined. The body's other variables come from
+ * the surrounding expression and are the same for every i.
+ *
+ * The body runs column-at-a-time through {@link ColumnEvaluator}, a chunk
+ * of indexes per pass, and long ranges are split across the common
+ * fork/join pool. The split points depend only on the range, never on the
+ * number of threads, and partial results are combined in index order, so
+ * the result is the same on every machine. Sums are compensated
+ * (Neumaier), within and across chunks.
+ */
+final class RangeReduction {
+
+    enum Kind {
+        SUM("sum"), PRODUCT("prod"), MIN("min"), MAX("max");
+
+        final String function;
+
+        Kind(String function) {
+            this.function = function;
+        }
+
+        static Kind of(String name) {
+            for (Kind kind : values()) {
+                if (kind.function.equals(name)) return kind;
+            }
+            throw new IllegalArgumentException("Not a reduction: " + name);
+        }
+    }
+
+    // Indexes evaluated per column pass
+    static final int CHUNK = 1024;
+    // Indexes reduced by one fork/join task; shorter ranges stay on the caller's thread
+    static final long LEAF = 1 << 16;
+    // Every index up to here is exactly representable as a double
+    private static final double MAX_BOUND = 1L << 53;
+
+    private RangeReduction() {
+    }
+
+    /** Reduces {@code body}, whose variables are i followed by {@code outer}. */
+    static double reduce(Kind kind, PostfixProgram body, double from, double to, double[] outer) {
+        if (from != Math.rint(from) || to != Math.rint(to)
+                || Math.abs(from) > MAX_BOUND || Math.abs(to) > MAX_BOUND) {
+            throw new IllegalArgumentException(kind.function + " bounds must be integers, got " +
+                from + " and " + to);
+        }
+        long first = (long) from;
+        long end = (long) to + 1;
+        if (end <= first) {
+            switch (kind) {
+                case SUM: return 0;
+                case PRODUCT: return 1;
+                default: throw new IllegalArgumentException(kind.function + " over an empty range");
+            }
+        }
+        Partial result = end - first > LEAF
+            ? invoke(new Split(kind, body, outer, first, end))
+            : leaf(kind, body, outer, first, end);
+        return result.value();
+    }
+
+    private static Partial invoke(Split task) {
+        try {
+            return ForkJoinPool.commonPool().invoke(task);
+        } catch (RuntimeException e) {
+            // An exception from another worker comes back as a reflective copy without
+            // its message; the original is its cause
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException && cause.getClass() == e.getClass()) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static Partial leaf(Kind kind, PostfixProgram body, double[] outer, long from, long to) {
+        double[] index = new double[(int) Math.min(CHUNK, to - from)];
+        double[][] columns = new double[outer.length + 1][];
+        columns[0] = index;
+        for (int k = 0; k < outer.length; k++) {
+            columns[k + 1] = new double[index.length];
+            Arrays.fill(columns[k + 1], outer[k]);
+        }
+        double[] values = new double[index.length];
+        Partial partial = new Partial(kind);
+        for (long start = from; start < to; start += CHUNK) {
+            int count = (int) Math.min(CHUNK, to - start);
+            for (int j = 0; j < count; j++) {
+                index[j] = start + j;
+            }
+            ColumnEvaluator.evaluate(body, columns, values, 0, count);
+            partial.add(values, count);
+        }
+        return partial;
+    }
+
+    /** Running result of one kind; sums keep their compensation until the end. */
+    private static final class Partial {
+        final Kind kind;
+        final CompensatedSum sum = new CompensatedSum();
+        double value;
+
+        Partial(Kind kind) {
+            this.kind = kind;
+            value = kind == Kind.PRODUCT ? 1
+                : kind == Kind.MIN ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        }
+
+        void add(double[] values, int count) {
+            switch (kind) {
+                case SUM:
+                    for (int i = 0; i < count; i++) sum.add(values[i]);
+                    break;
+                case PRODUCT:
+                    for (int i = 0; i < count; i++) value *= values[i];
+                    break;
+                case MIN:
+                    for (int i = 0; i < count; i++) value = Math.min(value, values[i]);
+                    break;
+                case MAX:
+                    for (int i = 0; i < count; i++) value = Math.max(value, values[i]);
+                    break;
+            }
+        }
+
+        // Folds in the partial result for the indexes right after this one's
+        Partial add(Partial next) {
+            switch (kind) {
+                case SUM: sum.add(next.sum); break;
+                case PRODUCT: value *= next.value; break;
+                case MIN: value = Math.min(value, next.value); break;
+                case MAX: value = Math.max(value, next.value); break;
+            }
+            return this;
+        }
+
+        double value() {
+            return kind == Kind.SUM ? sum.sum() : value;
+        }
+    }
+
+    private static final class Split extends RecursiveTask<Partial> {
+        private final Kind kind;
+        private final PostfixProgram body;
+        private final double[] outer;
+        private final long from;
+        private final long to;
+
+        Split(Kind kind, PostfixProgram body, double[] outer, long from, long to) {
+            this.kind = kind;
+            this.body = body;
+            this.outer = outer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from <= LEAF) {
+                return leaf(kind, body, outer, from, to);
+            }
+            // Split on a chunk boundary so no chunk straddles two tasks
+            long mid = from + Math.max(1, (to - from) / 2 / CHUNK) * CHUNK;
+            Split left = new Split(kind, body, outer, from, mid);
+            Split right = new Split(kind, body, outer, mid, to);
+            invokeAll(left, right);
+            return left.join().add(right.join());
+        }
+    }
+}
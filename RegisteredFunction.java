@@ -0,0 +1,167 @@
+package com.calculator.core;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A function as held by {@link FunctionRegistry}: its name, fixed arity and
+ * primitive implementation. Compiled programs point at these directly, so
+ * calls never look a name up again.
+ */
+final class RegisteredFunction {
+
+    final String name;
+    final int arity;
+    final boolean pure;
+    // Name of the java.lang.Math method this built-in is, for the bytecode backend
+    final String mathMethod;
+
+    private final DoubleUnaryOperator unary;
+    private final DoubleBinaryOperator binary;
+    private final DoubleNaryOperator nary;
+    // Per-thread argument array for nary, so calls do not allocate
+    private final ThreadLocal<Arguments> arguments;
+    private LatencyHistogram latency;
+
+    private RegisteredFunction(String name, int arity, boolean pure, String mathMethod,
+                               DoubleUnaryOperator unary, DoubleBinaryOperator binary,
+                               DoubleNaryOperator nary) {
+        this.name = name;
+        this.arity = arity;
+        this.pure = pure;
+        this.mathMethod = mathMethod;
+        this.unary = unary;
+        this.binary = binary;
+        this.nary = nary;
+        this.arguments = nary == null ? null : ThreadLocal.withInitial(() -> new Arguments(arity));
+    }
+
+    static RegisteredFunction unary(String name, DoubleUnaryOperator function, boolean pure) {
+        return new RegisteredFunction(name, 1, pure, null, function, null, null);
+    }
+
+    static RegisteredFunction binary(String name, DoubleBinaryOperator function, boolean pure) {
+        return new RegisteredFunction(name, 2, pure, null, null, function, null);
+    }
+
+    static RegisteredFunction nary(String name, int arity, DoubleNaryOperator function,
+                                   boolean pure) {
+        if (arity < 1) throw new IllegalArgumentException(
+            "Functions take at least one argument: " + name);
+        return new RegisteredFunction(name, arity, pure, null, null, null, function);
+    }
+
+    static RegisteredFunction builtIn(String name, String mathMethod, DoubleUnaryOperator function) {
+        return new RegisteredFunction(name, 1, true, mathMethod, function, null, null);
+    }
+
+    static RegisteredFunction builtIn(String name, String mathMethod, DoubleBinaryOperator function) {
+        return new RegisteredFunction(name, 2, true, mathMethod, null, function, null);
+    }
+
+    boolean isBuiltIn() {
+        return mathMethod != null;
+    }
+
+    double apply(double a) {
+        if (!EvaluationMetrics.isEnabled()) {
+            return invoke(a);
+        }
+        long start = System.nanoTime();
+        try {
+            return invoke(a);
+        } finally {
+            latency().record(System.nanoTime() - start);
+        }
+    }
+
+    double apply(double a, double b) {
+        if (!EvaluationMetrics.isEnabled()) {
+            return invoke(a, b);
+        }
+        long start = System.nanoTime();
+        try {
+            return invoke(a, b);
+        } finally {
+            latency().record(System.nanoTime() - start);
+        }
+    }
+
+    /** Applies the function to {@code arity} arguments starting at {@code values[from]}. */
+    double apply(double[] values, int from) {
+        if (!EvaluationMetrics.isEnabled()) {
+            return invoke(values, from);
+        }
+        long start = System.nanoTime();
+        try {
+            return invoke(values, from);
+        } finally {
+            latency().record(System.nanoTime() - start);
+        }
+    }
+
+    private double invoke(double a) {
+        if (unary != null) return unary.applyAsDouble(a);
+        Arguments args = arguments.get();
+        if (args.busy) return nary.applyAsDouble(new double[] {a});
+        args.values[0] = a;
+        return args.call(nary);
+    }
+
+    private double invoke(double a, double b) {
+        if (binary != null) return binary.applyAsDouble(a, b);
+        Arguments args = arguments.get();
+        if (args.busy) return nary.applyAsDouble(new double[] {a, b});
+        args.values[0] = a;
+        args.values[1] = b;
+        return args.call(nary);
+    }
+
+    private double invoke(double[] values, int from) {
+        if (nary == null) {
+            return arity == 1 ? unary.applyAsDouble(values[from])
+                : binary.applyAsDouble(values[from], values[from + 1]);
+        }
+        Arguments args = arguments.get();
+        if (args.busy) {
+            // The function is calling itself on this thread, so its array is in use
+            return nary.applyAsDouble(Arrays.copyOfRange(values, from, from + arity));
+        }
+        System.arraycopy(values, from, args.values, 0, arity);
+        return args.call(nary);
+    }
+
+    // Resolved on first timed call; racing threads get the same histogram
+    private LatencyHistogram latency() {
+        LatencyHistogram histogram = latency;
+        if (histogram == null) {
+            histogram = EvaluationMetrics.function(name);
+            latency = histogram;
+        }
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return name + "/" + arity;
+    }
+
+    private static final class Arguments {
+        final double[] values;
+        boolean busy;
+
+        Arguments(int arity) {
+            this.values = new double[arity];
+        }
+
+        double call(DoubleNaryOperator function) {
+            busy = true;
+            try {
+                return function.applyAsDouble(values);
+            } finally {
+                busy = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.calculator.numerics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Root finding by safeguarded Newton iteration inside a bracket.
+ *
+ * If {@code f} does not change sign between the given bounds, the range is
+ * first scanned on a grid, in parallel, for the leftmost subinterval that
+ * does. Newton steps use a central-difference derivative and fall back to
+ * bisection whenever a step would leave the bracket or shrinks it too
+ * slowly, so convergence is guaranteed once a sign change is found.
+ */
+public final class RootFinder {
+
+    public static final double DEFAULT_TOLERANCE = 1e-14;
+
+    private static final int SCAN_INTERVALS = 1024;
+    // Grid points evaluated sequentially by one scan task
+    private static final int SCAN_CHUNK = 64;
+    private static final int MAX_ITERATIONS = 200;
+
+    private RootFinder() {
+    }
+
+    public static double solve(String expression, String variable, double lo, double hi) {
+        return solve(Expressions.compile(expression, variable), lo, hi, DEFAULT_TOLERANCE);
+    }
+
+    public static double solve(DoubleUnaryOperator f, double lo, double hi) {
+        return solve(f, lo, hi, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Finds x in [lo, hi] with f(x) = 0, to within {@code tolerance}
+     * relative to max(1, |x|). When there are several roots the one found
+     * is deterministic but not necessarily the smallest.
+     *
+     * @throws ArithmeticException if no sign change is found in the range
+     */
+    public static double solve(DoubleUnaryOperator f, double lo, double hi, double tolerance) {
+        if (!Double.isFinite(lo) || !Double.isFinite(hi)) {
+            throw new IllegalArgumentException("Search bounds must be finite");
+        }
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+        }
+        if (lo > hi) {
+            double t = lo;
+            lo = hi;
+            hi = t;
+        }
+
+        double flo = f.applyAsDouble(lo);
+        double fhi = f.applyAsDouble(hi);
+        if (flo == 0) return lo;
+        if (fhi == 0) return hi;
+
+        if (!changesSign(flo, fhi)) {
+            double step = (hi - lo) / SCAN_INTERVALS;
+            int i = ForkJoinPool.commonPool().invoke(new Scan(f, lo, step, 0, SCAN_INTERVALS));
+            if (i < 0) {
+                throw new ArithmeticException("No sign change found in [" + lo + ", " + hi + "]");
+            }
+            double a = i == 0 ? lo : lo + i * step;
+            double b = i == SCAN_INTERVALS - 1 ? hi : lo + (i + 1) * step;
+            flo = f.applyAsDouble(a);
+            if (flo == 0) return a;
+            lo = a;
+            hi = b;
+        }
+        return refine(f, lo, hi, flo, tolerance);
+    }
+
+    private static double refine(DoubleUnaryOperator f, double a, double b, double fa,
+                                 double tolerance) {
+        double x = 0.5 * (a + b);
+        double previousWidth = b - a;
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            double fx = f.applyAsDouble(x);
+            if (fx == 0) return x;
+            if (changesSign(fa, fx)) {
+                b = x;
+            } else {
+                a = x;
+                fa = fx;
+            }
+            if (b - a <= tolerance * Math.max(1, Math.abs(x))) {
+                return 0.5 * (a + b);
+            }
+
+            double h = 1e-7 * Math.max(1, Math.abs(x));
+            double derivative = (f.applyAsDouble(x + h) - f.applyAsDouble(x - h)) / (2 * h);
+            double next = x - fx / derivative;
+            boolean slow = b - a > 0.5 * previousWidth;
+            previousWidth = b - a;
+            if (!(next > a && next < b) || slow) {
+                next = 0.5 * (a + b);
+            }
+            if (Math.abs(next - x) <= 0.5 * tolerance * Math.max(1, Math.abs(x))) {
+                return next;
+            }
+            x = next;
+        }
+        return x;
+    }
+
+    private static boolean changesSign(double a, double b) {
+        return (a < 0) != (b < 0);
+    }
+
+    /** Leftmost grid interval in [from, to) where f changes sign or hits zero, or -1. */
+    private static final class Scan extends RecursiveTask<Integer> {
+        private final DoubleUnaryOperator f;
+        private final double origin;
+        private final double step;
+        private final int from;
+        private final int to;
+
+        Scan(DoubleUnaryOperator f, double origin, double step, int from, int to) {
+            this.f = f;
+            this.origin = origin;
+            this.step = step;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= SCAN_CHUNK) {
+                double previous = f.applyAsDouble(origin + from * step);
+                for (int i = from; i < to; i++) {
+                    double next = f.applyAsDouble(origin + (i + 1) * step);
+                    if (Double.isFinite(previous) && Double.isFinite(next)
+                            && (previous == 0 || changesSign(previous, next))) {
+                        return i;
+                    }
+                    previous = next;
+                }
+                return -1;
+            }
+            int mid = (from + to) >>> 1;
+            Scan left = new Scan(f, origin, step, from, mid);
+            Scan right = new Scan(f, origin, step, mid, to);
+            right.fork();
+            int found = left.compute();
+            int other = right.join();
+            return found >= 0 ? found : other;
+        }
+    }
+}
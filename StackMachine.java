@@ -0,0 +1,125 @@
+package com.calculator.core;
+
+/**
+ * Executes a {@link PostfixProgram} over a primitive {@code double[]} stack.
+ *
+ * One machine is kept per thread and its stack is reused, so in steady
+ * state an evaluation allocates nothing. Arithmetic matches
+ * {@link ExpressionEvaluator#applyOperator} exactly.
+ */
+final class StackMachine {
+
+    private static final ThreadLocal<StackMachine> LOCAL =
+        ThreadLocal.withInitial(StackMachine::new);
+
+    private double[] stack = new double[16];
+    private double[] temps = new double[4];
+    private boolean busy;
+
+    private StackMachine() {
+    }
+
+    static double run(PostfixProgram program, double[] variables) {
+        return run(program, variables, null);
+    }
+
+    /**
+     * Runs the program and, if {@code trace} is not null, stores the value
+     * each instruction leaves on top of the stack in {@code trace[i]}.
+     */
+    static double run(PostfixProgram program, double[] variables, double[] trace) {
+        StackMachine machine = LOCAL.get();
+        if (machine.busy) {
+            // Re-entered from inside a user function; don't clobber the outer stack
+            return new StackMachine().execute(program, variables, trace);
+        }
+        return machine.execute(program, variables, trace);
+    }
+
+    private double execute(PostfixProgram program, double[] variables, double[] trace) {
+        if (stack.length < program.maxStack) {
+            stack = new double[Math.max(program.maxStack, stack.length * 2)];
+        }
+        if (temps.length < program.tempCount) {
+            temps = new double[Math.max(program.tempCount, temps.length * 2)];
+        }
+
+        busy = true;
+        try {
+            double[] s = stack;
+            double[] t = temps;
+            int[] code = program.code;
+            int top = 0;
+
+            for (int i = 0; i < code.length; i++) {
+                int instruction = code[i];
+                int operand = PostfixProgram.operand(instruction);
+
+                switch (PostfixProgram.opcode(instruction)) {
+                    case PostfixProgram.CONST:
+                        s[top++] = program.constants[operand];
+                        break;
+                    case PostfixProgram.LOAD:
+                        s[top++] = variables[operand];
+                        break;
+                    case PostfixProgram.CALL: {
+                        RegisteredFunction function = program.functions[operand];
+                        if (function.arity == 1) {
+                            s[top - 1] = function.apply(s[top - 1]);
+                        } else {
+                            top -= function.arity - 1;
+                            s[top - 1] = function.apply(s, top - 1);
+                        }
+                        break;
+                    }
+                    case PostfixProgram.DUP:
+                        s[top] = s[top - 1];
+                        top++;
+                        break;
+                    case PostfixProgram.STORE:
+                        t[operand] = s[top - 1];
+                        break;
+                    case PostfixProgram.RELOAD:
+                        s[top++] = t[operand];
+                        break;
+                    case PostfixProgram.ADD:
+                        top--;
+                        s[top - 1] = s[top - 1] + s[top];
+                        break;
+                    case PostfixProgram.SUB:
+                        top--;
+                        s[top - 1] = s[top - 1] - s[top];
+                        break;
+                    case PostfixProgram.MUL:
+                        top--;
+                        s[top - 1] = s[top - 1] * s[top];
+                        break;
+                    case PostfixProgram.DIV:
+                        top--;
+                        if (s[top] == 0) throw new ArithmeticException("Division by zero");
+                        s[top - 1] = s[top - 1] / s[top];
+                        break;
+                    case PostfixProgram.POW:
+                        top--;
+                        s[top - 1] = Math.pow(s[top - 1], s[top]);
+                        break;
+                    case PostfixProgram.MOD:
+                        top--;
+                        s[top - 1] = s[top - 1] % s[top];
+                        break;
+                    default:
+                        throw new IllegalStateException(
+                            "Unknown opcode: " + PostfixProgram.opcode(instruction));
+                }
+
+                if (trace != null) {
+                    trace[i] = s[top - 1];
+                }
+            }
+
+            return s[0];
+        } finally {
+            busy = false;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.calculator.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one pipeline stage of one evaluation. Enable
+ * it in a recording with {@code com.calculator.Stage#enabled=true}.
+ *
+ * Stages are timed with {@link System#nanoTime()} by the evaluator and
+ * committed afterwards, so the time is in {@link #stageDuration} rather than the
+ * event's own start and end.
+ */
+@Name("com.calculator.Stage")
+@Label("Evaluation Stage")
+@Category("Calculator")
+@Description("Time spent in one stage of evaluating an expression")
+@StackTrace(false)
+final class StageEvent extends Event {
+    
+    @Label("Stage")
+    String stage;
+    
+    @Label("Stage Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long stageDuration;
+    
+    @Label("Expression")
+    String expression;
+}
@@ -0,0 +1,77 @@
+package com.calculator.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall-clock time of one short command-line evaluation, from launching the
+ * JVM to its exit, with and without the AppCDS archive.
+ *
+ * Needs the core jar and archive: run {@code mvn -pl core -Pbenchmark,appcds
+ * package}, then from the repository root
+ * {@code java -jar core/target/benchmarks.jar StartupBenchmark}. Other
+ * locations can be given with {@code -Dcalculator.jar} and
+ * {@code -Dcalculator.archive}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"default", "appcds"})
+    public String sharing;
+
+    private List<String> command;
+
+    @Setup
+    public void setUp() {
+        Path jar = Paths.get(System.getProperty("calculator.jar",
+            "core/target/calculator-core-1.0.0.jar"));
+        Path archive = Paths.get(System.getProperty("calculator.archive",
+            "core/target/calculator-core.jsa"));
+        if (!Files.isRegularFile(jar)) {
+            throw new IllegalStateException("No core jar at " + jar.toAbsolutePath());
+        }
+
+        command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (sharing.equals("appcds")) {
+            if (!Files.isRegularFile(archive)) {
+                throw new IllegalStateException("No archive at " + archive.toAbsolutePath() +
+                    "; build with -Pappcds");
+            }
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.add("-jar");
+        command.add(jar.toString());
+        command.add("sqrt(16) + sin(0.5) * 2 ^ 3");
+    }
+
+    @Benchmark
+    public int evaluateOnce() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command)
+            .redirectOutput(ProcessBuilder.Redirect.to(new File(nullDevice())))
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        int exit = process.waitFor();
+        if (exit != 0) {
+            throw new IllegalStateException("CLI exited with " + exit);
+        }
+        return exit;
+    }
+
+    private static String nullDevice() {
+        return System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null";
+    }
+}
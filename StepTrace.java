@@ -0,0 +1,101 @@
+package com.calculator.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Recorded evaluation, rendered into step strings only when asked for.
+ *
+ * For a full trace the machine stores just the value each instruction left
+ * on top of the stack; replaying the program over those values rebuilds
+ * every intermediate stack without having kept it.
+ */
+final class StepTrace {
+    
+    private final TraceLevel level;
+    private final CompiledExpression compiled;
+    private final double[] results;
+    private final double result;
+    
+    StepTrace(TraceLevel level, CompiledExpression compiled, double[] results, double result) {
+        this.level = level;
+        this.compiled = compiled;
+        this.results = results;
+        this.result = result;
+    }
+    
+    List<String> render() {
+        if (level == TraceLevel.NONE) {
+            return Collections.emptyList();
+        }
+        
+        List<String> steps = new ArrayList<>();
+        steps.add("✓ Expression validated");
+        steps.add("✓ Tokenized: " + compiled.getTokens());
+        for (String rewrite : compiled.getRewrites()) {
+            steps.add("✓ Optimized: " + rewrite);
+        }
+        steps.add("✓ Postfix notation: " + compiled.getPostfix());
+        if (level == TraceLevel.FULL) {
+            renderExecution(steps);
+        }
+        steps.add("✓ Result: " + result);
+        return Collections.unmodifiableList(steps);
+    }
+    
+    private void renderExecution(List<String> steps) {
+        PostfixProgram program = compiled.getProgram();
+        double[] stack = new double[Math.max(1, program.maxStack)];
+        int top = 0;
+        
+        for (int i = 0; i < program.code.length; i++) {
+            String token = program.token(i);
+            switch (PostfixProgram.opcode(program.code[i])) {
+                case PostfixProgram.CONST:
+                case PostfixProgram.LOAD:
+                    stack[top++] = results[i];
+                    steps.add("  Push " + token + " → Stack: " + render(stack, top));
+                    break;
+                case PostfixProgram.DUP:
+                    stack[top++] = results[i];
+                    steps.add("  Duplicate → Stack: " + render(stack, top));
+                    break;
+                case PostfixProgram.STORE:
+                    steps.add("  Store " + stack[top - 1] + " → " + token.substring(1));
+                    break;
+                case PostfixProgram.RELOAD:
+                    stack[top++] = results[i];
+                    steps.add("  Reuse " + token + " → Stack: " + render(stack, top));
+                    break;
+                case PostfixProgram.CALL: {
+                    int arity = program.functions[PostfixProgram.operand(program.code[i])].arity;
+                    top -= arity - 1;
+                    StringBuilder args = new StringBuilder();
+                    for (int k = 0; k < arity; k++) {
+                        if (k > 0) args.append(", ");
+                        args.append(stack[top - 1 + k]);
+                    }
+                    steps.add("  Apply " + token + "(" + args + ") = " + results[i]);
+                    stack[top - 1] = results[i];
+                    break;
+                }
+                default:
+                    double b = stack[--top];
+                    double a = stack[top - 1];
+                    steps.add("  Apply " + a + " " + token + " " + b + " = " + results[i]);
+                    stack[top - 1] = results[i];
+            }
+        }
+    }
+    
+    // Same format as java.util.Stack#toString
+    private static String render(double[] stack, int top) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < top; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(stack[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,236 @@
+package com.calculator.core;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Common subexpression elimination for the optimizer's expression tree.
+ *
+ * The tree is hash-consed into a DAG so structurally identical subtrees
+ * become one node. When emitting, a shared node is computed the first time
+ * it is reached and kept in a temp slot ({@link PostfixProgram#STORE});
+ * every later occurrence reloads it instead of recomputing.
+ *
+ * Calls to functions that are not pure never match anything, so they run
+ * once per occurrence exactly as written. Built-ins are pure; user functions
+ * opt in with the {@code pure} flag when they are registered.
+ */
+final class SubexpressionSharing {
+
+    private final Map<Key, ExpressionNode> canonical = new HashMap<>();
+    private final Map<ExpressionNode, Integer> uses = new IdentityHashMap<>();
+    private final Map<ExpressionNode, Integer> slots = new IdentityHashMap<>();
+    private int treeNodes;
+    private int impureCalls;
+
+    private SubexpressionSharing() {
+    }
+
+    /**
+     * Emits {@code root} with shared subexpressions computed once. Returns
+     * the number of tree nodes that were deduplicated.
+     */
+    static int emit(ExpressionNode root, PostfixProgram.Builder builder, List<String> rewrites) {
+        SubexpressionSharing sharing = new SubexpressionSharing();
+        ExpressionNode dag = sharing.intern(root);
+        sharing.countUses(dag);
+
+        int deduplicated = sharing.treeNodes - sharing.uses.size();
+        int shared = 0;
+        for (Map.Entry<ExpressionNode, Integer> entry : sharing.uses.entrySet()) {
+            if (entry.getValue() > 1 && isComputed(entry.getKey())) {
+                shared++;
+            }
+        }
+        if (shared > 0) {
+            rewrites.add("Shared " + shared + " repeated subexpression" +
+                (shared == 1 ? "" : "s") + " (" + deduplicated + " nodes deduplicated)");
+        }
+
+        sharing.emitShared(dag, builder);
+        return deduplicated;
+    }
+
+    // Bottom-up over the post-order, so children are canonical before their parent
+    private ExpressionNode intern(ExpressionNode root) {
+        ExpressionNode[] stack = new ExpressionNode[16];
+        int top = 0;
+        for (ExpressionNode node : ExpressionNode.postOrder(root)) {
+            treeNodes++;
+            ExpressionNode rebuilt;
+            if (node.arguments != null) {
+                top -= node.arguments.length;
+                ExpressionNode[] arguments = Arrays.copyOfRange(stack, top, top + node.arguments.length);
+                boolean changed = false;
+                for (int i = 0; i < arguments.length; i++) {
+                    changed |= arguments[i] != node.arguments[i];
+                }
+                rebuilt = changed ? node.withArguments(arguments) : node;
+            } else {
+                ExpressionNode right = node.right == null ? null : stack[--top];
+                ExpressionNode left = node.left == null ? null : stack[--top];
+                rebuilt = left == node.left && right == node.right
+                    ? node : node.withChildren(left, right);
+            }
+
+            Key key = new Key(rebuilt, isShareable(rebuilt) ? 0 : ++impureCalls);
+            ExpressionNode existing = canonical.putIfAbsent(key, rebuilt);
+            if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+            stack[top++] = existing != null ? existing : rebuilt;
+        }
+        return stack[0];
+    }
+
+    private void countUses(ExpressionNode root) {
+        ArrayDeque<ExpressionNode> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            ExpressionNode node = pending.pop();
+            // Children of a shared node are only counted the first time it is reached
+            if (uses.merge(node, 1, Integer::sum) > 1) continue;
+            if (node.left != null) pending.push(node.left);
+            if (node.right != null) pending.push(node.right);
+            if (node.arguments != null) {
+                for (ExpressionNode argument : node.arguments) pending.push(argument);
+            }
+        }
+    }
+
+    /**
+     * Emits the DAG in post-order from an explicit stack. A node is pushed
+     * once to emit its children and again, marked as expanded, to emit
+     * itself after them.
+     */
+    private void emitShared(ExpressionNode root, PostfixProgram.Builder builder) {
+        ArrayDeque<ExpressionNode> pending = new ArrayDeque<>();
+        Set<ExpressionNode> expanded = Collections.newSetFromMap(new IdentityHashMap<>());
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            ExpressionNode node = pending.pop();
+            if (expanded.remove(node)) {
+                emitNode(node, builder);
+                continue;
+            }
+            Integer slot = slots.get(node);
+            if (slot != null) {
+                builder.reload(slot);
+                continue;
+            }
+
+            switch (node.kind) {
+                case PostfixProgram.CONST:
+                    builder.constant(node.value, node.start, node.end, node.describe());
+                    continue;
+                case PostfixProgram.LOAD:
+                    builder.load(node.slot, node.start, node.end, node.text);
+                    continue;
+                default:
+                    expanded.add(node);
+                    pending.push(node);
+                    if (node.arguments != null) {
+                        for (int i = node.arguments.length - 1; i >= 0; i--) {
+                            pending.push(node.arguments[i]);
+                        }
+                    } else {
+                        if (node.right != null) pending.push(node.right);
+                        pending.push(node.left);
+                    }
+            }
+        }
+    }
+
+    // Emits an operator, call or power whose operands are already on the stack
+    private void emitNode(ExpressionNode node, PostfixProgram.Builder builder) {
+        switch (node.kind) {
+            case PostfixProgram.CALL:
+                builder.call(node.function, node.start, node.end, node.text);
+                break;
+            case ExpressionNode.POWER:
+                Optimizer.emitPower(node.exponent, builder);
+                break;
+            default:
+                builder.operator(node.kind, node.start, node.end,
+                    PostfixProgram.operatorSymbol(node.kind));
+        }
+
+        if (uses.get(node) > 1) {
+            slots.put(node, builder.store());
+        }
+    }
+
+    // Leaves are as cheap to push again as to reload
+    private static boolean isComputed(ExpressionNode node) {
+        return node.kind != PostfixProgram.CONST && node.kind != PostfixProgram.LOAD;
+    }
+
+    private static boolean isShareable(ExpressionNode node) {
+        return node.kind != PostfixProgram.CALL || node.function.pure;
+    }
+
+    /**
+     * Structural identity of a node whose children are already canonical,
+     * so children compare by reference.
+     */
+    private static final class Key {
+        private final int kind;
+        private final long value;
+        private final int slot;
+        private final int exponent;
+        private final Object function;
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+        private final ExpressionNode[] arguments;
+        private final int unique;
+
+        Key(ExpressionNode node, int unique) {
+            this.kind = node.kind;
+            this.value = Double.doubleToRawLongBits(node.value);
+            this.slot = node.slot;
+            this.exponent = node.exponent;
+            this.function = node.function;
+            this.left = node.left;
+            this.right = node.right;
+            this.arguments = node.arguments;
+            this.unique = unique;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return kind == k.kind && value == k.value && slot == k.slot &&
+                exponent == k.exponent && function == k.function &&
+                left == k.left && right == k.right && unique == k.unique &&
+                sameArguments(arguments, k.arguments);
+        }
+
+        private static boolean sameArguments(ExpressionNode[] a, ExpressionNode[] b) {
+            if (a == b) return true;
+            if (a == null || b == null || a.length != b.length) return false;
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Objects.hash(kind, value, slot, exponent, unique,
+                System.identityHashCode(function),
+                System.identityHashCode(left), System.identityHashCode(right));
+            if (arguments != null) {
+                for (ExpressionNode argument : arguments) {
+                    hash = 31 * hash + System.identityHashCode(argument);
+                }
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.calculator;
+
+import com.calculator.core.CompiledExpression;
+import com.calculator.core.ExpressionEvaluator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Evaluates one expression over a table of variable values, one CSV row of
+ * numbers per line, and writes one result line per row in the same CSV
+ * layout as {@link BatchEvaluator}.
+ *
+ * Rows are read into reused column arrays a chunk at a time and each chunk
+ * is evaluated in a single column pass, which splits itself across cores.
+ * A row that cannot be evaluated gets an error line, as in
+ * {@link BatchEvaluator}, and the rest of the table carries on.
+ */
+public final class TableEvaluator {
+
+    private static final int CHUNK_ROWS = 1 << 16;
+
+    private final CompiledExpression expression;
+    private final double[][] columns;
+    private final double[] results = new double[CHUNK_ROWS];
+    private final String[] errors = new String[CHUNK_ROWS];
+    // Line of the chunk that each filled column row came from; unparsable lines get no row
+    private final int[] lineOf = new int[CHUNK_ROWS];
+
+    public TableEvaluator(String expression, String... variables) {
+        this.expression = ExpressionEvaluator.compile(expression, variables);
+        this.columns = new double[variables.length][CHUNK_ROWS];
+    }
+
+    public BatchEvaluator.Summary run(BufferedReader in, Writer out) throws IOException {
+        long start = System.nanoTime();
+        long lines = 0;
+        long errorCount = 0;
+        out.write("line,result,error\n");
+
+        int count = 0;
+        int rows = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            errors[count] = parseRow(line, rows);
+            if (errors[count] == null) lineOf[rows++] = count;
+            count++;
+            if (count == CHUNK_ROWS) {
+                errorCount += flush(lines + 1, count, rows, out);
+                lines += count;
+                count = 0;
+                rows = 0;
+            }
+        }
+        if (count > 0) {
+            errorCount += flush(lines + 1, count, rows, out);
+            lines += count;
+        }
+        out.flush();
+        return new BatchEvaluator.Summary(lines, errorCount, System.nanoTime() - start);
+    }
+
+    // Fills row of the columns; returns the error for an unusable line, else null
+    private String parseRow(String line, int row) {
+        int field = 0;
+        int from = 0;
+        while (true) {
+            int comma = line.indexOf(',', from);
+            int to = comma < 0 ? line.length() : comma;
+            if (field == columns.length) {
+                return "Expected " + columns.length + " values";
+            }
+            try {
+                columns[field++][row] = Double.parseDouble(line.substring(from, to).trim());
+            } catch (NumberFormatException e) {
+                return "Invalid number: " + line.substring(from, to).trim();
+            }
+            if (comma < 0) break;
+            from = comma + 1;
+        }
+        if (field != columns.length) {
+            return "Expected " + columns.length + " values";
+        }
+        return null;
+    }
+
+    // Writes count lines; the first rows entries of the columns hold the lines that parsed
+    private int flush(long firstLine, int count, int rows, Writer out) throws IOException {
+        double[] target = rows == CHUNK_ROWS ? results : new double[rows];
+        try {
+            expression.evaluate(columns, target);
+        } catch (RuntimeException e) {
+            // Some row fails; evaluate the chunk row by row to find which
+            double[] values = new double[columns.length];
+            for (int j = 0; j < rows; j++) {
+                for (int k = 0; k < columns.length; k++) values[k] = columns[k][j];
+                try {
+                    target[j] = expression.evaluate(values);
+                } catch (RuntimeException rowFailure) {
+                    errors[lineOf[j]] = rowFailure.getMessage() == null
+                        ? rowFailure.toString() : rowFailure.getMessage();
+                }
+            }
+        }
+
+        int errorCount = 0;
+        int row = 0;
+        StringBuilder sb = new StringBuilder(count * 24);
+        for (int i = 0; i < count; i++) {
+            sb.append(firstLine + i).append(',');
+            double value = row < rows && lineOf[row] == i ? target[row++] : 0;
+            if (errors[i] == null) {
+                sb.append(value).append(",\n");
+            } else {
+                sb.append(",\"").append(errors[i].replace("\"", "\"\"")).append("\"\n");
+                errorCount++;
+            }
+        }
+        out.append(sb);
+        return errorCount;
+    }
+}
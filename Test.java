@@ -1,9 +1,57 @@
 package test;
 
+import com.calculator.BatchEvaluator;
+import com.calculator.EvaluationServer;
+import com.calculator.TableEvaluator;
+import com.calculator.core.Backend;
+import com.calculator.core.CompiledExpression;
+import com.calculator.core.EvaluationMetrics;
+import com.calculator.core.EvaluationOptions;
 import com.calculator.core.ExpressionEvaluator;
+import com.calculator.core.ExpressionStore;
+import com.calculator.core.ExpressionSyntaxException;
+import com.calculator.core.FunctionCache;
+import com.calculator.core.FunctionSampler;
+import com.calculator.core.IncrementalEvaluator;
+import com.calculator.core.LruParseCache;
+import com.calculator.core.Matrix;
+import com.calculator.core.MatrixExpression;
+import com.calculator.core.PipelineStage;
+import com.calculator.core.PrecisionPath;
+import com.calculator.core.TraceLevel;
+import com.calculator.core.ValidationEngine;
+import com.calculator.core.VectorSupport;
+import com.calculator.core.Workspace;
+import com.calculator.numerics.CompensatedSum;
+import com.calculator.numerics.Integrator;
+import com.calculator.numerics.RootFinder;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 public class ExpressionEvaluatorTest {
     
     @Test
@@ -42,4 +90,735 @@ public class ExpressionEvaluatorTest {
             ExpressionEvaluator.evaluate("2 + ");
         });
     }
+    
+    @Test
+    public void testCompiledExpressionWithVariables() {
+        var compiled = ExpressionEvaluator.compile("exp(x) * 2 + y", "x", "y");
+        assertEquals(5.0, compiled.evaluate(0, 3), 0.0001);
+        assertEquals(2 * Math.E + 1, compiled.evaluate(1, 1), 0.0001);
+    }
+    
+    @Test
+    public void testCompiledResultsMatchEvaluate() {
+        // NaN, signed zeros and infinities included; raw bits, so no NaN or zero is folded together
+        String[] expressions = {"2 + 3 * 4", "(1.5 - 0.2) / 7 % 3", "sqrt(2) * ln(10) ^ 2",
+            "0.1 + 0.2", "sqrt(0 - 1)", "ln(0 - 1)", "exp(1000) - exp(1000)", "exp(1000) * 0",
+            "0 * (0 - 1)", "(0 - 1) % 1", "(0 - 1) / exp(1000)", "min(0, 0 * (0 - 1))",
+            "max(0 * (0 - 1), 0)", "exp(1000)", "0 - exp(1000)", "2 ^ 1024", "0 ^ 0"};
+        for (String expression : expressions) {
+            long legacy = Double.doubleToRawLongBits(ExpressionEvaluator.evaluateReference(expression));
+            CompiledExpression compiled = ExpressionEvaluator.compile(expression);
+            assertEquals(legacy, Double.doubleToRawLongBits(
+                ExpressionEvaluator.evaluate(expression).getResult()), expression);
+            assertEquals(legacy, Double.doubleToRawLongBits(compiled.evaluate()), expression);
+            assertEquals(legacy, Double.doubleToRawLongBits(
+                compiled.asFunction(Backend.BYTECODE).applyAsDouble(new double[0])), expression);
+        }
+        
+        // Variables keep the optimizer from folding, so power rewrites and sharing run too
+        String[] withVariables = {"x^2", "x^3", "x^4", "(x+1)*(x+1)", "sin(x)^2",
+            "sin(x)^2 + cos(x)^2", "x*x*x + x^3", "exp(x) * exp(x) - x", "(x - 1) / (x + 1) * (x - 1)"};
+        double[] values = new double[64];
+        Random random = new Random(42);
+        double[] special = {0.0, -0.0, 0.1, -2.75, 1.5, 3.3e-5, 1e10, 1e200, 123456.789,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE};
+        System.arraycopy(special, 0, values, 0, special.length);
+        for (int i = special.length; i < values.length; i++) {
+            values[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 10);
+        }
+        String[] names = {"x"};
+        for (String expression : withVariables) {
+            CompiledExpression compiled = ExpressionEvaluator.compile(expression, "x");
+            var bytecode = compiled.asFunction(Backend.BYTECODE);
+            for (double x : values) {
+                long legacy;
+                try {
+                    legacy = Double.doubleToRawLongBits(ExpressionEvaluator.evaluateReference(expression, names, x));
+                } catch (ArithmeticException e) {
+                    assertThrows(ArithmeticException.class, () -> compiled.evaluate(x));
+                    continue;
+                }
+                assertEquals(legacy, Double.doubleToRawLongBits(compiled.evaluate(x)), expression + " at " + x);
+                assertEquals(legacy, Double.doubleToRawLongBits(bytecode.applyAsDouble(new double[] {x})),
+                    expression + " at " + x);
+            }
+        }
+    }
+    
+    @Test
+    public void testParseCacheInvalidatedByRegisterFunction() {
+        ExpressionEvaluator.setParseCache(new LruParseCache(16, 1 << 20));
+        ExpressionEvaluator.registerFunction("twice", v -> v * 2);
+        assertEquals(6.0, ExpressionEvaluator.evaluate("twice(3)").getResult(), 0.0001);
+        assertEquals(6.0, ExpressionEvaluator.evaluate("twice(3)").getResult(), 0.0001);
+        assertEquals(1, ExpressionEvaluator.getParseCache().getStats().getHitCount());
+        
+        ExpressionEvaluator.registerFunction("twice", v -> v * 3);
+        assertEquals(9.0, ExpressionEvaluator.evaluate("twice(3)").getResult(), 0.0001);
+    }
+    
+    @Test
+    public void testParseCacheEvictsLeastRecentlyUsed() {
+        LruParseCache cache = new LruParseCache(8, 1 << 20);
+        for (int i = 0; i < 8; i++) {
+            cache.get(i + " + 1", ExpressionEvaluator::compile);
+        }
+        cache.get("0 + 1", ExpressionEvaluator::compile);
+        cache.get("8 + 1", ExpressionEvaluator::compile);
+        assertEquals(8, cache.getStats().getSize());
+        assertEquals(1, cache.getStats().getEvictionCount());
+        
+        // "1 + 1" was the eldest once "0 + 1" was used again
+        cache.get("0 + 1", ExpressionEvaluator::compile);
+        assertEquals(2, cache.getStats().getHitCount());
+        cache.get("1 + 1", ExpressionEvaluator::compile);
+        assertEquals(10, cache.getStats().getMissCount());
+        
+        // Larger caches split into segments but stay within both budgets
+        LruParseCache striped = new LruParseCache(100, 1 << 20);
+        for (int i = 0; i < 1000; i++) {
+            striped.get(i + " * x", key -> ExpressionEvaluator.compile(key, "x"));
+        }
+        assertTrue(striped.getStats().getSize() <= 100);
+        assertEquals(1000 - striped.getStats().getSize(), striped.getStats().getEvictionCount());
+    }
+    
+    @Test
+    public void testTraceLevels() {
+        assertTrue(ExpressionEvaluator.evaluate("1 + 2").getSteps().isEmpty());
+        
+        // A user function is not folded by the optimizer, so every step runs
+        ExpressionEvaluator.registerFunction("inc", v -> v + 1);
+        var full = ExpressionEvaluator.evaluate("inc(1) + 2",
+            EvaluationOptions.defaults().withTraceLevel(TraceLevel.FULL));
+        assertEquals("  Push 2 → Stack: [2.0, 2.0]", full.getSteps().get(5));
+        assertEquals("  Apply 2.0 + 2.0 = 4.0", full.getSteps().get(6));
+    }
+    
+    @Test
+    public void testSyntaxErrorOffset() {
+        var error = assertThrows(ExpressionSyntaxException.class, () -> {
+            ValidationEngine.validate("1 + (2 */ 3)");
+        });
+        assertEquals(8, error.getOffset());
+    }
+    
+    @Test
+    public void testBytecodeBackendMatchesInterpreter() {
+        var compiled = ExpressionEvaluator.compile("sin(x) * 2 + y ^ 2 % 7 - log(x) / 3", "x", "y");
+        double[] values = {0.7, 3.2};
+        assertEquals(compiled.asFunction(Backend.INTERPRETER).applyAsDouble(values),
+            compiled.asFunction(Backend.BYTECODE).applyAsDouble(values));
+    }
+    
+    @Test
+    public void testOptimizerHandlesLongExpressions() {
+        // Folded one level at a time without recursing down the chain
+        String ones = "1" + " + 1".repeat(99999);
+        assertEquals(100000.0, ExpressionEvaluator.evaluate(ones).getResult(), 0.0);
+        var traced = ExpressionEvaluator.evaluate(ones,
+            EvaluationOptions.defaults().withTraceLevel(TraceLevel.SUMMARY));
+        assertTrue(traced.getSteps().contains("✓ Optimized: Folded 99999.0 + 1 → 100000.0"));
+    }
+    
+    @Test
+    public void testOptimizerFoldsConstants() {
+        var result = ExpressionEvaluator.evaluate("sqrt(16) * log(100) + 2 ^ 3",
+            EvaluationOptions.defaults().withTraceLevel(TraceLevel.SUMMARY));
+        assertEquals(16.0, result.getResult(), 0.0);
+        assertEquals("16.0", result.getPostfix());
+        assertTrue(result.getSteps().contains("✓ Optimized: Folded sqrt(16) → 4.0"));
+        
+        var compiled = ExpressionEvaluator.compile("(x + 1) ^ 2 * 1", "x");
+        assertEquals("x 1 + dup *", compiled.getPostfix());
+        assertEquals(9.0, compiled.evaluate(2), 0.0);
+    }
+    
+    @Test
+    public void testRepeatedSubexpressionsComputedOnce() {
+        int[] calls = {0};
+        ExpressionEvaluator.registerFunction("costly", v -> { calls[0]++; return v + 1; }, true);
+        var compiled = ExpressionEvaluator.compile("costly(x / 2) * costly(x / 2) + x / 2", "x");
+        
+        assertEquals(29.0, compiled.evaluate(8), 0.0);
+        assertEquals(1, calls[0]);
+        assertTrue(compiled.getDeduplicatedNodeCount() > 0);
+    }
+    
+    @Test
+    public void testSharingHandlesLongExpressions() {
+        // Interned, counted and emitted without recursing down the chain
+        String xs = "x" + " + x".repeat(99999);
+        assertEquals(200000.0, ExpressionEvaluator.compile(xs, "x").evaluate(2), 0.0);
+        String squares = "x * x" + " + x * x".repeat(19999);
+        var compiled = ExpressionEvaluator.compile(squares, "x");
+        assertEquals(180000.0, compiled.evaluate(3), 0.0);
+        assertEquals(180000.0, compiled.asFunction(Backend.BYTECODE).applyAsDouble(new double[] {3}), 0.0);
+    }
+    
+    @Test
+    public void testPlotSamplingRefinesAndDownsamples() {
+        var function = ExpressionEvaluator.compile("1 / x", "x").asFunction(Backend.BYTECODE);
+        double[][] points = FunctionSampler.sample(function, -1, 1, 21, () -> false);
+        assertTrue(points[0].length > 41, "pole at 0 should be refined");
+        for (int i = 1; i < points[0].length; i++) {
+            assertTrue(points[0][i] > points[0][i - 1]);
+        }
+        
+        double[][] reduced = FunctionSampler.downsample(points[0], points[1], 50);
+        assertEquals(50, reduced[0].length);
+        assertEquals(-1.0, reduced[0][0], 0.0);
+        assertEquals(1.0, reduced[0][49], 0.0);
+    }
+    
+    @Test
+    public void testMultiArgumentFunctions() {
+        assertEquals(4.0, ExpressionEvaluator.evaluate("max(2, 3) + min(4, 1)").getResult(), 0.0);
+        assertEquals(5.0, ExpressionEvaluator.evaluate("hypot(3, 4)").getResult(), 0.0);
+        
+        ExpressionEvaluator.registerFunction("clamp", 3,
+            args -> Math.max(args[1], Math.min(args[2], args[0])), true);
+        var compiled = ExpressionEvaluator.compile("clamp(x * 10, 0, 5) + atan2(x, 1)", "x");
+        double[] values = {0.3};
+        assertEquals(3.0 + Math.atan2(0.3, 1), compiled.evaluate(values), 1e-12);
+        assertEquals(compiled.evaluate(values),
+            compiled.asFunction(Backend.BYTECODE).applyAsDouble(values), 0.0);
+        
+        // One- and two-argument n-ary functions work on every call path
+        ExpressionEvaluator.registerFunction("triple", 1, args -> 3 * args[0], true);
+        ExpressionEvaluator.registerFunction("average", 2, args -> (args[0] + args[1]) / 2, true);
+        var small = ExpressionEvaluator.compile("triple(x) + average(x, 4)", "x");
+        assertEquals(5.5, small.evaluate(1), 0.0);
+        assertEquals(5.5, small.asFunction(Backend.BYTECODE).applyAsDouble(new double[] {1}), 0.0);
+        
+        assertThrows(RuntimeException.class, () -> ExpressionEvaluator.evaluate("max(1)"));
+        assertThrows(RuntimeException.class, () -> ExpressionEvaluator.evaluate("(1, 2)"));
+    }
+    
+    @Test
+    public void testBatchEvaluatorErrorsAndWriterFailure() throws Exception {
+        ExpressionEvaluator.setParseCache(new LruParseCache(16, 1 << 20));
+        ExpressionEvaluator.registerFunction("boom", v -> { throw new AssertionError("boom"); });
+        StringWriter out = new StringWriter();
+        var summary = new BatchEvaluator(2, BatchEvaluator.Format.CSV)
+            .run(new BufferedReader(new StringReader("1 + 1\nboom(1)\n2 *\n")), out);
+        assertEquals(3, summary.getLines());
+        assertEquals(2, summary.getErrors());
+        assertTrue(out.toString().startsWith("line,result,error\n1,2.0,\n2,,\"boom\"\n3,,"));
+        // Batch lines do not go through the shared cache
+        assertEquals(0, ExpressionEvaluator.getParseCache().getStats().getMissCount());
+        
+        // The reader stops as soon as the writer fails, even with the queue full
+        Writer broken = new Writer() {
+            @Override public void write(char[] buffer, int offset, int length) throws IOException {
+                throw new IOException("disk full");
+            }
+            @Override public void flush() { }
+            @Override public void close() { }
+        };
+        String input = "1 + 1\n".repeat(500000);
+        IOException error = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(
+            IOException.class, () -> new BatchEvaluator(1, BatchEvaluator.Format.JSONL)
+                .run(new BufferedReader(new StringReader(input)), broken)));
+        assertEquals("disk full", error.getMessage());
+    }
+    
+    @Test
+    public void testBatchEvaluatorStopsWriterWhenReadingFails() {
+        BufferedReader failing = new BufferedReader(new StringReader("")) {
+            private int calls;
+            @Override public String readLine() throws IOException {
+                if (calls++ < 3) return "1 + 1";
+                throw new IOException("read failed");
+            }
+        };
+        IOException error = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(
+            IOException.class, () -> new BatchEvaluator(2, BatchEvaluator.Format.CSV)
+                .run(failing, new StringWriter())));
+        assertEquals("read failed", error.getMessage());
+        // The writer has ended before run() threw, not merely been told to
+        assertTrue(Thread.getAllStackTraces().keySet().stream()
+            .noneMatch(t -> t.getName().equals("batch-writer") && t.isAlive()));
+    }
+    
+    @Test
+    public void testEvaluationServerBatches() throws Exception {
+        EvaluationServer server = new EvaluationServer(0, 2, 16);
+        server.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://localhost:" + server.getPort() + "/evaluate");
+            String body = "{\"expression\": \"x * y\", \"variables\": [\"x\", \"y\"], " +
+                "\"bindings\": [[1, 2], [3, 4]]}";
+            HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertEquals("{\"results\":[2.0,12.0]}", response.body());
+            
+            response = client.send(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers
+                .ofString("{\"expressions\": [\"1 + 1\", \"2 *\"]}")).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertTrue(response.body().startsWith("{\"results\":[2.0,{\"error\":"));
+            assertEquals(2, server.getLatency().getCount());
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test
+    public void testEvaluationServerRejectsWhenBusy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ExpressionEvaluator.registerUnaryFunction("wait", v -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return v;
+        }, false);
+        // One worker and one queue slot, but more HTTP threads than that
+        EvaluationServer server = new EvaluationServer(0, 1, 1);
+        server.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://localhost:" + server.getPort() + "/evaluate");
+            HttpRequest slow = HttpRequest.newBuilder(uri)
+                .POST(HttpRequest.BodyPublishers.ofString("{\"expression\": \"wait(1)\"}")).build();
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                responses.add(client.sendAsync(slow, HttpResponse.BodyHandlers.ofString()));
+            }
+            // Two are accepted; the other two are answered while the worker is still busy
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (responses.stream().filter(CompletableFuture::isDone).count() < 2
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, responses.stream().filter(CompletableFuture::isDone).count());
+            for (var response : responses) {
+                if (response.isDone()) assertEquals(503, response.get().statusCode());
+            }
+            HttpResponse<String> stats = client.send(HttpRequest.newBuilder(
+                URI.create("http://localhost:" + server.getPort() + "/stats"))
+                .timeout(Duration.ofSeconds(10)).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, stats.statusCode());
+            assertTrue(stats.body().contains("\"rejected\":2"), stats.body());
+            
+            release.countDown();
+            int ok = 0;
+            for (var response : responses) {
+                if (response.get().statusCode() == 200) ok++;
+            }
+            assertEquals(2, ok);
+            
+            HttpResponse<String> deep = client.send(HttpRequest.newBuilder(uri)
+                .POST(HttpRequest.BodyPublishers.ofString("[".repeat(100000))).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, deep.statusCode());
+            assertTrue(deep.body().contains("Nesting deeper than"));
+        } finally {
+            release.countDown();
+            server.stop();
+        }
+    }
+    
+    @Test
+    public void testStageTimingsAndMetrics() {
+        EvaluationMetrics.setEnabled(true);
+        try {
+            long before = EvaluationMetrics.getEvaluationCount();
+            var first = ExpressionEvaluator.evaluate("sqrt(1764.5) + 41");
+            assertTrue(first.getStageNanos(PipelineStage.LEX) > 0);
+            assertTrue(first.getTimeNanos() >= first.getStageNanos(PipelineStage.OPTIMIZE));
+            
+            // Served from the parse cache: only execution runs
+            var second = ExpressionEvaluator.evaluate("sqrt(1764.5) + 41");
+            assertEquals(0, second.getStageNanos(PipelineStage.LEX));
+            assertEquals(before + 2, EvaluationMetrics.getEvaluationCount());
+            assertTrue(EvaluationMetrics.stage(PipelineStage.EXECUTE).getCount() >= 2);
+        } finally {
+            EvaluationMetrics.setEnabled(false);
+        }
+    }
+    
+    @Test
+    public void testAdaptivePrecision() {
+        var plain = ExpressionEvaluator.evaluate("0.1 + 0.2");
+        assertEquals(PrecisionPath.DOUBLE, plain.getPrecisionPath());
+        assertNull(plain.getDecimalResult());
+        
+        // 0.30000000000000004 cannot be trusted to 16 digits
+        var exact = ExpressionEvaluator.evaluate("0.1 + 0.2",
+            EvaluationOptions.defaults().withMathContext(new MathContext(16)));
+        assertEquals(PrecisionPath.DECIMAL, exact.getPrecisionPath());
+        assertEquals(0, new BigDecimal("0.3").compareTo(exact.getDecimalResult()));
+        
+        var bounded = ExpressionEvaluator.evaluate("0.1 + 0.2",
+            EvaluationOptions.defaults().withMathContext(new MathContext(15)));
+        assertEquals(PrecisionPath.DOUBLE_BOUNDED, bounded.getPrecisionPath());
+        assertEquals(0, new BigDecimal("0.3").compareTo(bounded.getDecimalResult()));
+        
+        var quotient = ExpressionEvaluator.evaluate("1 / 3 * 3",
+            EvaluationOptions.defaults().withMathContext(MathContext.DECIMAL64));
+        assertEquals(0, BigDecimal.ONE.compareTo(quotient.getDecimalResult()));
+        
+        // Functions and fractional powers are computed in BigDecimal, well past double's digits
+        MathContext thirty = new MathContext(30);
+        var root = ExpressionEvaluator.evaluate("sqrt(2)", EvaluationOptions.defaults().withMathContext(thirty));
+        assertEquals(PrecisionPath.DECIMAL, root.getPrecisionPath());
+        assertEquals(new BigDecimal("1.41421356237309504880168872421"), root.getDecimalResult());
+        assertEquals(new BigDecimal("1.41421356237309504880168872421"), ExpressionEvaluator.evaluate("2 ^ 0.5",
+            EvaluationOptions.defaults().withMathContext(thirty)).getDecimalResult());
+        assertEquals(new BigDecimal("2.71828182845904523536028747135"), ExpressionEvaluator.evaluate("exp(1)",
+            EvaluationOptions.defaults().withMathContext(thirty)).getDecimalResult());
+        assertEquals(new BigDecimal("0.841470984807896506652502321630"), ExpressionEvaluator.evaluate("sin(1)",
+            EvaluationOptions.defaults().withMathContext(thirty)).getDecimalResult());
+        
+        // A registered function only computes in double, so its digits are not guaranteed
+        ExpressionEvaluator.registerFunction("halve", v -> v / 2);
+        var approximate = ExpressionEvaluator.evaluate("halve(0.2) + 0.2",
+            EvaluationOptions.defaults().withMathContext(thirty));
+        assertEquals(PrecisionPath.DECIMAL_APPROXIMATE, approximate.getPrecisionPath());
+    }
+    
+    @Test
+    public void testBoundedPrecisionMatchesDecimal() {
+        // Near a pole or a root a function amplifies argument error far below an ulp
+        String[] expressions = {"cos(1.5707963267948966)", "tan(1.5707963267948966)", "tan(1.57)",
+            "ln(1.0000001)", "exp(100.3)", "sin(100000.1)", "sin(1) * 3", "sqrt(2) + 1",
+            "cos(2) ^ 3", "2 ^ 0.5", "atan2(1, 3)", "0.1 + 0.2"};
+        MathContext reference = new MathContext(60);
+        int bounded = 0;
+        for (String expression : expressions) {
+            BigDecimal exact = ExpressionEvaluator.evaluate(expression,
+                EvaluationOptions.defaults().withMathContext(reference)).getDecimalResult();
+            for (int digits : new int[] {10, 15, 16}) {
+                MathContext context = new MathContext(digits);
+                var result = ExpressionEvaluator.evaluate(expression,
+                    EvaluationOptions.defaults().withMathContext(context));
+                if (result.getPrecisionPath() == PrecisionPath.DOUBLE_BOUNDED) bounded++;
+                assertEquals(0, exact.round(context).compareTo(result.getDecimalResult()),
+                    expression + " @" + digits + " via " + result.getPrecisionPath());
+            }
+        }
+        assertTrue(bounded > 0);
+    }
+    
+    @Test
+    public void testIntegrateAndSolve() {
+        assertEquals(9.0, Integrator.integrate("x^2", "x", 0, 3).getValue(), 1e-12);
+        assertEquals(Math.sqrt(2), RootFinder.solve("x^2 - 2", "x", 0, 2), 1e-12);
+        // No sign change between the bounds: the range is scanned for one
+        assertEquals(Math.PI, RootFinder.solve(Math::sin, 1, 4), 1e-12);
+        assertEquals(1.0, CompensatedSum.sum(1e100, 1.0, -1e100));
+        
+        assertEquals(2.0, ExpressionEvaluator.evaluate("integrate(sin(t), t, 0, 3.141592653589793)").getResult(), 1e-12);
+        assertEquals(0.7390851332151607, ExpressionEvaluator.evaluate("solve(cos(x) - x, x, 0, 1)").getResult(), 1e-12);
+        assertEquals(9.0, ExpressionEvaluator.compile("integrate(x^2, x, 0, a)", "a").evaluate(3), 1e-12);
+        // Bodies see the surrounding expression's variables
+        assertEquals(0.25, ExpressionEvaluator.compile("integrate(x^k, x, 0, 1)", "k").evaluate(3), 1e-12);
+        assertEquals(Math.sqrt(5), ExpressionEvaluator.compile("solve(x^2 - c, x, 0, c)", "c").evaluate(5), 1e-12);
+        assertEquals(1.0 / 2 + 1.0 / 3 + 1.0 / 4, ExpressionEvaluator.compile(
+            "integrate(sum(i, 1, n, x^i), x, 0, 1)", "n").evaluate(3), 1e-12);
+        
+        var error = assertThrows(RuntimeException.class,
+            () -> ExpressionEvaluator.evaluate("integrate(y, x, 0, 1)"));
+        assertTrue(error.getMessage().contains("Unknown variable: y at position 10"));
+    }
+    
+    @Test
+    public void testIncrementalEvaluationReusesPrefix() {
+        IncrementalEvaluator live = new IncrementalEvaluator();
+        EvaluationOptions options = EvaluationOptions.defaults();
+        
+        assertEquals(7.0, live.evaluate("sqrt(16) + 3", options).getResult(), 1e-10);
+        assertEquals(0, live.getReusedTokenCount());
+        
+        // "sqrt", "(", "16", ")" and "+" are unchanged; "3" grew to "35"
+        assertEquals(39.0, live.evaluate("sqrt(16) + 35", options).getResult(), 1e-10);
+        assertEquals(5, live.getReusedTokenCount());
+        
+        assertThrows(RuntimeException.class, () -> live.evaluate("sqrt(16) + ", options));
+        assertEquals(6.0, live.evaluate("sqrt(16) + 2", options).getResult(), 1e-10);
+    }
+    
+    @Test
+    public void testMemoizedFunction() {
+        int[] calls = new int[1];
+        FunctionCache cache = new FunctionCache(64, FunctionCache.Eviction.LRU);
+        ExpressionEvaluator.registerUnaryFunction("slowsquare", x -> {
+            calls[0]++;
+            return x * x;
+        }, cache);
+        
+        // A variable argument, so nothing is folded at compile time
+        var doubled = ExpressionEvaluator.compile("slowsquare(x) + slowsquare(x)", "x");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(50.0, doubled.evaluate(5), 1e-10);
+        }
+        // The repeated call is shared, so each evaluation looks the argument up
+        // once: the first misses and calls the function, the other two hit
+        assertEquals(1, calls[0]);
+        assertEquals(1, cache.getStats().getMissCount());
+        assertEquals(2, cache.getStats().getHitCount());
+        
+        // The cache is bounded: distinct arguments evict older entries
+        for (int i = 0; i < 1000; i++) {
+            ExpressionEvaluator.compile("slowsquare(x)", "x").evaluate(i);
+        }
+        assertTrue(cache.getStats().getSize() <= cache.getCapacity());
+        assertTrue(cache.getStats().getEvictionCount() > 0);
+        
+        assertThrows(IllegalArgumentException.class,
+            () -> ExpressionEvaluator.registerUnaryFunction("other", Math::sqrt, cache));
+    }
+    
+    @Test
+    public void testColumnEvaluation() {
+        CompiledExpression f = ExpressionEvaluator.compile("x * y + sin(x) / (y + 2)", "x", "y");
+        int rows = 50_000;
+        double[] xs = new double[rows];
+        double[] ys = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            xs[i] = i * 0.001;
+            ys[i] = rows - i;
+        }
+        
+        double[] out = new double[rows];
+        f.evaluate(new double[][] {xs, ys}, out);
+        for (int i = 0; i < rows; i += 997) {
+            assertEquals(f.evaluate(xs[i], ys[i]), out[i], 0.0);
+        }
+        
+        assertThrows(ArithmeticException.class,
+            () -> ExpressionEvaluator.compile("1 / x", "x").evaluate(new double[][] {{1, 0}}, new double[2]));
+        assertThrows(IllegalArgumentException.class,
+            () -> f.evaluate(new double[][] {xs}, out));
+    }
+    
+    @Test
+    public void testTableEvaluatorRowErrors() throws Exception {
+        // A row failing with any error, not just division by zero, only fails that row
+        StringWriter out = new StringWriter();
+        var summary = new TableEvaluator("sum(i, 1, n, i) / (n - 4)", "n")
+            .run(new BufferedReader(new StringReader("1\n2.5\nx\n4\n3\n")), out);
+        assertEquals(5, summary.getLines());
+        assertEquals(3, summary.getErrors());
+        String[] lines = out.toString().split("\n");
+        assertEquals("line,result,error", lines[0]);
+        assertEquals("1,-0.3333333333333333,", lines[1]);
+        assertTrue(lines[2].startsWith("2,,\"") && lines[2].contains("integers"));
+        assertEquals("3,,\"Invalid number: x\"", lines[3]);
+        assertTrue(lines[4].startsWith("4,,\""));
+        assertEquals("5,-6.0,", lines[5]);
+    }
+    
+    @Test
+    public void testVectorKernelsMatchScalar() {
+        CompiledExpression f = ExpressionEvaluator.compile("abs(x) * sqrt(y) + max(x, y) / (y + 1) - x", "x", "y");
+        int rows = 1003;
+        double[][] columns = new double[2][rows];
+        for (int i = 0; i < rows; i++) {
+            columns[0][i] = Math.sin(i) * 10;
+            columns[1][i] = i * 0.01;
+        }
+        
+        double[] scalar = new double[rows];
+        double[] vector = new double[rows];
+        VectorSupport.setEnabled(false);
+        f.evaluate(columns, scalar);
+        try {
+            // Without the incubator module this stays off and both runs are scalar
+            assertEquals(VectorSupport.isAvailable(), VectorSupport.setEnabled(true));
+            f.evaluate(columns, vector);
+            assertThrows(ArithmeticException.class,
+                () -> ExpressionEvaluator.compile("1 / x", "x").evaluate(new double[][] {new double[64]}, new double[64]));
+        } finally {
+            VectorSupport.setEnabled(false);
+        }
+        for (int i = 0; i < rows; i++) {
+            assertEquals(Double.doubleToLongBits(scalar[i]), Double.doubleToLongBits(vector[i]));
+        }
+    }
+    
+    @Test
+    public void testWorkspaceRecomputesDependents() {
+        Workspace sheet = new Workspace();
+        sheet.define("total", "margin * qty");
+        assertTrue(Double.isNaN(sheet.get("total")));
+        
+        sheet.set("price", 10);
+        sheet.set("cost", 4);
+        sheet.set("qty", 3);
+        sheet.define("margin", "price - cost");
+        assertEquals(18.0, sheet.get("total"), 0.0);
+        
+        List<String> changed = new ArrayList<>();
+        sheet.define("unrelated", "qty * 2");
+        sheet.addListener((name, value, error) -> changed.add(name));
+        sheet.set("price", 12);
+        assertEquals(List.of("price", "margin", "total"), changed);
+        assertEquals(24.0, sheet.get("total"), 0.0);
+        
+        assertThrows(IllegalArgumentException.class, () -> sheet.define("cost", "total / 2"));
+        assertEquals("price - cost", sheet.getExpression("margin"));
+        
+        sheet.set("qty", 0);
+        sheet.define("perUnit", "margin / qty");
+        assertNotNull(sheet.getError("perUnit"));
+        sheet.set("qty", 4);
+        assertEquals(2.0, sheet.get("perUnit"), 0.0);
+    }
+    
+    @Test
+    public void testWorkspaceHandlesLongChains() {
+        Workspace sheet = new Workspace();
+        int n = 20000;
+        sheet.set("a0", 0);
+        for (int i = 1; i <= n; i++) {
+            sheet.define("a" + i, "a" + (i - 1) + " + 1");
+        }
+        assertEquals(n, sheet.get("a" + n), 0.0);
+        
+        // Closing the loop walks the whole chain to find the cycle
+        var error = assertThrows(IllegalArgumentException.class, () -> sheet.define("a0", "a" + n + " * 2"));
+        assertTrue(error.getMessage().startsWith("Circular reference: a0 -> a" + n + " -> a" + (n - 1)),
+            error.getMessage().substring(0, 60));
+        assertTrue(error.getMessage().endsWith("a1 -> a0"));
+        
+        sheet.set("a0", 5);
+        assertEquals(n + 5, sheet.get("a" + n), 0.0);
+    }
+    
+    @Test
+    public void testExpressionStoreRoundTrip() throws Exception {
+        List<CompiledExpression> expressions = List.of(
+            ExpressionEvaluator.compile("sqrt(x) * 2 + max(x, y) % 3", "x", "y"),
+            ExpressionEvaluator.compile("(x + 1) ^ 2 * 1", "x"));
+        Path file = Files.createTempFile("expressions", ".bin");
+        try {
+            ExpressionStore.write(file, expressions);
+            List<CompiledExpression> loaded = ExpressionStore.read(file);
+            assertEquals(2, loaded.size());
+            for (int i = 0; i < loaded.size(); i++) {
+                assertEquals(expressions.get(i).getPostfix(), loaded.get(i).getPostfix());
+            }
+            assertEquals(expressions.get(0).evaluate(2.5, 4), loaded.get(0).evaluate(2.5, 4), 0.0);
+            assertEquals(9.0, loaded.get(1).evaluate(2), 0.0);
+            
+            Files.write(file, new byte[] {1, 2, 3});
+            assertThrows(IOException.class, () -> ExpressionStore.read(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    @Test
+    public void testExpressionStoreRejectsUnregisteredFunctionsAndHugeCounts() throws Exception {
+        ExpressionEvaluator.registerFunction("storedfn", v -> v * 2);
+        Path file = Files.createTempFile("expressions", ".bin");
+        try {
+            ExpressionStore.write(file, List.of(ExpressionEvaluator.compile("storedfn(x) + 1", "x")));
+            assertEquals(7.0, ExpressionStore.read(file).get(0).evaluate(3), 0.0);
+            
+            // Same file, but naming a function that was never registered
+            String bytes = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+            Files.write(file, bytes.replace("storedfn", "storedzz").getBytes(StandardCharsets.ISO_8859_1));
+            IOException missing = assertThrows(IOException.class, () -> ExpressionStore.read(file));
+            assertTrue(missing.getMessage().contains("storedzz, which is no longer registered"),
+                missing.getMessage());
+            
+            // A record loading more variables than it names
+            ExpressionStore.write(file, List.of(ExpressionEvaluator.compile("x + y", "x", "y")));
+            byte[] record = Files.readAllBytes(file);
+            // Header, count, kind, source, two names, three tokens, no rewrites
+            int variableCount = 14 + 1 + 1 + 6 + 1 + 4 + 1 + 6 + 1;
+            assertEquals(2, record[variableCount]);
+            record[variableCount] = 3;
+            Files.write(file, record);
+            IOException mismatch = assertThrows(IOException.class, () -> ExpressionStore.read(file));
+            assertTrue(mismatch.getMessage().contains("2 variable names but loads 3"), mismatch.getMessage());
+            
+            // A header claiming two billion expressions must not be allocated up front
+            ByteBuffer huge = ByteBuffer.allocate(32);
+            huge.putInt(0x43585052).putShort((short) 1).putLong(0);
+            huge.put(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+            IOException corrupt = assertThrows(IOException.class, () -> ExpressionStore.read(huge.flip()));
+            assertTrue(corrupt.getMessage().contains("exceeds"), corrupt.getMessage());
+        } finally {
+            Files.delete(file);
+        }
+    }
+    
+    @Test
+    public void testMatrixExpressions() {
+        Map<String, Matrix> variables = Map.of("a", Matrix.of(2, 2, 1, 2, 3, 4), "v", Matrix.vector(3, 4));
+        assertEquals(Matrix.of(2, 1, 17, 39), ExpressionEvaluator.evaluateMatrix("a * [5; 6]", variables));
+        assertEquals(Matrix.of(2, 2, 2, 4, 3, 5), ExpressionEvaluator.evaluateMatrix("transpose(a) + 1", variables));
+        assertEquals(25.0, ExpressionEvaluator.evaluateMatrix("dot(v, v)", variables).toScalar(), 0.0);
+        assertEquals(5.0, ExpressionEvaluator.evaluateMatrix("norm(v)", variables).toScalar(), 0.0);
+        assertEquals(10.0, ExpressionEvaluator.evaluateMatrix("sum(a)", variables).toScalar(), 0.0);
+        assertThrows(RuntimeException.class, () -> ExpressionEvaluator.evaluateMatrix("a + v", variables));
+        assertThrows(RuntimeException.class, () -> ExpressionEvaluator.evaluateMatrix("[1, 2; 3]", variables));
+        assertThrows(RuntimeException.class, () -> ExpressionEvaluator.evaluate("[1, 2]"));
+        
+        // The matrix function names are free for scalar expressions
+        assertEquals(7.0, ExpressionEvaluator.compile("dot * 2 + norm", "dot", "norm").evaluate(3, 1), 0.0);
+        Workspace workspace = new Workspace();
+        workspace.set("transpose", 2);
+        workspace.define("hadamard", "transpose * 3");
+        assertEquals(6.0, workspace.get("hadamard"), 0.0);
+        
+        // Recompiled once a registration changes what a name means
+        ExpressionEvaluator.registerFunction("scale", v -> v * 2, true);
+        assertEquals(Matrix.vector(6, 8), ExpressionEvaluator.evaluateMatrix("scale(v)", variables));
+        ExpressionEvaluator.registerFunction("scale", v -> v * 3, true);
+        assertEquals(Matrix.vector(9, 12), ExpressionEvaluator.evaluateMatrix("scale(v)", variables));
+        
+        // Large enough to be tiled and split across threads; same summation order as the naive loop
+        int n = 200, k = 120, m = 100;
+        double[] x = new double[n * k];
+        double[] y = new double[k * m];
+        for (int i = 0; i < x.length; i++) x[i] = Math.sin(i);
+        for (int i = 0; i < y.length; i++) y[i] = Math.cos(i);
+        MatrixExpression product = ExpressionEvaluator.compileMatrix("x * y", "x", "y");
+        Matrix result = product.evaluate(Matrix.of(n, k, x), Matrix.of(k, m, y));
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                double expected = 0;
+                for (int p = 0; p < k; p++) expected += x[i * k + p] * y[p * m + j];
+                assertEquals(expected, result.get(i, j), 0.0);
+            }
+        }
+        assertEquals(result, product.evaluate(Matrix.of(n, k, x), Matrix.of(k, m, y)));
+    }
+    
+    @Test
+    public void testRangeReductions() {
+        assertEquals(20000100000.0, ExpressionEvaluator.evaluate("sum(i, 1, 200000, i)").getResult(), 0.0);
+        // Compensated: within rounding of pi^2/6 minus the tail beyond n
+        int n = 1000000;
+        double tail = 1.0 / n - 0.5 / ((double) n * n) + 1.0 / (6.0 * n * n * n);
+        assertEquals(Math.PI * Math.PI / 6 - tail,
+            ExpressionEvaluator.evaluate("sum(k, 1, 1000000, 1 / k^2)").getResult(), 1e-15);
+        assertEquals(3628800.0, ExpressionEvaluator.evaluate("prod(k, 1, 10, k)").getResult(), 0.0);
+        assertEquals(0.0, ExpressionEvaluator.evaluate("min(i, 1, 10, (i - 4)^2)").getResult(), 0.0);
+        assertEquals(10.0, ExpressionEvaluator.compile("max(i, 1, n, i) + max(2, 3) - 3", "n").evaluate(10), 0.0);
+        assertEquals(0.0, ExpressionEvaluator.evaluate("sum(i, 1, 0, i)").getResult(), 0.0);
+        assertEquals(110.0, ExpressionEvaluator.compile("sum(i, 1, n, a*i)", "n", "a").evaluate(10, 2), 0.0);
+        assertEquals(100000.0, ExpressionEvaluator.compile("sum(i, 1, 200000, a)", "a").evaluate(0.5), 0.0);
+        
+        assertThrows(RuntimeException.class, () -> ExpressionEvaluator.evaluate("sum(i, 1, 2.5, i)"));
+        assertThrows(RuntimeException.class, () -> ExpressionEvaluator.evaluate("max(i, 1, 0, i)"));
+        assertThrows(RuntimeException.class, () -> ExpressionEvaluator.evaluate("prod(i, 1, 3)"));
+        
+        // Same message whether or not the range is split across the fork/join pool
+        for (String expression : new String[] {"sum(i, 1, 1000, 1 / (i - 500))",
+                "sum(i, 1, 1000000, 1 / (i - 500000))"}) {
+            var error = assertThrows(RuntimeException.class, () -> ExpressionEvaluator.evaluate(expression));
+            assertEquals("Evaluation failed: Division by zero", error.getMessage());
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package com.calculator.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Typed token stream produced by {@link Lexer}, stored in parallel primitive
+ * arrays. Token text is kept as offsets into the source and only turned
+ * into strings when asked for. Buffers grow as needed and can be reused.
+ */
+final class TokenBuffer {
+    
+    static final byte NUMBER = 0;
+    static final byte IDENTIFIER = 1;
+    static final byte FUNCTION = 2;
+    static final byte OPERATOR = 3;
+    static final byte LEFT_PAREN = 4;
+    static final byte RIGHT_PAREN = 5;
+    static final byte COMMA = 6;
+    static final byte LEFT_BRACKET = 7;
+    static final byte RIGHT_BRACKET = 8;
+    static final byte ROW_SEPARATOR = 9;
+    
+    String source;
+    int size;
+    byte[] types = new byte[32];
+    double[] numbers = new double[32];
+    int[] starts = new int[32];
+    int[] ends = new int[32];
+    // Functions resolved by the lexer for FUNCTION tokens, from this registry
+    RegisteredFunction[] functions = new RegisteredFunction[32];
+    // Shape of the matrix literal a RIGHT_BRACKET closes, rows << 16 | columns,
+    // filled in by the postfix converter
+    int[] shapes = new int[32];
+    FunctionRegistry registry;
+    // Set while the lexer is filling this buffer
+    boolean lexing;
+    // Tokens kept from the previous source by Lexer.relex
+    int reused;
+    
+    void reset(String source, FunctionRegistry registry) {
+        this.source = source;
+        this.size = 0;
+        this.reused = 0;
+        this.registry = registry;
+    }
+    
+    int add(byte type, int start, int end) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            functions = Arrays.copyOf(functions, capacity);
+            shapes = Arrays.copyOf(shapes, capacity);
+        }
+        types[size] = type;
+        starts[size] = start;
+        ends[size] = end;
+        return size++;
+    }
+    
+    /** Operator character of an OPERATOR token. */
+    char operator(int index) {
+        return source.charAt(starts[index]);
+    }
+    
+    String text(int index) {
+        return source.substring(starts[index], ends[index]);
+    }
+    
+    List<String> texts() {
+        List<String> texts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            texts.add(text(i));
+        }
+        return texts;
+    }
+}
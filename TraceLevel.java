@@ -0,0 +1,14 @@
+package com.calculator.core;
+
+/**
+ * How much of the calculation is recorded for {@link
+ * ExpressionEvaluator.EvaluationResult#getSteps()}.
+ */
+public enum TraceLevel {
+    /** No steps are recorded; getSteps() is empty. */
+    NONE,
+    /** Validation, tokens, postfix and result only. */
+    SUMMARY,
+    /** Every push and operation on the evaluation stack as well. */
+    FULL
+}
@@ -0,0 +1,105 @@
+package com.calculator.core;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the {@link ColumnEvaluator} block loops. Each
+ * kernel works in place on the first {@code n} values of {@code a}, full
+ * vectors first and then a scalar tail.
+ *
+ * Only operations whose lanewise result is bit-identical to the scalar
+ * {@code Math} method are here. {@code %}, {@code ^}, {@code ceil},
+ * {@code floor} and the transcendental functions have no exact lanewise
+ * counterpart in the API and always run scalar.
+ *
+ * Only reached through {@link VectorSupport}, which keeps this class from
+ * loading when the incubator module is absent.
+ */
+final class VectorKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private VectorKernels() {
+    }
+
+    static int lanes() {
+        return LANES;
+    }
+
+    static void add(double[] a, double[] b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] += b[i];
+    }
+
+    static void sub(double[] a, double[] b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] -= b[i];
+    }
+
+    static void mul(double[] a, double[] b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] *= b[i];
+    }
+
+    /** @throws ArithmeticException if any divisor is zero, before anything is written */
+    static void div(double[] a, double[] b, int n) {
+        int i = 0;
+        int bound = SPECIES.loopBound(n);
+        for (; i < bound; i += LANES) {
+            if (DoubleVector.fromArray(SPECIES, b, i).eq(0).anyTrue()) {
+                throw new ArithmeticException("Division by zero");
+            }
+        }
+        for (; i < n; i++) {
+            if (b[i] == 0) throw new ArithmeticException("Division by zero");
+        }
+        for (i = 0; i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).div(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] /= b[i];
+    }
+
+    static void max(double[] a, double[] b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).max(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] = Math.max(a[i], b[i]);
+    }
+
+    static void min(double[] a, double[] b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).min(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] = Math.min(a[i], b[i]);
+    }
+
+    static void abs(double[] a, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).abs().intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] = Math.abs(a[i]);
+    }
+
+    static void sqrt(double[] a, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, i).lanewise(VectorOperators.SQRT).intoArray(a, i);
+        }
+        for (; i < n; i++) a[i] = Math.sqrt(a[i]);
+    }
+}
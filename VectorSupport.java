@@ -0,0 +1,63 @@
+package com.calculator.core;
+
+/**
+ * Switch for the SIMD kernels used by column evaluation
+ * ({@link CompiledExpression#evaluate(double[][], double[])}).
+ *
+ * The kernels use the incubating Vector API, so they only work when the JVM
+ * was started with {@code --add-modules jdk.incubator.vector}. They are off
+ * by default; turn them on with {@link #setEnabled(boolean)} or
+ * {@code -Dcalculator.vector=true}. Without the module they stay off and
+ * evaluation uses the scalar loops. Results are the same either way.
+ */
+public final class VectorSupport {
+
+    private static final boolean AVAILABLE = detect();
+
+    // Read once per column range, not per block
+    static volatile boolean enabled;
+
+    static {
+        if (Boolean.getBoolean("calculator.vector")) {
+            setEnabled(true);
+        }
+    }
+
+    private VectorSupport() {
+    }
+
+    /** True when the Vector API module is present in this JVM. */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the SIMD kernels on or off. Returns whether they are now in
+     * use, which is false whenever the module is unavailable.
+     */
+    public static boolean setEnabled(boolean on) {
+        enabled = on && AVAILABLE;
+        return enabled;
+    }
+
+    /** Lane count of the preferred vector shape, or 1 when unavailable. */
+    public static int getLaneCount() {
+        return AVAILABLE ? VectorKernels.lanes() : 1;
+    }
+
+    private static boolean detect() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            // Links the kernels class now, so a broken module shows up here
+            return VectorKernels.lanes() > 1;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+}
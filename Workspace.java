@@ -0,0 +1,439 @@
+package com.calculator.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A set of named variables, each either an input value or a formula over
+ * other variables, kept up to date like a spreadsheet.
+ *
+ * A formula's dependencies are the variable names in its tokens. Each
+ * formula is compiled once when defined; changing a variable re-evaluates
+ * only the formulas downstream of it, in topological order, level by level.
+ * Formulas on the same level do not depend on each other, and large levels
+ * are evaluated in parallel. Definitions that would create a cycle are
+ * rejected.
+ *
+ * A formula may refer to a variable that is not defined yet; it evaluates
+ * to NaN with an error until that variable appears. Evaluation errors
+ * such as division by zero are reported the same way and propagate to
+ * dependents.
+ *
+ * Thread-safe. Listeners are called after each change has been fully
+ * recomputed, on the thread that made it, once per variable whose value or
+ * error changed, in topological order.
+ */
+public final class Workspace {
+
+    /** Notified when a variable's value or error changes, or it is removed. */
+    @FunctionalInterface
+    public interface ChangeListener {
+        /**
+         * @param value the new value, NaN when the variable failed or was removed
+         * @param error why it failed, or null
+         */
+        void changed(String name, double value, String error);
+    }
+
+    // Levels smaller than this are evaluated on the caller's thread
+    private static final int PARALLEL_LEVEL = 64;
+
+    private static final class Node {
+        final String name;
+        final String expression;
+        final CompiledExpression compiled;
+        final String[] dependencies;
+        double value = Double.NaN;
+        String error;
+
+        Node(String name, String expression, CompiledExpression compiled, String[] dependencies) {
+            this.name = name;
+            this.expression = expression;
+            this.compiled = compiled;
+            this.dependencies = dependencies;
+        }
+
+        Node(String name, double value) {
+            this(name, null, null, new String[0]);
+            this.value = value;
+        }
+    }
+
+    // What listeners are told, captured under the lock
+    private static final class Change {
+        final String name;
+        final double value;
+        final String error;
+
+        Change(String name, double value, String error) {
+            this.name = name;
+            this.value = value;
+            this.error = error;
+        }
+    }
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    // Reverse edges, kept for names that are referenced but not defined too
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Defines or redefines {@code name} as a formula and recomputes it and
+     * everything that depends on it.
+     *
+     * Formulas that do not compile are rejected the same way as by
+     * {@link ExpressionEvaluator#compile}.
+     *
+     * @throws IllegalArgumentException if the definition would make a
+     *         variable depend on itself
+     */
+    public void define(String name, String expression) {
+        checkName(name);
+        if (expression == null || expression.trim().isEmpty()) {
+            throw new IllegalArgumentException("Expression cannot be empty");
+        }
+        String[] dependencies = dependencies(expression);
+        CompiledExpression compiled = ExpressionEvaluator.compile(expression, dependencies);
+
+        List<Change> changed;
+        synchronized (this) {
+            List<String> cycle = findPath(dependencies, name);
+            if (cycle != null) {
+                cycle.add(0, name);
+                throw new IllegalArgumentException(
+                    "Circular reference: " + String.join(" -> ", cycle));
+            }
+            changed = snapshot(replace(new Node(name, expression, compiled, dependencies)));
+        }
+        fire(changed);
+    }
+
+    /** Sets {@code name} to a plain input value and recomputes its dependents. */
+    public void set(String name, double value) {
+        checkName(name);
+        List<Change> changed;
+        synchronized (this) {
+            Node node = nodes.get(name);
+            if (node != null && node.compiled == null) {
+                // Already an input: only the value changes, not the graph
+                if (Double.doubleToLongBits(node.value) == Double.doubleToLongBits(value)) return;
+                node.value = value;
+                List<Node> downstream = recompute(name);
+                downstream.add(0, node);
+                changed = snapshot(downstream);
+            } else {
+                changed = snapshot(replace(new Node(name, value)));
+            }
+        }
+        fire(changed);
+    }
+
+    /**
+     * Removes a variable. Formulas that use it stay defined and fail until
+     * it is defined again.
+     */
+    public void remove(String name) {
+        List<Change> changed;
+        synchronized (this) {
+            Node removed = nodes.remove(name);
+            if (removed == null) return;
+            unlink(removed);
+            changed = snapshot(recompute(name));
+            changed.add(0, new Change(name, Double.NaN, null));
+        }
+        fire(changed);
+    }
+
+    /**
+     * Current value of a variable; NaN when its formula failed.
+     *
+     * @throws IllegalArgumentException if the variable is not defined
+     */
+    public synchronized double get(String name) {
+        return node(name).value;
+    }
+
+    /** Why the variable's formula failed, or null if it has a value. */
+    public synchronized String getError(String name) {
+        return node(name).error;
+    }
+
+    /** The variable's formula, or null for an input set with {@link #set}. */
+    public synchronized String getExpression(String name) {
+        return node(name).expression;
+    }
+
+    /** Variables the formula refers to, in order of first use. */
+    public synchronized List<String> getDependencies(String name) {
+        return List.of(node(name).dependencies);
+    }
+
+    /** Variables whose formulas refer directly to {@code name}. */
+    public synchronized Set<String> getDependents(String name) {
+        Set<String> direct = dependents.get(name);
+        return direct == null ? Set.of() : Set.copyOf(direct);
+    }
+
+    /** Defined variable names, in definition order. */
+    public synchronized List<String> getNames() {
+        return new ArrayList<>(nodes.keySet());
+    }
+
+    /** Snapshot of every variable's value, in definition order. */
+    public synchronized Map<String, Double> getValues() {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Node node : nodes.values()) {
+            values.put(node.name, node.value);
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    private Node node(String name) {
+        Node node = nodes.get(name);
+        if (node == null) {
+            throw new IllegalArgumentException("Undefined variable: " + name);
+        }
+        return node;
+    }
+
+    private static void checkName(String name) {
+        if (name == null || name.isEmpty() || !Character.isLetter(name.charAt(0))) {
+            throw new IllegalArgumentException("Invalid variable name: " + name);
+        }
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                throw new IllegalArgumentException("Invalid variable name: " + name);
+            }
+        }
+        if (FunctionRegistry.current().lookup(name) != null) {
+            throw new IllegalArgumentException("Variable name is a function: " + name);
+        }
+    }
+
+    /** Distinct identifiers of the expression, in order of first use. */
+    static String[] dependencies(String expression) {
+        TokenBuffer tokens = Lexer.lex(expression);
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = 0; i < tokens.size; i++) {
+            if (tokens.types[i] == TokenBuffer.IDENTIFIER) {
+                names.add(tokens.text(i));
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * A dependency path from one of {@code from} to {@code target}, or null.
+     * Depth first with an explicit stack, so a long chain of formulas cannot
+     * overflow the thread's stack.
+     */
+    private List<String> findPath(String[] from, String target) {
+        // Nothing refers to the target yet, so only a direct self-reference can close a cycle
+        if (!dependents.containsKey(target)) {
+            return Arrays.asList(from).contains(target) ? new ArrayList<>(List.of(target)) : null;
+        }
+        // Each name reached, mapped to the formula it was reached from; null for the starts
+        Map<String, String> parents = new HashMap<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        for (int i = from.length - 1; i >= 0; i--) {
+            if (!parents.containsKey(from[i])) {
+                parents.put(from[i], null);
+                stack.push(from[i]);
+            }
+        }
+        while (!stack.isEmpty()) {
+            String current = stack.pop();
+            if (current.equals(target)) {
+                List<String> path = new ArrayList<>();
+                for (String name = current; name != null; name = parents.get(name)) {
+                    path.add(name);
+                }
+                Collections.reverse(path);
+                return path;
+            }
+            Node node = nodes.get(current);
+            if (node == null) continue;
+            for (int i = node.dependencies.length - 1; i >= 0; i--) {
+                String dependency = node.dependencies[i];
+                if (!parents.containsKey(dependency)) {
+                    parents.put(dependency, current);
+                    stack.push(dependency);
+                }
+            }
+        }
+        return null;
+    }
+
+    private List<Node> replace(Node node) {
+        Node old = nodes.put(node.name, node);
+        if (old != null) unlink(old);
+        for (String dependency : node.dependencies) {
+            dependents.computeIfAbsent(dependency, k -> new LinkedHashSet<>()).add(node.name);
+        }
+        if (node.compiled != null) evaluate(node);
+        List<Node> changed = recompute(node.name);
+        changed.add(0, node);
+        return changed;
+    }
+
+    private void unlink(Node node) {
+        for (String dependency : node.dependencies) {
+            Set<String> direct = dependents.get(dependency);
+            if (direct != null) {
+                direct.remove(node.name);
+                if (direct.isEmpty()) dependents.remove(dependency);
+            }
+        }
+    }
+
+    /**
+     * Re-evaluates every formula downstream of {@code changed}, level by
+     * level, and returns those whose value or error changed.
+     */
+    private List<Node> recompute(String changed) {
+        // Downstream formulas and, for each, how many of its dependencies are also downstream
+        Map<String, Integer> pending = new HashMap<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        queue.add(changed);
+        while (!queue.isEmpty()) {
+            Set<String> direct = dependents.get(queue.poll());
+            if (direct == null) continue;
+            for (String name : direct) {
+                if (!pending.containsKey(name)) {
+                    pending.put(name, 0);
+                    queue.add(name);
+                }
+            }
+        }
+        for (String name : pending.keySet()) {
+            int count = 0;
+            for (String dependency : nodes.get(name).dependencies) {
+                if (pending.containsKey(dependency)) count++;
+            }
+            pending.put(name, count);
+        }
+
+        List<Node> result = new ArrayList<>();
+        List<Node> level = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : pending.entrySet()) {
+            if (entry.getValue() == 0) level.add(nodes.get(entry.getKey()));
+        }
+        while (!level.isEmpty()) {
+            double[] before = new double[level.size()];
+            String[] beforeErrors = new String[level.size()];
+            for (int i = 0; i < level.size(); i++) {
+                before[i] = level.get(i).value;
+                beforeErrors[i] = level.get(i).error;
+            }
+            if (level.size() >= PARALLEL_LEVEL) {
+                ForkJoinPool.commonPool().invoke(new EvaluateLevel(level, 0, level.size()));
+            } else {
+                for (Node node : level) evaluate(node);
+            }
+
+            List<Node> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i++) {
+                Node node = level.get(i);
+                if (Double.doubleToLongBits(node.value) != Double.doubleToLongBits(before[i])
+                        || !Objects.equals(node.error, beforeErrors[i])) {
+                    result.add(node);
+                }
+                for (String dependent : dependents.getOrDefault(node.name, Set.of())) {
+                    int remaining = pending.merge(dependent, -1, Integer::sum);
+                    if (remaining == 0) next.add(nodes.get(dependent));
+                }
+            }
+            level = next;
+        }
+        return result;
+    }
+
+    // Reads only nodes from earlier levels, so nodes of one level can run concurrently
+    private void evaluate(Node node) {
+        double[] values = new double[node.dependencies.length];
+        for (int i = 0; i < values.length; i++) {
+            Node dependency = nodes.get(node.dependencies[i]);
+            if (dependency == null) {
+                fail(node, "Undefined variable: " + node.dependencies[i]);
+                return;
+            }
+            if (dependency.error != null) {
+                // Name only the variable where the failure started
+                fail(node, dependency.error.startsWith("Depends on ") ? dependency.error
+                    : "Depends on " + dependency.name + ": " + dependency.error);
+                return;
+            }
+            values[i] = dependency.value;
+        }
+        try {
+            node.value = node.compiled.evaluate(values);
+            node.error = null;
+        } catch (RuntimeException e) {
+            fail(node, e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+    }
+
+    private static void fail(Node node, String error) {
+        node.value = Double.NaN;
+        node.error = error;
+    }
+
+    private static List<Change> snapshot(List<Node> nodes) {
+        List<Change> changes = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            changes.add(new Change(node.name, node.value, node.error));
+        }
+        return changes;
+    }
+
+    private void fire(List<Change> changes) {
+        for (Change change : changes) {
+            for (ChangeListener listener : listeners) {
+                listener.changed(change.name, change.value, change.error);
+            }
+        }
+    }
+
+    private final class EvaluateLevel extends RecursiveAction {
+        private final List<Node> level;
+        private final int from;
+        private final int to;
+
+        EvaluateLevel(List<Node> level, int from, int to) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_LEVEL / 2) {
+                for (int i = from; i < to; i++) evaluate(level.get(i));
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new EvaluateLevel(level, from, mid), new EvaluateLevel(level, mid, to));
+        }
+    }
+}